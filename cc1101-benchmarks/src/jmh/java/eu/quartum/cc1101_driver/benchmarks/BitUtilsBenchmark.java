@@ -0,0 +1,58 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.utils.BitUtils;
+
+/**
+ * Measures the bit manipulation and hex formatting helpers used on the receive path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BitUtilsBenchmark {
+    private byte mValue;
+    private byte[] mBuffer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        mValue = (byte) random.nextInt();
+        mBuffer = new byte[64];
+        random.nextBytes(mBuffer);
+    }
+
+    @Benchmark
+    public byte bitRead() {
+        return BitUtils.bitRead(mValue, 7);
+    }
+
+    @Benchmark
+    public byte bitsReadLqi() {
+        return BitUtils.bitsRead(mValue, 0, 6);
+    }
+
+    @Benchmark
+    public byte bitsReadCrc() {
+        return BitUtils.bitsRead(mValue, 7, 7);
+    }
+
+    @Benchmark
+    public String getHexValueByte() {
+        return BitUtils.getHexValue(mValue);
+    }
+
+    @Benchmark
+    public String getHexValueArray() {
+        return BitUtils.getHexValue(mBuffer);
+    }
+}
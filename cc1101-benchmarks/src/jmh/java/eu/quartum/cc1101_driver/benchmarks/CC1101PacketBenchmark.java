@@ -0,0 +1,46 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+
+/**
+ * Measures the creation and the formatting of CC1101Packet instances.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CC1101PacketBenchmark {
+    private CC1101Packet mPacket;
+
+    @Setup
+    public void setup() {
+        mPacket = new CC1101Packet();
+        mPacket.length = 20;
+        mPacket.data = new byte[20];
+        for (int i = 0; i < mPacket.data.length; i++) {
+            mPacket.data[i] = (byte) i;
+        }
+        mPacket.rssi = (byte) 0xB4;
+        mPacket.lqi = 0x2A;
+        mPacket.crcOk = true;
+    }
+
+    @Benchmark
+    public CC1101Packet create() {
+        return new CC1101Packet();
+    }
+
+    @Benchmark
+    public String format() {
+        return mPacket.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Config;
+import eu.quartum.cc1101_driver.CC1101Constants;
+
+/**
+ * Measures a channel change on a simulated chip : a hop with cached calibrations, against a full
+ * setup with a configuration rebuilt for the new channel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelHopBenchmark {
+    @Param({"false", "true"})
+    public boolean hardwareChipSelect;
+
+    private SimulatedRadio mRadio;
+    private int mChannel;
+
+    @Setup
+    public void setup() {
+        mRadio = new SimulatedRadio(CC1101Config.GFSK_1_2_kb, hardwareChipSelect);
+        mRadio.manager.setup();
+        mRadio.manager.calibrateChannels();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRadio.manager.close();
+    }
+
+    @Benchmark
+    public long hop() {
+        mChannel = (mChannel + 1) % CC1101Constants.NUMBER_OF_FCHANNELS;
+        mRadio.manager.hop(mChannel);
+        return mRadio.manager.getLastHopLatencyNanos();
+    }
+
+    @Benchmark
+    public long setupOnNewChannel() {
+        mChannel = (mChannel + 1) % CC1101Constants.NUMBER_OF_FCHANNELS;
+        CC1101Config config = new CC1101Config.Builder()
+                .setRegister(CC1101Constants.CC1101_CHANNR, (byte) mChannel)
+                .build();
+        mRadio.manager.close();
+        mRadio = new SimulatedRadio(config, hardwareChipSelect);
+        mRadio.manager.setup();
+        return mRadio.manager.getLastSetupTransactionCount();
+    }
+}
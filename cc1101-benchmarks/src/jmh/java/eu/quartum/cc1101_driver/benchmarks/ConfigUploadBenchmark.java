@@ -0,0 +1,40 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Config;
+
+/**
+ * Measures CC1101Manager.setup() on a simulated chip : reset, PATABLE and register upload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigUploadBenchmark {
+    private SimulatedRadio mRadio;
+
+    @Setup
+    public void setup() {
+        mRadio = new SimulatedRadio(CC1101Config.GFSK_1_2_kb);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRadio.manager.close();
+    }
+
+    @Benchmark
+    public long setupRadio() {
+        mRadio.manager.setup();
+        return mRadio.manager.getLastSetupTransactionCount();
+    }
+}
@@ -0,0 +1,64 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+import eu.quartum.cc1101_driver.link.LinkQualityMonitor;
+import eu.quartum.cc1101_driver.link.LinkStats;
+
+/**
+ * Measures the update of the link quality statistics with packets from a population of senders,
+ * twice as large as the monitor so that half of the packets evict a sender.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LinkQualityBenchmark {
+    @Param({"256", "4096"})
+    public int maxSenders;
+
+    private LinkQualityMonitor mMonitor;
+    private CC1101Packet mPacket;
+    private int mSender;
+
+    @Setup
+    public void setup() {
+        mMonitor = new LinkQualityMonitor(maxSenders, 0.125, new LinkQualityMonitor.SenderId() {
+            @Override
+            public int getSender(CC1101Packet packet) {
+                return ((packet.data[0] & 0xFF) << 8) | (packet.data[1] & 0xFF);
+            }
+        });
+        mPacket = new CC1101Packet();
+        mPacket.length = 20;
+        mPacket.data = new byte[20];
+        mPacket.lqi = 0x2A;
+        mPacket.crcOk = true;
+    }
+
+    @Benchmark
+    public int record() {
+        mSender = (mSender + 7919) % (2 * maxSenders);
+        mPacket.data[0] = (byte) (mSender >> 8);
+        mPacket.data[1] = (byte) mSender;
+        mPacket.rssi = (byte) mSender;
+        mPacket.receivedNanos = System.nanoTime();
+        mMonitor.record(mPacket);
+        return mSender;
+    }
+
+    @Benchmark
+    public LinkStats getStats() {
+        mSender = (mSender + 7919) % (2 * maxSenders);
+        return mMonitor.getStats(mSender);
+    }
+}
@@ -0,0 +1,53 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+import eu.quartum.cc1101_driver.capture.PacketCapture;
+
+/**
+ * Measures the time the radio thread spends recording a packet to a capture ring file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketCaptureBenchmark {
+    private File mFile;
+    private PacketCapture mCapture;
+    private CC1101Packet mPacket;
+
+    @Setup
+    public void setup() throws IOException {
+        mFile = File.createTempFile("capture", ".bin");
+        mCapture = new PacketCapture(mFile, 1 << 20);
+        mPacket = new CC1101Packet();
+        mPacket.length = 20;
+        mPacket.data = new byte[20];
+        mPacket.rssi = (byte) 0xB4;
+        mPacket.lqi = 0x2A;
+        mPacket.crcOk = true;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mCapture.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long record() {
+        mCapture.record(mPacket);
+        return mCapture.getRecordedCount();
+    }
+}
@@ -0,0 +1,68 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+import eu.quartum.cc1101_driver.CC1101PacketPool;
+
+/**
+ * Measures the decoding of a packet by CC1101Manager.receiveData() on a simulated chip.
+ * Each operation injects a packet in the simulated RX FIFO then reads it back, either in a newly
+ * allocated packet or in a packet taken from a CC1101PacketPool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReceiveBenchmark {
+    @Param({ "false", "true" })
+    public boolean appendStatus;
+
+    @Param({ "8", "32", "60" })
+    public int payloadLength;
+
+    @Param({ "false", "true" })
+    public boolean pooled;
+
+    private SimulatedRadio mRadio;
+    private byte[] mPayload;
+
+    @Setup
+    public void setup() throws Exception {
+        mRadio = new SimulatedRadio(SimulatedRadio.gfskConfig(appendStatus));
+        mRadio.manager.setup();
+        // receiveData() is called by the benchmark instead of the GDO0 edge listener
+        mRadio.transport.setGdo0Listener(null);
+        mRadio.manager.setRxState();
+        if (pooled) {
+            mRadio.manager.setPacketPool(new CC1101PacketPool(4));
+        }
+        mPayload = new byte[payloadLength];
+        for (int i = 0; i < payloadLength; i++) {
+            mPayload[i] = (byte) i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRadio.manager.close();
+    }
+
+    @Benchmark
+    public int receive() {
+        mRadio.transport.injectPacket(mPayload, (byte) 0xB4, (byte) 0x2A, true);
+        CC1101Packet packet = mRadio.manager.receiveData();
+        int length = packet.getLength();
+        packet.recycle();
+        return length;
+    }
+}
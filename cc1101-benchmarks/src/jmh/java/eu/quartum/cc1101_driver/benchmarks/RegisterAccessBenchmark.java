@@ -0,0 +1,71 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Config;
+import eu.quartum.cc1101_driver.CC1101Packet;
+import eu.quartum.cc1101_driver.utils.DelayUtils;
+
+/**
+ * Measures the latency of a single SPI access on a simulated chip, including the delays around
+ * the slave select line, with the slave select driven by a GPIO port or by the SPI controller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RegisterAccessBenchmark {
+    @Param({"false", "true"})
+    public boolean hardwareChipSelect;
+
+    private SimulatedRadio mRadio;
+
+    @Setup
+    public void setup() {
+        mRadio = new SimulatedRadio(CC1101Config.GFSK_1_2_kb, hardwareChipSelect);
+        mRadio.manager.setup();
+        mRadio.transport.setGdo0Listener(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRadio.manager.close();
+    }
+
+    @Benchmark
+    public long strobe() {
+        mRadio.manager.setIdleState();
+        return mRadio.manager.getSpiTransactionCount();
+    }
+
+    /**
+     * Reads RXBYTES and finds the RX FIFO empty
+     */
+    @Benchmark
+    public int statusRead() {
+        CC1101Packet packet = mRadio.manager.receiveData();
+        return packet.length;
+    }
+
+    /**
+     * The 2us delay that used to surround each transaction, twice per access
+     */
+    @Benchmark
+    public void threadSleepDelay() throws InterruptedException {
+        Thread.sleep(0, 2000);
+    }
+
+    @Benchmark
+    public void busyWaitDelay() {
+        DelayUtils.busyWaitNanos(2000);
+    }
+}
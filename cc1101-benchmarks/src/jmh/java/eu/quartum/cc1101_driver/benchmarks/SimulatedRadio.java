@@ -0,0 +1,36 @@
+package eu.quartum.cc1101_driver.benchmarks;
+
+import eu.quartum.cc1101_driver.CC1101Config;
+import eu.quartum.cc1101_driver.CC1101Constants;
+import eu.quartum.cc1101_driver.CC1101Manager;
+import eu.quartum.cc1101_driver.transport.SimulatedCC1101Transport;
+
+/**
+ * A CC1101Manager driving a simulated CC1101 chip.
+ */
+class SimulatedRadio {
+    final SimulatedCC1101Transport transport;
+    final CC1101Manager manager;
+
+    SimulatedRadio(CC1101Config config) {
+        this(config, false);
+    }
+
+    SimulatedRadio(CC1101Config config, boolean hardwareChipSelect) {
+        transport = new SimulatedCC1101Transport(hardwareChipSelect);
+        manager = new CC1101Manager(transport, config);
+    }
+
+    /**
+     * Returns a copy of the GFSK 1.2kb configuration with PKTCTRL1.APPEND_STATUS set or cleared
+     */
+    static CC1101Config gfskConfig(boolean appendStatus) {
+        byte[] config = CC1101Config.GFSK_1_2_kb.getConfig();
+        if (appendStatus) {
+            config[CC1101Constants.CC1101_PKTCTRL1] |= 0x04;
+        } else {
+            config[CC1101Constants.CC1101_PKTCTRL1] &= ~0x04;
+        }
+        return new CC1101Config(config);
+    }
+}
@@ -7,24 +7,449 @@ import java.util.Arrays;
 
 /**
  * Created by pierrerossines on 21/04/2017.
+ *
+ * An immutable set of values for the 47 configuration registers of the CC1101. Build one from a
+ * raw register image, or with a {@link Builder} which computes the register values from typed
+ * settings. The typed getters decode the settings back from the register image.
  */
 
 public class CC1101Config {
-    private byte[] config;
+    /**
+     * Frequency of the crystal the register values are computed for
+     */
+    public final static long CRYSTAL_FREQUENCY = 26000000;
+
+    public enum Modulation {
+        FSK_2(0), GFSK(1), ASK_OOK(3), FSK_4(4), MSK(7);
+
+        private final int mFormat;
+
+        Modulation(int format) {
+            mFormat = format;
+        }
+    }
+
+    public enum PacketLengthMode {
+        FIXED, VARIABLE, INFINITE
+    }
+
+    public enum AddressCheck {
+        NONE, ADDRESS, ADDRESS_BROADCAST_0, ADDRESS_BROADCAST_0_255
+    }
+
+    /**
+     * The sync word qualification of MDMCFG2 : the number of sync word bits which must match,
+     * optionally combined with a carrier sense above the CARRIER_SENSE_ABS_THR threshold
+     */
+    public enum SyncMode {
+        NONE, SYNC_15_16, SYNC_16_16, SYNC_30_32,
+        CARRIER_SENSE, CARRIER_SENSE_15_16, CARRIER_SENSE_16_16, CARRIER_SENSE_30_32
+    }
+
+    private final static int PKTCTRL1_PQT_SHIFT = 5;
+    private final static int PKTCTRL1_CRC_AUTOFLUSH = 0x08;
+    private final static int PKTCTRL0_CRC_EN = 0x04;
+
+    private final byte[] config;
 
     public CC1101Config(byte[] config) {
         if (config == null || config.length < CC1101Constants.CC1101_COMPLETE_REGISTERS) {
             throw new InvalidParameterException("The configuration must contain the full set of "
                     + CC1101Constants.CC1101_COMPLETE_REGISTERS + " register values");
         }
-        this.config = Arrays.copyOf(config, config.length);
+        this.config = Arrays.copyOf(config, CC1101Constants.CC1101_COMPLETE_REGISTERS);
     }
 
+    /**
+     * Returns a copy of the register values
+     */
     public byte[] getConfig() {
         return Arrays.copyOf(config, config.length);
     }
 
-    public static CC1101Config GFSK_1_2_kb = new CC1101Config(new byte[] {
+    /**
+     * Returns the register values, ordered for a burst write from IOCFG2. The array is shared and
+     * must not be modified.
+     */
+    byte[] getRegisters() {
+        return config;
+    }
+
+    /**
+     * Returns a builder initialized with the settings of this configuration
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public long getFrequency() {
+        return decodeFrequency(config[CC1101Constants.CC1101_FREQ2], config[CC1101Constants.CC1101_FREQ1], config[CC1101Constants.CC1101_FREQ0]);
+    }
+
+    public int getDataRate() {
+        return decodeDataRate(config[CC1101Constants.CC1101_MDMCFG4], config[CC1101Constants.CC1101_MDMCFG3]);
+    }
+
+    public int getDeviation() {
+        int deviatn = config[CC1101Constants.CC1101_DEVIATN];
+        return (int) ((CRYSTAL_FREQUENCY * (8 + (deviatn & 0x07)) << ((deviatn >> 4) & 0x07)) >> 17);
+    }
+
+    /**
+     * Returns the modulation format, or null if the MOD_FORMAT field of MDMCFG2 is invalid
+     */
+    public Modulation getModulation() {
+        int format = (config[CC1101Constants.CC1101_MDMCFG2] >> 4) & 0x07;
+        for (Modulation modulation : Modulation.values()) {
+            if (modulation.mFormat == format) {
+                return modulation;
+            }
+        }
+        return null;
+    }
+
+    public int getSyncWord() {
+        return ((config[CC1101Constants.CC1101_SYNC1] & 0xFF) << 8) | (config[CC1101Constants.CC1101_SYNC0] & 0xFF);
+    }
+
+    /**
+     * Returns the packet length mode, or null if the LENGTH_CONFIG field of PKTCTRL0 is invalid
+     */
+    public PacketLengthMode getPacketLengthMode() {
+        int lengthConfig = config[CC1101Constants.CC1101_PKTCTRL0] & 0x03;
+        return lengthConfig < 3 ? PacketLengthMode.values()[lengthConfig] : null;
+    }
+
+    /**
+     * Returns the packet length in fixed length mode, or the maximum packet length in variable
+     * length mode
+     */
+    public int getPacketLength() {
+        return config[CC1101Constants.CC1101_PKTLEN] & 0xFF;
+    }
+
+    public boolean isCrcEnabled() {
+        return (config[CC1101Constants.CC1101_PKTCTRL0] & 0x04) != 0;
+    }
+
+    public AddressCheck getAddressCheck() {
+        return AddressCheck.values()[config[CC1101Constants.CC1101_PKTCTRL1] & 0x03];
+    }
+
+    public int getAddress() {
+        return config[CC1101Constants.CC1101_ADDR] & 0xFF;
+    }
+
+    public SyncMode getSyncMode() {
+        return SyncMode.values()[config[CC1101Constants.CC1101_MDMCFG2] & 0x07];
+    }
+
+    /**
+     * Returns the PQT field of PKTCTRL1 : the sync word is only accepted once the preamble quality
+     * estimator reached 4 * PQT, 0 when the preamble is not qualified
+     */
+    public int getPreambleQualityThreshold() {
+        return (config[CC1101Constants.CC1101_PKTCTRL1] >> PKTCTRL1_PQT_SHIFT) & 0x07;
+    }
+
+    public boolean isCrcAutoflushEnabled() {
+        return (config[CC1101Constants.CC1101_PKTCTRL1] & PKTCTRL1_CRC_AUTOFLUSH) != 0;
+    }
+
+    /**
+     * Returns the GDO0 signal selection, see the GDOx signal table of the datasheet
+     */
+    public int getGdo0Mode() {
+        return config[CC1101Constants.CC1101_IOCFG0] & 0x3F;
+    }
+
+    /**
+     * Returns the GDO2 signal selection, see the GDOx signal table of the datasheet
+     */
+    public int getGdo2Mode() {
+        return config[CC1101Constants.CC1101_IOCFG2] & 0x3F;
+    }
+
+    /**
+     * Returns the FREQ register value for a carrier frequency, or -1 if it is out of the
+     * 300-348, 387-464 and 779-928 MHz bands
+     */
+    static int encodeFrequency(long frequencyHz) {
+        boolean inBand = (frequencyHz >= 300000000 && frequencyHz <= 348000000)
+                || (frequencyHz >= 387000000 && frequencyHz <= 464000000)
+                || (frequencyHz >= 779000000 && frequencyHz <= 928000000);
+        return inBand ? (int) (((frequencyHz << 16) + CRYSTAL_FREQUENCY / 2) / CRYSTAL_FREQUENCY) : -1;
+    }
+
+    static long decodeFrequency(byte freq2, byte freq1, byte freq0) {
+        long freq = ((freq2 & 0xFFL) << 16) | ((freq1 & 0xFF) << 8) | (freq0 & 0xFF);
+        return (freq * CRYSTAL_FREQUENCY) >> 16;
+    }
+
+    /**
+     * Returns the DRATE_E exponent in bits 11:8 and the DRATE_M mantissa in bits 7:0 for a data
+     * rate, or -1 if it can't be encoded
+     */
+    static int encodeDataRate(int baudRate) {
+        for (int drateE = 0; drateE < 16 && baudRate > 0; drateE++) {
+            long drateM = (((long) baudRate << (28 - drateE)) + CRYSTAL_FREQUENCY / 2) / CRYSTAL_FREQUENCY - 256;
+            if (drateM >= 0 && drateM <= 0xFF) {
+                return (drateE << 8) | (int) drateM;
+            }
+        }
+        return -1;
+    }
+
+    static int decodeDataRate(byte mdmcfg4, byte mdmcfg3) {
+        int drateE = mdmcfg4 & 0x0F;
+        int drateM = mdmcfg3 & 0xFF;
+        return (int) ((((256L + drateM) << drateE) * CRYSTAL_FREQUENCY) >> 28);
+    }
+
+    /**
+     * RX timeout coefficients of MCSM2.RX_TIME = 0 for each WOR_RES value, from the description
+     * of MCSM2 in the datasheet : the RX timeout is EVENT0 * C * 26 / fxosc[MHz] us, and is halved
+     * by each RX_TIME step. As EVENT0 lasts 750 / fxosc * EVENT0 * 2^(5 * WOR_RES) seconds, the RX
+     * duty cycle is C * 26 / (750 * 2^(5 * WOR_RES)) / 2^RX_TIME.
+     */
+    private final static double[] WOR_RX_TIMEOUT_COEFFICIENTS = { 3.6058, 18.0288, 32.4519, 46.8750 };
+    private final static int WOR_MAX_RX_TIME = 6;
+
+    /**
+     * Returns the Wake-on-Radio settings waking the chip at least every periodMicros and keeping
+     * it in RX at most dutyCycle of the time : WOR_RES in bits 21:20, RX_TIME in bits 18:16 and
+     * EVENT0 in bits 15:0. The finest WOR_RES reaching the duty cycle is used. Returns -1 if the
+     * settings can't be encoded.
+     */
+    static int encodeWakeOnRadio(long periodMicros, double dutyCycle) {
+        if (periodMicros <= 0 || dutyCycle <= 0 || dutyCycle > 1) {
+            return -1;
+        }
+        for (int worRes = 0; worRes < WOR_RX_TIMEOUT_COEFFICIENTS.length; worRes++) {
+            long event0 = (long) (periodMicros * (double) CRYSTAL_FREQUENCY / (750e6 * (1L << (5 * worRes))));
+            if (event0 < 1) {
+                return -1;
+            }
+            if (event0 > 0xFFFF) {
+                continue;
+            }
+            double rxDutyCycle = WOR_RX_TIMEOUT_COEFFICIENTS[worRes] * 26 / (750.0 * (1L << (5 * worRes)));
+            int rxTime = 0;
+            while (rxDutyCycle > dutyCycle && rxTime < WOR_MAX_RX_TIME) {
+                rxDutyCycle /= 2;
+                rxTime++;
+            }
+            if (rxDutyCycle <= dutyCycle) {
+                return (worRes << 20) | (rxTime << 16) | (int) event0;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds a CC1101Config from typed settings. The register image is computed as the settings
+     * are set, and validated once by {@link #build()}. A builder starts from the settings of
+     * {@link #GFSK_1_2_kb}, or of the given configuration.
+     */
+    public static class Builder {
+        private final byte[] mRegisters;
+
+        public Builder() {
+            this(GFSK_1_2_kb);
+        }
+
+        public Builder(@NonNull CC1101Config base) {
+            mRegisters = base.getConfig();
+        }
+
+        /**
+         * @param frequencyHz the carrier frequency of channel 0, in the 300-348, 387-464 or
+         *                    779-928 MHz bands
+         */
+        public Builder setFrequency(long frequencyHz) {
+            int freq = encodeFrequency(frequencyHz);
+            if (freq < 0) {
+                throw new IllegalArgumentException("Invalid frequency " + frequencyHz);
+            }
+            mRegisters[CC1101Constants.CC1101_FREQ2] = (byte) (freq >> 16);
+            mRegisters[CC1101Constants.CC1101_FREQ1] = (byte) (freq >> 8);
+            mRegisters[CC1101Constants.CC1101_FREQ0] = (byte) freq;
+            return this;
+        }
+
+        /**
+         * @param baudRate the data rate, in bauds
+         */
+        public Builder setDataRate(int baudRate) {
+            int drate = encodeDataRate(baudRate);
+            if (drate < 0) {
+                throw new IllegalArgumentException("Invalid data rate " + baudRate);
+            }
+            byte mdmcfg4 = mRegisters[CC1101Constants.CC1101_MDMCFG4];
+            mRegisters[CC1101Constants.CC1101_MDMCFG4] = (byte) ((mdmcfg4 & 0xF0) | (drate >> 8));
+            mRegisters[CC1101Constants.CC1101_MDMCFG3] = (byte) drate;
+            return this;
+        }
+
+        /**
+         * @param deviationHz the frequency deviation of the FSK modulations, in Hz
+         */
+        public Builder setDeviation(int deviationHz) {
+            for (int deviationE = 0; deviationE < 8 && deviationHz > 0; deviationE++) {
+                long deviationM = (((long) deviationHz << (17 - deviationE)) + CRYSTAL_FREQUENCY / 2) / CRYSTAL_FREQUENCY - 8;
+                if (deviationM >= 0 && deviationM <= 7) {
+                    mRegisters[CC1101Constants.CC1101_DEVIATN] = (byte) ((deviationE << 4) | deviationM);
+                    return this;
+                }
+            }
+            throw new IllegalArgumentException("Invalid deviation " + deviationHz);
+        }
+
+        public Builder setModulation(@NonNull Modulation modulation) {
+            byte mdmcfg2 = mRegisters[CC1101Constants.CC1101_MDMCFG2];
+            mRegisters[CC1101Constants.CC1101_MDMCFG2] = (byte) ((mdmcfg2 & 0x8F) | (modulation.mFormat << 4));
+            return this;
+        }
+
+        public Builder setSyncWord(int syncWord) {
+            if (syncWord < 0 || syncWord > 0xFFFF) {
+                throw new IllegalArgumentException("Invalid sync word " + syncWord);
+            }
+            mRegisters[CC1101Constants.CC1101_SYNC1] = (byte) (syncWord >> 8);
+            mRegisters[CC1101Constants.CC1101_SYNC0] = (byte) syncWord;
+            return this;
+        }
+
+        public Builder setPacketLengthMode(@NonNull PacketLengthMode mode) {
+            byte pktctrl0 = mRegisters[CC1101Constants.CC1101_PKTCTRL0];
+            mRegisters[CC1101Constants.CC1101_PKTCTRL0] = (byte) ((pktctrl0 & ~0x03) | mode.ordinal());
+            return this;
+        }
+
+        /**
+         * @param length the packet length in fixed length mode, or the maximum packet length in
+         *               variable length mode, from 1 to 255
+         */
+        public Builder setPacketLength(int length) {
+            if (length < 1 || length > 0xFF) {
+                throw new IllegalArgumentException("Invalid packet length " + length);
+            }
+            mRegisters[CC1101Constants.CC1101_PKTLEN] = (byte) length;
+            return this;
+        }
+
+        /**
+         * Disabling the CRC also disables the CRC autoflush
+         */
+        public Builder setCrcEnabled(boolean enabled) {
+            byte pktctrl0 = mRegisters[CC1101Constants.CC1101_PKTCTRL0];
+            mRegisters[CC1101Constants.CC1101_PKTCTRL0] = (byte) (enabled ? pktctrl0 | PKTCTRL0_CRC_EN : pktctrl0 & ~PKTCTRL0_CRC_EN);
+            if (!enabled) {
+                setCrcAutoflush(false);
+            }
+            return this;
+        }
+
+        /**
+         * Makes the chip flush the RX FIFO when the CRC of a packet is invalid, so that the packet
+         * is never read. Requires the CRC, and only one packet at a time in the RX FIFO : the
+         * whole FIFO is flushed.
+         */
+        public Builder setCrcAutoflush(boolean enabled) {
+            byte pktctrl1 = mRegisters[CC1101Constants.CC1101_PKTCTRL1];
+            mRegisters[CC1101Constants.CC1101_PKTCTRL1] = (byte) (enabled ? pktctrl1 | PKTCTRL1_CRC_AUTOFLUSH : pktctrl1 & ~PKTCTRL1_CRC_AUTOFLUSH);
+            return this;
+        }
+
+        public Builder setSyncMode(@NonNull SyncMode mode) {
+            byte mdmcfg2 = mRegisters[CC1101Constants.CC1101_MDMCFG2];
+            mRegisters[CC1101Constants.CC1101_MDMCFG2] = (byte) ((mdmcfg2 & ~0x07) | mode.ordinal());
+            return this;
+        }
+
+        /**
+         * @param threshold the PQT field, from 0 to 7 : a sync word is only accepted after a
+         *                  preamble of quality 4 * threshold, 0 accepts any sync word
+         */
+        public Builder setPreambleQualityThreshold(int threshold) {
+            if (threshold < 0 || threshold > 7) {
+                throw new IllegalArgumentException("Invalid preamble quality threshold " + threshold);
+            }
+            byte pktctrl1 = mRegisters[CC1101Constants.CC1101_PKTCTRL1];
+            mRegisters[CC1101Constants.CC1101_PKTCTRL1] = (byte) ((pktctrl1 & 0x1F) | (threshold << PKTCTRL1_PQT_SHIFT));
+            return this;
+        }
+
+        public Builder setAddressCheck(@NonNull AddressCheck check, int address) {
+            if (address < 0 || address > 0xFF) {
+                throw new IllegalArgumentException("Invalid address " + address);
+            }
+            byte pktctrl1 = mRegisters[CC1101Constants.CC1101_PKTCTRL1];
+            mRegisters[CC1101Constants.CC1101_PKTCTRL1] = (byte) ((pktctrl1 & ~0x03) | check.ordinal());
+            mRegisters[CC1101Constants.CC1101_ADDR] = (byte) address;
+            return this;
+        }
+
+        /**
+         * @param mode the GDO0 signal selection, from the GDOx signal table of the datasheet
+         */
+        public Builder setGdo0Mode(int mode) {
+            setGdoMode(CC1101Constants.CC1101_IOCFG0, mode);
+            return this;
+        }
+
+        /**
+         * @param mode the GDO2 signal selection, from the GDOx signal table of the datasheet
+         */
+        public Builder setGdo2Mode(int mode) {
+            setGdoMode(CC1101Constants.CC1101_IOCFG2, mode);
+            return this;
+        }
+
+        /**
+         * Sets a register the typed settings do not cover
+         */
+        public Builder setRegister(byte address, byte value) {
+            if (address < 0 || address >= CC1101Constants.CC1101_COMPLETE_REGISTERS) {
+                throw new IllegalArgumentException("Invalid register " + address);
+            }
+            mRegisters[address] = value;
+            return this;
+        }
+
+        private void setGdoMode(byte register, int mode) {
+            if (mode < 0 || mode > 0x3F) {
+                throw new IllegalArgumentException("Invalid GDO mode " + mode);
+            }
+            mRegisters[register] = (byte) ((mRegisters[register] & 0xC0) | mode);
+        }
+
+        /**
+         * Validates the settings and returns the configuration
+         *
+         * @throws IllegalStateException if the settings are inconsistent
+         */
+        public CC1101Config build() {
+            int lengthConfig = mRegisters[CC1101Constants.CC1101_PKTCTRL0] & 0x03;
+            if (lengthConfig == 3) {
+                throw new IllegalStateException("Invalid packet length mode");
+            }
+            int format = (mRegisters[CC1101Constants.CC1101_MDMCFG2] >> 4) & 0x07;
+            if (format == 2 || format == 5 || format == 6) {
+                throw new IllegalStateException("Invalid modulation format " + format);
+            }
+            if (format == Modulation.FSK_4.mFormat && (mRegisters[CC1101Constants.CC1101_MDMCFG2] & 0x08) != 0) {
+                throw new IllegalStateException("Manchester encoding is not supported with 4-FSK");
+            }
+            if ((mRegisters[CC1101Constants.CC1101_PKTCTRL1] & PKTCTRL1_CRC_AUTOFLUSH) != 0
+                    && (mRegisters[CC1101Constants.CC1101_PKTCTRL0] & PKTCTRL0_CRC_EN) == 0) {
+                throw new IllegalStateException("The CRC autoflush requires the CRC");
+            }
+            return new CC1101Config(mRegisters);
+        }
+    }
+
+    public final static CC1101Config GFSK_1_2_kb = new CC1101Config(new byte[] {
             (byte) 0x29,  // IOCFG2        GDO2 Output Pin Configuration
             (byte) 0x2E,  // IOCFG1        GDO1 Output Pin Configuration
             (byte) 0x06,  // IOCFG0        GDO0 Output Pin Configuration
@@ -1,19 +1,41 @@
 package eu.quartum.cc1101_driver;
 
-import android.os.Handler;
+import android.os.Process;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.google.android.things.pio.Gpio;
-import com.google.android.things.pio.GpioCallback;
-import com.google.android.things.pio.PeripheralManagerService;
-import com.google.android.things.pio.SpiDevice;
-
 import java.io.IOException;
-import java.security.InvalidParameterException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.quartum.cc1101_driver.capture.PacketCapture;
+import eu.quartum.cc1101_driver.link.LinkQualityMonitor;
+import eu.quartum.cc1101_driver.transport.AndroidThingsTransport;
+import eu.quartum.cc1101_driver.trace.LogTraceSink;
+import eu.quartum.cc1101_driver.trace.TraceEvent;
+import eu.quartum.cc1101_driver.trace.TraceLevel;
+import eu.quartum.cc1101_driver.trace.TraceSink;
+import eu.quartum.cc1101_driver.transport.CC1101Transport;
 import eu.quartum.cc1101_driver.utils.BitUtils;
+import eu.quartum.cc1101_driver.utils.DelayUtils;
 
 
 /**
@@ -24,86 +46,374 @@ public class CC1101Manager {
     public final static String TAG = CC1101Manager.class.getSimpleName();
     private final static int CC1101_BUFFER_LEN = 64;
     private final static int CC1101_DATA_LEN = CC1101_BUFFER_LEN - 3;
-    private PeripheralManagerService mPMS;
-    private String mSPIDeviceName;
-    private SpiDevice mSPIDevice;
-    private String mGDO0Name;
-    private Gpio mGDO0;
+    private final CC1101Transport mTransport;
 
-    private String mSSName;
-    private Gpio mSS;
+    /**
+     * Bounds of the delay between two status checks of the supervisor : the delay is reset to
+     * the minimum after a recovery, and doubled after each check finding the chip in RX state
+     */
+    private final static long SUPERVISOR_MIN_DELAY_MS = 100;
+    private final static long SUPERVISOR_MAX_DELAY_MS = 10000;
+    /**
+     * Delay of the first check, the chip was just configured
+     */
+    private final static long SUPERVISOR_FIRST_DELAY_MS = 1000;
+    private final static int DEFAULT_QUEUE_CAPACITY = 32;
+    /**
+     * Upper bound of the packets read per GDO0 interrupt : a 64 bytes FIFO holds at most 16
+     * packets of 1 byte with their length and status bytes
+     */
+    private final static int MAX_PACKETS_PER_DRAIN = 16;
 
-    private final static int DELAY_CHECKSTATUS = 5000;
-    private Handler mHandler = new Handler();
+    /**
+     * Serializes the SPI transactions of the radio thread and of the callers of this class, and
+     * of the other managers sharing the SPI bus
+     */
+    private final ReentrantLock mSpiLock;
 
     private PacketListener mListener;
+    private BatchPacketListener mBatchListener;
+
+    private Thread mRadioThread;
+    private volatile boolean mRadioThreadRunning;
+    private final AtomicInteger mPendingEdges = new AtomicInteger();
+    private final AtomicLongArray mRecoveries = new AtomicLongArray(Recovery.values().length);
+    /**
+     * Transient state seen by the last status check, -1 if none. Owned by the radio thread.
+     */
+    private int mSuspectState = -1;
+    /**
+     * Packets drained from the RX FIFO before their GDO0 edge was handled, owned by the radio
+     * thread
+     */
+    private int mPacketsReadAhead;
+
+    private int mQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private BackpressurePolicy mBackpressurePolicy = BackpressurePolicy.DROP_OLDEST;
+    private Executor mDispatchExecutor;
+    private ExecutorService mOwnDispatchExecutor;
+    private PacketDispatcher mDispatcher;
+
+    /**
+     * The register values to apply to the chip : the configuration, with the changes made at
+     * runtime. Guarded by mSpiLock, like mRegisterImage which adds the streaming settings to it.
+     */
+    private final byte[] mRegisters;
+    private final byte[] mRegisterImage = new byte[CC1101Constants.CC1101_COMPLETE_REGISTERS];
+
+    /**
+     * Copy of the configuration registers as written to the chip, guarded by mSpiLock. A bit set
+     * in mShadowUnknown marks a register whose content is unknown, after a reset or a SLEEP.
+     */
+    private final byte[] mShadowRegs = new byte[CC1101Constants.CC1101_COMPLETE_REGISTERS];
+    private long mShadowUnknown = SHADOW_ALL_UNKNOWN;
+    private final static long SHADOW_ALL_UNKNOWN = (1L << CC1101Constants.CC1101_COMPLETE_REGISTERS) - 1;
+    /**
+     * The test registers, from FSTEST to TEST0, are not retained in SLEEP state
+     */
+    private final static long SHADOW_LOST_IN_SLEEP = SHADOW_ALL_UNKNOWN & ~((1L << CC1101Constants.CC1101_FSTEST) - 1);
+    /**
+     * Two runs of registers to write separated by at most this number of unchanged registers are
+     * written by a single burst : a few more bytes cost less than another transaction.
+     */
+    private final static int REGISTER_COALESCE_GAP = 4;
+
+    /**
+     * Frequency synthesizer calibration results of each channel, FSCAL3, FSCAL2 and FSCAL1 at
+     * index 3 * channel, guarded by mSpiLock
+     */
+    private final byte[] mCalibrations = new byte[3 * 256];
+    private final boolean[] mCalibrated = new boolean[256];
+    /**
+     * FS_AUTOCAL field of the configuration, restored when the cached calibrations are dropped
+     */
+    private int mFsAutocal;
+    private final static int MCSM0_FS_AUTOCAL = 0x30;
+    private final static int MCSM2_RX_TIME_QUAL = 0x08;
+    private final static int MCSM2_RX_TIME = 0x07;
+    private final static int WORCTRL_RC_PD = 0x80;
+    private final static int WORCTRL_RC_CAL = 0x08;
+    private final static int WORCTRL_WOR_RES = 0x03;
+
+    /**
+     * Set while the chip polls for packets in Wake-on-Radio mode. Packets and recoveries restart
+     * the polling through the radio thread, once the RX FIFO is drained.
+     */
+    private volatile boolean mWakeOnRadio;
+    private volatile boolean mWakeOnRadioPending;
+    /**
+     * The registers changed by the Wake-on-Radio mode, and their values in the configuration,
+     * restored when leaving it
+     */
+    private final static byte[] WAKE_ON_RADIO_REGISTERS = {
+            CC1101Constants.CC1101_MCSM2, CC1101Constants.CC1101_WOREVT1,
+            CC1101Constants.CC1101_WOREVT0, CC1101Constants.CC1101_WORCTRL
+    };
+    private final byte[] mRxWakeOnRadioRegs = new byte[WAKE_ON_RADIO_REGISTERS.length];
+    private final static long CALIBRATION_TIMEOUT_NANOS = 5000000;
+    private volatile long mLastHopLatencyNanos;
+
+    /**
+     * Scratch buffers reused by all SPI accesses, so that register accesses do not allocate
+     */
+    private final byte[] mTxBuffer = new byte[CC1101_BUFFER_LEN + 1];
+    private final byte[] mRxBuffer = new byte[CC1101_BUFFER_LEN + 1];
+    private CC1101PacketPool mPacketPool;
+
+    private final static int PKTCTRL1_APPEND_STATUS = 0x04;
+    private final static int PKTCTRL0_VARIABLE_LENGTH = 0x01;
+    private final static int MCSM1_RXOFF_RX = 0x03;
+    private final static int MCSM1_TXOFF_TX = 0x02;
+    private final static int MCSM1_TXOFF_RX = 0x03;
+    private boolean mAppendStatus;
+    private boolean mVariableLength;
+    private int mFixedLength;
+    private boolean mStayInRx;
+    private boolean mTxOffRx;
+    private byte mMcsm1;
+    private byte mIocfg2;
+    private byte mPktctrl0;
+    private int mDataRate;
+
+    private final static int PKTCTRL0_LENGTH_CONFIG = 0x03;
+    private final static int PKTCTRL0_INFINITE_LENGTH = 0x02;
+    private final static byte IOCFG_RX_FIFO_THRESHOLD = 0x00;
+    private final static byte IOCFG_TX_FIFO_THRESHOLD = 0x02;
+    private final static int STREAM_HEADER_LEN = 2;
+    private final static int STREAM_MAX_LENGTH = 0xFFFF;
+
+    private StreamListener mStreamListener;
+    /**
+     * Length of the packet being streamed from the RX FIFO, or -1 while waiting for a new packet
+     */
+    private int mStreamLength = -1;
+    private int mStreamReceived;
+    private boolean mStreamFixedLength;
+    /**
+     * Incremented when a stream is aborted, to notice it after a listener call
+     */
+    private int mStreamAborts;
+    /**
+     * The listener of the last stream dropped by abortStream, told by the radio thread
+     */
+    private final AtomicReference<StreamListener> mAbortedStream = new AtomicReference<>();
+    /**
+     * Payload bytes handed to the StreamListener, only used by the radio thread
+     */
+    private final byte[] mStreamData = new byte[CC1101_BUFFER_LEN + 1];
+    private final byte[] mStreamChunk = new byte[CC1101_BUFFER_LEN];
+    private final Semaphore mTxStreamSignal = new Semaphore(0);
+
+    private final static int TX_QUEUE_CAPACITY = 64;
+
+    /**
+     * Packets waiting for room in the TX FIFO, guarded by their own monitor
+     */
+    private final ArrayDeque<Transmission> mTxQueue = new ArrayDeque<>();
+    /**
+     * Packets written to the TX FIFO and not sent yet, in FIFO order. Only used by the radio thread.
+     */
+    private final ArrayDeque<Transmission> mTxInFlight = new ArrayDeque<>();
+    /**
+     * Whether TXOFF_MODE is temporarily set to TX, so that queued packets are sent back to back
+     */
+    private boolean mTxPipelining;
+    private final List<Transmission> mTxSent = new ArrayList<>();
+    private volatile boolean mTransmitting;
+    private long mTxDeadline;
+
+    /**
+     * Bytes drained from the RX FIFO that do not form a complete packet yet
+     */
+    private final byte[] mRxFifoBuffer = new byte[2 * CC1101_BUFFER_LEN];
+    private int mRxFifoStart;
+    private int mRxFifoEnd;
+
+    /**
+     * Set when the chip is put in SLEEP state, guarded by mSpiLock
+     */
+    private boolean mChipAsleep;
+    private final static long CHIP_READY_TIMEOUT_NANOS = 1000000;
+
+    /**
+     * The chip status byte returned by the last SPI transaction, packed with the System.nanoTime()
+     * it was received at so that both are updated atomically : bits 63:9 hold the time, bit 8 is
+     * set once a status was received and bits 7:0 hold the status. Zero when no status is known.
+     */
+    private volatile long mChipStatus;
+    private final static int STATUS_VALID = 0x100;
+    private final static int STATUS_TIME_SHIFT = 9;
+    /**
+     * Maximum age of the cached status trusted by the status check
+     */
+    private final static long STATUS_MAX_AGE_MILLIS = 1000;
 
-    private CC1101Config mConfig;
+    private volatile long mSpiTransactionCount;
+    private volatile long mSpiByteCount;
+    private final MetricsRecorder mMetrics = new MetricsRecorder();
+    private final Tracer mTracer = new Tracer();
+    /**
+     * The System.nanoTime() of the last GDO0 edge, copied to the packets it signaled
+     */
+    private volatile long mLastEdgeNanos;
+    private ScheduledExecutorService mMetricsExecutor;
+    /**
+     * The host-side filter chain, replaced as a whole when a filter is added or removed
+     */
+    private volatile FilterStage[] mFilters = new FilterStage[0];
+    private volatile PacketCapture mCapture;
+    private volatile LinkQualityMonitor mLinkQualityMonitor;
+    private long mLastSetupTransactionCount;
+    private long mLastSetupDurationNanos;
 
-    private Runnable mCheckStatusRunnable = new Runnable() {
+    private CC1101Transport.EdgeListener mGDO0Listener = new CC1101Transport.EdgeListener() {
         @Override
-        public void run() {
-            Log.d(TAG, "Checking the status");
-            byte marcState = getMarcState();
-            if (marcState != CC1101Constants.MARCSTATE_RX) {
-                printMarcState();
-                setRxState();
-            } else {
-                Log.d(TAG, "Nothing to do");
+        public void onEdge() {
+            mLastEdgeNanos = System.nanoTime();
+            mPendingEdges.incrementAndGet();
+            Thread radioThread = mRadioThread;
+            if (radioThread != null) {
+                LockSupport.unpark(radioThread);
             }
+        }
+    };
 
-            mHandler.postDelayed(this, DELAY_CHECKSTATUS);
+    /**
+     * Wakes up sendStream() when the TX FIFO runs low (GDO2) or the packet is sent (GDO0)
+     */
+    private CC1101Transport.EdgeListener mTxStreamListener = new CC1101Transport.EdgeListener() {
+        @Override
+        public void onEdge() {
+            mTxStreamSignal.release();
         }
     };
 
-    private GpioCallback mGDO0Callback = new GpioCallback() {
+    /**
+     * Drains the whole RX FIFO when GDO0 signals a packet, keeps the TX FIFO fed with the packets
+     * queued by sendData() and completes them when GDO0 signals their end, and checks the chip
+     * state when idle.
+     * SPI reads never wait for the PacketListener, which is called on the dispatch executor.
+     */
+    private final Runnable mRadioLoop = new Runnable() {
         @Override
-        public boolean onGpioEdge(Gpio gpio) {
-            CC1101Packet packet = receiveData();
-            if (BuildConfig.DEBUG) Log.v(TAG, "Packet received : " + packet.toString());
-            if (mListener != null) {
-                mListener.onNewPacket(packet);
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            long supervisorDelay = SUPERVISOR_FIRST_DELAY_MS;
+            long nextStatusCheck = System.nanoTime() + supervisorDelay * 1000000L;
+            while (mRadioThreadRunning) {
+                notifyStreamAborted();
+                int edges = mPendingEdges.getAndSet(0);
+                if (edges > 0) {
+                    if (!mTxInFlight.isEmpty()) {
+                        completeTransmissions(edges);
+                    } else if (mStreamListener != null) {
+                        drainStream();
+                    } else {
+                        drainRxFifo(edges);
+                    }
+                }
+                if (hasQueuedTransmissions()) {
+                    loadTransmissions();
+                }
+                if (mWakeOnRadio && (edges > 0 || mWakeOnRadioPending) && mTxInFlight.isEmpty()) {
+                    restartWakeOnRadio();
+                }
+                if (edges > 0) {
+                    // FIFO errors also raise a GDO0 edge : the transactions made to handle it
+                    // brought a fresh status byte
+                    if (checkCachedStatus()) {
+                        supervisorDelay = SUPERVISOR_MIN_DELAY_MS;
+                        nextStatusCheck = System.nanoTime() + supervisorDelay * 1000000L;
+                    }
+                    continue;
+                }
+                long now = System.nanoTime();
+                if (!mTxInFlight.isEmpty()) {
+                    // The end of packet edges were missed : check the chip once the deadline passed
+                    if (now - mTxDeadline >= 0) {
+                        checkTransmissionTimeout();
+                    } else {
+                        LockSupport.parkNanos(this, mTxDeadline - now);
+                    }
+                } else if (now - nextStatusCheck >= 0) {
+                    boolean healthy = checkStatus();
+                    supervisorDelay = healthy ? Math.min(2 * supervisorDelay, SUPERVISOR_MAX_DELAY_MS) : SUPERVISOR_MIN_DELAY_MS;
+                    nextStatusCheck = now + supervisorDelay * 1000000L;
+                } else {
+                    LockSupport.parkNanos(this, nextStatusCheck - now);
+                }
             }
-            return true;
         }
     };
 
     /**
      * Builds a new CC1101Manager to drive a CC1101 chip.
      * The spiDeviceName should contain the name of the spi device the CC1101 chip is
-     * connected on, but the slave select (also called SS, CE or CSn) must be connected on one of the
-     * GPIO ports instead of the designated SS port for that spi device.
+     * connected on. The slave select (also called SS, CE or CSn) can be connected on one of the
+     * GPIO ports, or on the designated SS port for that spi device when gpioSlaveSelectName is
+     * null. The native SS port saves two IPCs per register access.
      * The GDO0 port is used by the CC1101 chip to notify a new incoming message when the
      * IOCFG2, IOCFG1 and IOCFG0 are respectively set to 0x29, 0x2E and 0x06,
      *
      * @param spiDeviceName the SPI device name
      * @param gpioGDO0Name the GDO0 gpio name
-     * @param gpioSlaveSelectName the gpio port used as a slave select for the CC1101 chip
+     * @param gpioSlaveSelectName the gpio port used as a slave select for the CC1101 chip, or null
+     *                            to use the native SS port of the spi device
      * @param registerValues the register settings used to configure the CC1101 chip. See the CC1101
      *                       datasheet for instructions. Register addresses are available in the
      *                       CC1101Constants class
      */
-    public CC1101Manager(String spiDeviceName, String gpioGDO0Name, String gpioSlaveSelectName, CC1101Config registerValues) {
-        mPMS = new PeripheralManagerService();
-        mSPIDeviceName = spiDeviceName;
-        mGDO0Name = gpioGDO0Name;
-        mSSName = gpioSlaveSelectName;
-        mConfig = registerValues;
-        List<String> deviceList = mPMS.getSpiBusList();
-        if (!deviceList.contains(spiDeviceName)) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "SPI device does not exist");
-        }
+    public CC1101Manager(String spiDeviceName, String gpioGDO0Name, @Nullable String gpioSlaveSelectName, CC1101Config registerValues) {
+        this(new AndroidThingsTransport(spiDeviceName, gpioGDO0Name, gpioSlaveSelectName), registerValues);
+    }
 
-        List<String> gpioList = mPMS.getGpioList();
-        if (gpioGDO0Name == null || !gpioList.contains(gpioGDO0Name)) {
-            throw new InvalidParameterException("The GDO0 gpio name " + gpioGDO0Name + " does not exist");
-        }
+    /**
+     * Builds a new CC1101Manager to drive a CC1101 chip through the given transport.
+     * Use a {@link eu.quartum.cc1101_driver.transport.SimulatedCC1101Transport} to run the driver
+     * without any hardware.
+     *
+     * @param transport the SPI and GPIO link to the CC1101 chip
+     * @param registerValues the register settings used to configure the CC1101 chip
+     */
+    public CC1101Manager(CC1101Transport transport, CC1101Config registerValues) {
+        this(transport, registerValues, new ReentrantLock());
+    }
 
-        if (gpioSlaveSelectName == null || !gpioList.contains(gpioSlaveSelectName)) {
-            throw new InvalidParameterException("The slave select gpio name " + gpioSlaveSelectName + " does not exist");
+    /**
+     * Builds a new CC1101Manager for a chip sharing its SPI bus with other chips. All the managers
+     * of a bus must use the same lock, which is held for each SPI transaction and for the
+     * sequences of transactions which must not be interrupted (configuration, hops, recoveries,
+     * and whole streams sent by sendStream()). Use a fair lock, so that the radios of the bus get
+     * the SPI in turn. See {@link CC1101RadioGroup}.
+     *
+     * @param transport the SPI and GPIO link to the CC1101 chip
+     * @param registerValues the register settings used to configure the CC1101 chip
+     * @param spiLock the lock of the SPI bus
+     */
+    public CC1101Manager(CC1101Transport transport, CC1101Config registerValues, ReentrantLock spiLock) {
+        mTransport = transport;
+        mSpiLock = spiLock;
+        mRegisters = registerValues.getConfig();
+        mFsAutocal = mRegisters[CC1101Constants.CC1101_MCSM0] & MCSM0_FS_AUTOCAL;
+        if (BuildConfig.DEBUG) {
+            mTracer.setSink(new LogTraceSink(), TraceLevel.DEBUG);
         }
     }
 
+    /**
+     * Sets the sink receiving the driver events : command strobes, recoveries, packets, and at
+     * the VERBOSE level every register access. Events of a level above the given one are not
+     * traced, and cost a single volatile read. Debug builds log the events up to DEBUG through a
+     * {@link LogTraceSink}, use a {@link eu.quartum.cc1101_driver.trace.RingBufferTraceSink} to
+     * keep traces on in production.
+     *
+     * @param sink the sink, or null to disable tracing
+     * @param level the most verbose level traced
+     */
+    public void setTraceSink(@Nullable TraceSink sink, TraceLevel level) {
+        mTracer.setSink(sink, level);
+    }
+
     /**
      * Initializes the CC1101 chip. In a debug build, a correct setup
      * should log values such as 0x00 and 0x14 for partNum and version, but this might depend
@@ -111,7 +421,15 @@ public class CC1101Manager {
      */
     public void setup() {
         connect();
+
+        long startTransactions = mSpiTransactionCount;
+        long startIpcs = mTransport.getIpcCount();
+        long startTime = System.nanoTime();
         init();
+        mLastSetupDurationNanos = System.nanoTime() - startTime;
+        mLastSetupTransactionCount = mSpiTransactionCount - startTransactions;
+        if (BuildConfig.DEBUG) Log.v(TAG, "Configuration uploaded in " + mLastSetupTransactionCount + " SPI transactions, " + (mTransport.getIpcCount() - startIpcs) + " IPCs, " + (mLastSetupDurationNanos / 1000) + "us");
+
         byte partNum = readReg(CC1101Constants.CC1101_PARTNUM, CC1101Constants.CC1101_STATUS_REGISTER);
         byte version = readReg(CC1101Constants.CC1101_VERSION, CC1101Constants.CC1101_STATUS_REGISTER);
 
@@ -122,276 +440,1355 @@ public class CC1101Manager {
     }
 
     /**
-     * Puts the chip in Rx state and start listening for incoming messages.
+     * Returns the number of SPI transactions issued by the last call to {@link #setup()} to reset
+     * and configure the chip.
+     *
+     * @return the number of SPI transactions of the last setup
      */
-    public void setListening() {
-        try {
-            mGDO0.registerGpioCallback(mGDO0Callback);
-            mGDO0.setEdgeTriggerType(Gpio.EDGE_RISING);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error while registering a gpio callback on GDO0");
-            ioe.printStackTrace();
-        }
-        mHandler.removeCallbacks(mCheckStatusRunnable);
-        mHandler.postDelayed(mCheckStatusRunnable, DELAY_CHECKSTATUS);
+    public long getLastSetupTransactionCount() {
+        return mLastSetupTransactionCount;
     }
 
-    private void connect() {
-        try {
-            mSPIDevice = mPMS.openSpiDevice(mSPIDeviceName);
-            mSPIDevice.setFrequency(16000000);
-            mSPIDevice.setDelay(1000);
-            mSPIDevice.setCsChange(true);
-            mSPIDevice.setBitJustification(false);
-            mSPIDevice.setBitsPerWord(8);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error opening the SPI device");
-        }
-        try {
-            mGDO0 = mPMS.openGpio(mGDO0Name);
-            mGDO0.setDirection(Gpio.DIRECTION_IN);
+    /**
+     * Returns the time spent by the last call to {@link #setup()} to reset and configure the chip.
+     *
+     * @return the duration of the last setup, in nanoseconds
+     */
+    public long getLastSetupDurationNanos() {
+        return mLastSetupDurationNanos;
+    }
 
-            mSS = mPMS.openGpio(mSSName);
-            mSS.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Exception while opening " + mSSName + " and " + mGDO0Name);
-            ioe.printStackTrace();
-        }
+    /**
+     * Returns the total number of SPI transactions issued since this manager was created.
+     *
+     * @return the number of SPI transactions
+     */
+    public long getSpiTransactionCount() {
+        return mSpiTransactionCount;
     }
 
-    private void selectChip() {
-        if (mSS != null) {
-            try {
-                mSS.setValue(false);
-            } catch (IOException ioe) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Error selecting chip");
-            }
-        }
+    /**
+     * Returns the chip status byte received during the last SPI transaction. Use
+     * {@link CC1101Status} to decode it. The FIFO field counts the bytes available in the RX FIFO
+     * if the last access was a read, and the bytes free in the TX FIFO if it was a write.
+     *
+     * @return the last chip status byte
+     */
+    public byte getChipStatus() {
+        return (byte) mChipStatus;
     }
 
-    private void deselectChip() {
-        if (mSS != null) {
-            try {
-                mSS.setValue(true);
-            } catch (IOException ioe) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Error deselecting chip");
+    /**
+     * Returns the chip status byte received during the last SPI transaction if it is not older
+     * than maxAgeMillis. Otherwise a SNOP strobe is sent to read a fresh status, with the number
+     * of bytes available in the RX FIFO.
+     *
+     * @param maxAgeMillis the maximum age of the cached status, 0 to always read a fresh one
+     * @return the chip status byte
+     */
+    public byte getChipStatus(long maxAgeMillis) {
+        long status = mChipStatus;
+        if (status != 0 && maxAgeMillis > 0) {
+            long age = ((System.nanoTime() << STATUS_TIME_SHIFT) - (status & ~0x1FFL)) >> STATUS_TIME_SHIFT;
+            if (age < TimeUnit.MILLISECONDS.toNanos(maxAgeMillis)) {
+                return (byte) status;
             }
         }
+        return refreshChipStatus();
     }
 
-
     /**
-     * Defines a packetListener. When the chip is configured such as the CC1101 chip notifies
-     * incoming messages on GDO0, the PacketListener will be called on all incoming packages.
+     * Returns the number of calls made to the peripheral drivers since this manager was created :
+     * SPI accesses, and slave select toggles when the slave select is a GPIO port. Divided by
+     * {@link #getSpiTransactionCount()}, it gives the number of IPCs per register access.
      *
-     * @param listener the listener. Can be null to unset the listener.
+     * @return the number of peripheral driver calls
      */
-    public void setPacketListener(@Nullable PacketListener listener) {
-        mListener = listener;
+    public long getIpcCount() {
+        return mTransport.getIpcCount();
     }
 
     /**
-     * Displays all registers in the logcat. Can be called during debug to check that all registers
-     * well correctly set during setup.
+     * Defines how received packets are queued between the radio thread and the PacketListener.
+     * Must be called before {@link #setup()} or {@link #setListening()}.
+     *
+     * @param policy what to do when the queue is full
+     * @param queueCapacity the minimum number of packets the queue can hold. It is rounded up to a
+     *                      power of 2, which is the number of packets the queue holds before the
+     *                      policy applies.
      */
-    public void printRegisters() {
-        for (byte i = CC1101Constants.CC1101_IOCFG2; i <= CC1101Constants.CC1101_TEST0; i++) {
-            Log.v(TAG, "Register " + i + " = " + BitUtils.getHexValue(readReg(i, CC1101Constants.CC1101_CONFIG_REGISTER)));
+    public void setBackpressurePolicy(BackpressurePolicy policy, int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The queue capacity must be positive");
         }
+        mBackpressurePolicy = policy;
+        mQueueCapacity = queueCapacity;
     }
 
     /**
-     * Displays the MarcState (as described in the CC1101 datasheet) in the logcat
-     * All possible values are defined in CC1101Constants.
+     * Defines the executor the PacketListener is called on. By default, the manager uses its own
+     * single thread. Must be called before {@link #setup()} or {@link #setListening()}.
+     *
+     * @param executor the dispatch executor. Can be null to use the default dispatch thread.
      */
-    public void printMarcState() {
-        Log.v(TAG, "Marcstate is " + BitUtils.getHexValue(getMarcState()));
-    }
-
-    private void writeReg(byte regAddr, byte value) {
-        selectChip();
-        waitDelay(2);
-        byte[] data = new byte[] { regAddr, value };
-        try {
-            mSPIDevice.write(data, data.length);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error while writing " + value + " to " + regAddr);
-        }
-        waitDelay(2);
-        deselectChip();
+    public void setDispatchExecutor(@Nullable Executor executor) {
+        mDispatchExecutor = executor;
     }
 
-    private void waitDelay(int micros) {
-        try {
-            Thread.sleep(0, micros * 1000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Returns the number of received packets dropped because the PacketListener could not keep up.
+     *
+     * @return the number of dropped packets
+     */
+    public long getDroppedPacketCount() {
+        PacketDispatcher dispatcher = mDispatcher;
+        return dispatcher != null ? dispatcher.getDroppedCount() : 0;
     }
 
     /**
-     * Untested
-     * @param regAddr
-     * @param buffer
+     * Puts the chip in Rx state and start listening for incoming messages.
      */
-    private void writeBurstReg(byte regAddr, byte[] buffer) {
-        byte address = (byte) (regAddr | CC1101Constants.WRITE_BURST);
-
-        selectChip();
-        waitDelay(2);
+    public void setListening() {
         try {
-            byte[] data = new byte[buffer.length + 1];
-            data[0] = regAddr;
-            for (int i = 0; i < buffer.length; i++) {
-                data[i] = buffer[i - 1];
-            }
-            mSPIDevice.write(data, data.length);
+            registerEdgeListeners();
         } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error during burst write");
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error while registering a gpio callback on GDO0");
             ioe.printStackTrace();
         }
-        waitDelay(2);
-        deselectChip();
+        startRadioThread();
     }
 
-    private void cmdStrobe(byte cmd) {
-        selectChip();
-        waitDelay(2);
-        try {
-            mSPIDevice.write(new byte[] { cmd }, 1);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error while send a cmb strobe");
-            ioe.printStackTrace();
+    private void registerEdgeListeners() throws IOException {
+        mTransport.setGdo0Listener(mGDO0Listener);
+        // With IOCFG0 = 0x06, GDO0 de-asserts once the whole packet is in the RX FIFO
+        mTransport.setGdo0EdgeTrigger(CC1101Transport.EDGE_FALLING);
+        if (mTransport.hasGdo2()) {
+            // In streaming mode, GDO2 asserts when the RX FIFO is filled up to its threshold
+            mTransport.setGdo2Listener(mStreamListener != null ? mGDO0Listener : null);
+            mTransport.setGdo2EdgeTrigger(CC1101Transport.EDGE_RISING);
         }
-        waitDelay(2);
-        deselectChip();
     }
 
-    private byte readReg(byte regAddr, byte regType) {
-        selectChip();
-        waitDelay(2);
-        byte address = (byte) (regAddr | regType);
-        byte[] buffer = new byte[1];
-        try {
-            mSPIDevice.write(new byte[] { address }, 1);
-            mSPIDevice.read(buffer, 1);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error while reading a registry");
-            ioe.printStackTrace();
+    private void startRadioThread() {
+        if (mRadioThread != null) {
+            return;
         }
-        waitDelay(2);
-        deselectChip();
-        return buffer[0];
-    }
-
-    private byte[] readBurstReg(byte regAddr, int length) {
-        selectChip();
-        waitDelay(2);
-        byte address = (byte) (regAddr | CC1101Constants.READ_BURST);
-        byte[] buffer = new byte[length];
-        try {
-            mSPIDevice.write(new byte[] { address }, 1);
-            mSPIDevice.read(buffer, length);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error during a burst read");
-            ioe.printStackTrace();
+        Executor executor = mDispatchExecutor;
+        if (executor == null) {
+            mOwnDispatchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, TAG + "-dispatch");
+                }
+            });
+            executor = mOwnDispatchExecutor;
         }
-        waitDelay(2);
-        deselectChip();
-        return buffer;
-    }
+        mDispatcher = new PacketDispatcher(mQueueCapacity, mBackpressurePolicy, executor, mMetrics, mTracer);
+        mDispatcher.setListener(mListener);
+        mDispatcher.setBatchListener(mBatchListener);
 
-    private void reset() {
-        deselectChip();
-        waitDelay(5);
-        selectChip();
-        waitDelay(10);
-        deselectChip();
-        waitDelay(41);
-        selectChip();
+        mRadioThreadRunning = true;
+        mRadioThread = new Thread(mRadioLoop, TAG + "-radio");
+        mRadioThread.start();
+    }
 
-        try {
-            mSPIDevice.write(new byte[] { CC1101Constants.CC1101_SRES }, 1);
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error during reset");
-            ioe.printStackTrace();
+    private void stopRadioThread() {
+        Thread radioThread = mRadioThread;
+        if (radioThread == null) {
+            return;
+        }
+        mRadioThreadRunning = false;
+        mDispatcher.shutdown();
+        LockSupport.unpark(radioThread);
+        if (radioThread != Thread.currentThread()) {
+            try {
+                radioThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mRadioThread = null;
+        cancelTransmissions();
+        if (mOwnDispatchExecutor != null) {
+            mOwnDispatchExecutor.shutdown();
+            mOwnDispatchExecutor = null;
         }
-        deselectChip();
     }
 
-    private void setDefaultRegs() {
-        byte[] config = mConfig.getConfig();
-        writeReg(CC1101Constants.CC1101_IOCFG2, config[CC1101Constants.CC1101_IOCFG2]);
-        writeReg(CC1101Constants.CC1101_IOCFG1, config[CC1101Constants.CC1101_IOCFG1]);
-        writeReg(CC1101Constants.CC1101_IOCFG0, config[CC1101Constants.CC1101_IOCFG0]);
-        writeReg(CC1101Constants.CC1101_FIFOTHR, config[CC1101Constants.CC1101_FIFOTHR]);
-        writeReg(CC1101Constants.CC1101_SYNC1, config[CC1101Constants.CC1101_SYNC1]);
-        writeReg(CC1101Constants.CC1101_SYNC0, config[CC1101Constants.CC1101_SYNC0]);
-        writeReg(CC1101Constants.CC1101_PKTLEN, config[CC1101Constants.CC1101_PKTLEN]);
-        writeReg(CC1101Constants.CC1101_PKTCTRL1, config[CC1101Constants.CC1101_PKTCTRL1]);
-        writeReg(CC1101Constants.CC1101_PKTCTRL0, config[CC1101Constants.CC1101_PKTCTRL0]);
-        writeReg(CC1101Constants.CC1101_ADDR, config[CC1101Constants.CC1101_ADDR]);
-        writeReg(CC1101Constants.CC1101_CHANNR, config[CC1101Constants.CC1101_CHANNR]);
-        writeReg(CC1101Constants.CC1101_FSCTRL1, config[CC1101Constants.CC1101_FSCTRL1]);
-        writeReg(CC1101Constants.CC1101_FSCTRL0, config[CC1101Constants.CC1101_FSCTRL0]);
-        writeReg(CC1101Constants.CC1101_FREQ2, config[CC1101Constants.CC1101_FREQ2]);
-        writeReg(CC1101Constants.CC1101_FREQ1, config[CC1101Constants.CC1101_FREQ1]);
-        writeReg(CC1101Constants.CC1101_FREQ0, config[CC1101Constants.CC1101_FREQ0]);
-        writeReg(CC1101Constants.CC1101_MDMCFG4, config[CC1101Constants.CC1101_MDMCFG4]);
-        writeReg(CC1101Constants.CC1101_MDMCFG3, config[CC1101Constants.CC1101_MDMCFG3]);
-        writeReg(CC1101Constants.CC1101_MDMCFG2, config[CC1101Constants.CC1101_MDMCFG2]);
-        writeReg(CC1101Constants.CC1101_MDMCFG1, config[CC1101Constants.CC1101_MDMCFG1]);
-        writeReg(CC1101Constants.CC1101_MDMCFG0, config[CC1101Constants.CC1101_MDMCFG0]);
-        writeReg(CC1101Constants.CC1101_DEVIATN, config[CC1101Constants.CC1101_DEVIATN]);
-        writeReg(CC1101Constants.CC1101_MCSM2, config[CC1101Constants.CC1101_MCSM2]);
-        writeReg(CC1101Constants.CC1101_MCSM1, config[CC1101Constants.CC1101_MCSM1]);
-        writeReg(CC1101Constants.CC1101_MCSM0, config[CC1101Constants.CC1101_MCSM0]);
-        writeReg(CC1101Constants.CC1101_FOCCFG, config[CC1101Constants.CC1101_FOCCFG]);
-        writeReg(CC1101Constants.CC1101_BSCFG, config[CC1101Constants.CC1101_BSCFG]);
-        writeReg(CC1101Constants.CC1101_AGCCTRL2, config[CC1101Constants.CC1101_AGCCTRL2]);
-        writeReg(CC1101Constants.CC1101_AGCCTRL1, config[CC1101Constants.CC1101_AGCCTRL1]);
-        writeReg(CC1101Constants.CC1101_AGCCTRL0, config[CC1101Constants.CC1101_AGCCTRL0]);
-        writeReg(CC1101Constants.CC1101_WOREVT1, config[CC1101Constants.CC1101_WOREVT1]);
-        writeReg(CC1101Constants.CC1101_WOREVT0, config[CC1101Constants.CC1101_WOREVT0]);
-        writeReg(CC1101Constants.CC1101_WORCTRL, config[CC1101Constants.CC1101_WORCTRL]);
-        writeReg(CC1101Constants.CC1101_FREND1, config[CC1101Constants.CC1101_FREND1]);
-        writeReg(CC1101Constants.CC1101_FREND0, config[CC1101Constants.CC1101_FREND0]);
-        writeReg(CC1101Constants.CC1101_FSCAL3, config[CC1101Constants.CC1101_FSCAL3]);
-        writeReg(CC1101Constants.CC1101_FSCAL2, config[CC1101Constants.CC1101_FSCAL2]);
-        writeReg(CC1101Constants.CC1101_FSCAL1, config[CC1101Constants.CC1101_FSCAL1]);
-        writeReg(CC1101Constants.CC1101_FSCAL0, config[CC1101Constants.CC1101_FSCAL0]);
-        writeReg(CC1101Constants.CC1101_RCCTRL1, config[CC1101Constants.CC1101_RCCTRL1]);
-        writeReg(CC1101Constants.CC1101_RCCTRL0, config[CC1101Constants.CC1101_RCCTRL0]);
-        writeReg(CC1101Constants.CC1101_FSTEST, config[CC1101Constants.CC1101_FSTEST]);
-        writeReg(CC1101Constants.CC1101_PTEST, config[CC1101Constants.CC1101_PTEST]);
-        writeReg(CC1101Constants.CC1101_AGCTEST, config[CC1101Constants.CC1101_AGCTEST]);
-        writeReg(CC1101Constants.CC1101_TEST2, config[CC1101Constants.CC1101_TEST2]);
-        writeReg(CC1101Constants.CC1101_TEST1, config[CC1101Constants.CC1101_TEST1]);
-        writeReg(CC1101Constants.CC1101_TEST0, config[CC1101Constants.CC1101_TEST0]);
+    /**
+     * Reads every packet available in the RX FIFO and hands them to the dispatcher as one batch.
+     * Stops on an empty FIFO, or after an overflow or an oversized packet, which flush the FIFO.
+     * When status bytes are appended, the whole FIFO is drained by the first burst : once all the
+     * drained bytes are parsed, packets received later will raise their own GDO0 interrupt.
+     */
+    private void drainRxFifo(int edges) {
+        long edgeNanos = mLastEdgeNanos;
+        PacketCapture capture = mCapture;
+        LinkQualityMonitor linkQualityMonitor = mLinkQualityMonitor;
+        int packets = 0;
+        for (int i = 0; i < MAX_PACKETS_PER_DRAIN; i++) {
+            CC1101Packet packet = newPacket();
+            if (!receivePacket(packet)) {
+                packet.recycle();
+                break;
+            }
+            packets++;
+            packet.receivedNanos = edgeNanos;
+            if (capture != null) {
+                capture.record(packet);
+            }
+            if (linkQualityMonitor != null) {
+                linkQualityMonitor.record(packet);
+            }
+            boolean last = packet.length < 0 || (mAppendStatus && mRxFifoEnd == 0);
+            if (packet.length >= 0 && !acceptPacket(packet)) {
+                packet.recycle();
+            } else {
+                mDispatcher.submit(packet);
+            }
+            if (last) {
+                break;
+            }
+        }
+        if (packets == 0) {
+            // The read which ends a drain finds the FIFO empty : only a drain without any packet
+            // shows a spurious interrupt
+            mMetrics.emptyReads.increment();
+        }
+        // GDO0 de-asserts once per packet : the edges left over once the packets read are
+        // matched, including the packets read ahead of their edge, are packets the chip discarded
+        int discarded = edges - packets - mPacketsReadAhead;
+        if (discarded > 0) {
+            mMetrics.hardwareRejections.add(discarded);
+            mPacketsReadAhead = 0;
+        } else {
+            mPacketsReadAhead = -discarded;
+        }
+        mDispatcher.dispatch();
     }
 
-    private void init() {
-        reset();
-        byte patableLevel = (byte) 0xC0;
-        spiWrite(new byte[] { patableLevel }, CC1101Constants.CC1101_PATABLE);
-
-        setDefaultRegs();
+    /**
+     * Runs a received packet through the host-side filter chain, counting the rejection on the
+     * filter which dropped it
+     */
+    private boolean acceptPacket(CC1101Packet packet) {
+        for (FilterStage stage : mFilters) {
+            if (!stage.filter.accept(packet)) {
+                stage.rejected.increment();
+                mMetrics.filterRejections.increment();
+                return false;
+            }
+        }
+        return true;
     }
 
-    private void setPowerDownState() {
-        cmdStrobe(CC1101Constants.CC1101_SIDLE);
-        cmdStrobe(CC1101Constants.CC1101_SPWD);
+    /**
+     * Recovers from the FIFO errors reported by the cached status byte, without any SPI access
+     *
+     * @return true if a recovery was needed
+     */
+    private boolean checkCachedStatus() {
+        long status = mChipStatus;
+        if (status == 0) {
+            return false;
+        }
+        switch (CC1101Status.getState((byte) status)) {
+            case CC1101Status.STATE_RXFIFO_OVERFLOW:
+                recover(Recovery.RX_FIFO_OVERFLOW);
+                return true;
+            case CC1101Status.STATE_TXFIFO_UNDERFLOW:
+                failTransmissions(new IOException("TX FIFO underflow"), Recovery.TX_FIFO_UNDERFLOW);
+                return true;
+            default:
+                return false;
+        }
     }
 
     /**
-     * Sets the chip in RX state
+     * Periodic check of the chip state. The cached status byte is used if recent enough, so the
+     * check makes no SPI access while the radio is busy. A transient state (calibration,
+     * settling) is only considered stuck if the next check finds it again.
+     *
+     * @return true if the chip is in RX state
+     */
+    private boolean checkStatus() {
+        mSpiLock.lock();
+        try {
+            if (mChipAsleep) {
+                return true;
+            }
+            byte status = getChipStatus(STATUS_MAX_AGE_MILLIS);
+            int state = CC1101Status.getState(status);
+            if (state == CC1101Status.STATE_RX) {
+                mSuspectState = -1;
+                return true;
+            }
+            mTracer.trace(TraceEvent.STATUS, status, 0);
+            if (state == CC1101Status.STATE_RXFIFO_OVERFLOW) {
+                recover(Recovery.RX_FIFO_OVERFLOW);
+            } else if (state == CC1101Status.STATE_TXFIFO_UNDERFLOW) {
+                failTransmissions(new IOException("TX FIFO underflow"), Recovery.TX_FIFO_UNDERFLOW);
+            } else if (state != CC1101Status.STATE_IDLE && state != mSuspectState) {
+                mSuspectState = state;
+                return false;
+            } else {
+                recover(Recovery.STUCK_STATE);
+            }
+            mSuspectState = -1;
+            return false;
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Brings the chip back to RX state in the order required by the datasheet : SIDLE, then
+     * SFRX or SFTX depending on the failure, then SRX.
+     */
+    private void recover(Recovery recovery) {
+        mSpiLock.lock();
+        try {
+            mTracer.trace(TraceEvent.RECOVERY, recovery.ordinal(), 0);
+            setIdleState();
+            if (recovery != Recovery.TX_FIFO_UNDERFLOW && recovery != Recovery.TX_TIMEOUT) {
+                flushRxFifo();
+                abortStream(mStreamListener);
+                mRxFifoStart = 0;
+                mRxFifoEnd = 0;
+            }
+            if (recovery != Recovery.RX_FIFO_OVERFLOW && recovery != Recovery.INVALID_PACKET) {
+                flushTxFifo();
+            }
+            resumeRx();
+            mRecoveries.incrementAndGet(recovery.ordinal());
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of recoveries of the given type made since this manager was created
+     *
+     * @param recovery the failure recovered from
+     * @return the number of recoveries
+     */
+    public long getRecoveryCount(Recovery recovery) {
+        return mRecoveries.get(recovery.ordinal());
+    }
+
+    /**
+     * Returns a snapshot of the receive path and SPI counters : received packets and CRC
+     * failures, FIFO overflows, oversized packets, empty reads, dropped packets, SPI transactions,
+     * bytes and errors, recoveries, and the interrupt to listener latency and listener execution
+     * time histograms. Counting does not need debug logging and takes no lock.
+     *
+     * @return the metrics counted since this manager was created
+     */
+    public CC1101Metrics getMetrics() {
+        long[] recoveries = new long[mRecoveries.length()];
+        for (int i = 0; i < recoveries.length; i++) {
+            recoveries[i] = mRecoveries.get(i);
+        }
+        return new CC1101Metrics(mMetrics, getDroppedPacketCount(), mSpiTransactionCount, mSpiByteCount, recoveries);
+    }
+
+    /**
+     * Appends a filter to the host-side filter chain. The packets read from the chip go through
+     * the filters in the order they were added, on the radio thread, before being queued for the
+     * PacketListener : a rejected packet is recycled at once. FIFO errors and streamed packets
+     * are not filtered.
+     * Filters complete the chip filtering (see {@link CC1101Config.Builder#setAddressCheck},
+     * {@link CC1101Config.Builder#setCrcAutoflush(boolean)}) which drops packets before any SPI
+     * read.
+     *
+     * @param filter the filter, which must return quickly
+     */
+    public synchronized void addPacketFilter(PacketFilter filter) {
+        FilterStage[] filters = Arrays.copyOf(mFilters, mFilters.length + 1);
+        filters[filters.length - 1] = new FilterStage(filter);
+        mFilters = filters;
+    }
+
+    /**
+     * Records every packet read from the chip, before the host-side filters, to a memory-mapped
+     * ring file. Recording copies the packet to memory on the radio thread, without any system
+     * call. Streamed packets (see {@link #setStreamListener(StreamListener)}) are not recorded :
+     * they reach the StreamListener piece by piece, and can exceed the one byte length field of
+     * a capture record.
+     *
+     * @param capture the capture, or null to stop recording. The capture is not closed.
+     */
+    public void setPacketCapture(@Nullable PacketCapture capture) {
+        mCapture = capture;
+    }
+
+    /**
+     * Adds every packet read from the chip, before the host-side filters, to the link quality
+     * statistics of its sender. The statistics are updated on the radio thread. Streamed packets
+     * are not counted.
+     *
+     * @param monitor the monitor, or null to stop updating it
+     */
+    public void setLinkQualityMonitor(@Nullable LinkQualityMonitor monitor) {
+        mLinkQualityMonitor = monitor;
+    }
+
+    /**
+     * Removes a filter from the host-side filter chain, with its rejection count
+     *
+     * @param filter the filter to remove
+     */
+    public synchronized void removePacketFilter(PacketFilter filter) {
+        FilterStage[] filters = mFilters;
+        for (int i = 0; i < filters.length; i++) {
+            if (filters[i].filter == filter) {
+                FilterStage[] remaining = new FilterStage[filters.length - 1];
+                System.arraycopy(filters, 0, remaining, 0, i);
+                System.arraycopy(filters, i + 1, remaining, i, remaining.length - i);
+                mFilters = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of packets dropped by a filter of the chain. The packets rejected by the
+     * chip are counted by {@link CC1101Metrics#getHardwareRejections()}.
+     *
+     * @param filter a filter added by {@link #addPacketFilter(PacketFilter)}
+     * @return the number of packets the filter rejected, 0 if it is not in the chain
+     */
+    public long getRejectedPacketCount(PacketFilter filter) {
+        for (FilterStage stage : mFilters) {
+            if (stage.filter == filter) {
+                return stage.rejected.sum();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Passes a snapshot of the metrics to a listener every periodMillis, on a dedicated thread.
+     * Use {@link CC1101Metrics#since(CC1101Metrics)} to get the counts of each period.
+     *
+     * @param listener the listener, or null to stop the export
+     * @param periodMillis the delay between two snapshots, in milliseconds
+     */
+    public synchronized void setMetricsListener(@Nullable final MetricsListener listener, long periodMillis) {
+        if (mMetricsExecutor != null) {
+            mMetricsExecutor.shutdown();
+            mMetricsExecutor = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("The export period must be positive");
+        }
+        mMetricsExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mMetricsExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                listener.onMetrics(getMetrics());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void connect() {
+        try {
+            mTransport.open();
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error opening the SPI device and gpio ports");
+            ioe.printStackTrace();
+        }
+    }
+
+    private void selectChip() {
+        try {
+            mTransport.select();
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error selecting chip");
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, -1, 0);
+        }
+    }
+
+    private void deselectChip() {
+        try {
+            mTransport.deselect();
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error deselecting chip");
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, -1, 0);
+        }
+    }
+
+
+    /**
+     * Defines a packetListener. When the chip is configured such as the CC1101 chip notifies
+     * incoming messages on GDO0, the PacketListener will be called on all incoming packages.
+     * The listener is called on the dispatch executor (see {@link #setDispatchExecutor(Executor)}),
+     * not on the main thread.
+     *
+     * @param listener the listener. Can be null to unset the listener.
+     */
+    public void setPacketListener(@Nullable PacketListener listener) {
+        mListener = listener;
+        PacketDispatcher dispatcher = mDispatcher;
+        if (dispatcher != null) {
+            dispatcher.setListener(listener);
+        }
+    }
+
+    /**
+     * Enables the streaming mode, used to receive packets larger than the RX FIFO. Streamed
+     * packets start with a 2 bytes big-endian length field (see {@link #sendStream(InputStream, int)})
+     * and are read in chunks when GDO2 signals that the RX FIFO reached the FIFOTHR threshold.
+     * The PacketListener is not called anymore in streaming mode, and the streamed packets skip
+     * the host-side filters, the packet capture and the link quality monitor.
+     * Must be called before {@link #setup()}, and requires a transport with a GDO2 line.
+     *
+     * @param listener the listener, called on the radio thread. Can be null to unset the listener.
+     */
+    public void setStreamListener(@Nullable StreamListener listener) {
+        if (listener != null && !mTransport.hasGdo2()) {
+            throw new IllegalStateException("The streaming mode requires the GDO2 line");
+        }
+        mStreamListener = listener;
+    }
+
+    /**
+     * Enables the zero-garbage receive mode : received packets are taken from the given pool
+     * instead of being allocated, and the PacketListener must call {@link CC1101Packet#recycle()}
+     * on each packet once it is done with it.
+     *
+     * @param pool the packet pool. Can be null to allocate a new packet for each reception.
+     */
+    public void setPacketPool(@Nullable CC1101PacketPool pool) {
+        mPacketPool = pool;
+    }
+
+    /**
+     * Defines a BatchPacketListener, called once with all the packets read on a GDO0 interrupt.
+     * When a BatchPacketListener is set, the PacketListener is not called anymore.
+     *
+     * @param listener the listener. Can be null to unset the listener.
+     */
+    public void setBatchPacketListener(@Nullable BatchPacketListener listener) {
+        mBatchListener = listener;
+        PacketDispatcher dispatcher = mDispatcher;
+        if (dispatcher != null) {
+            dispatcher.setBatchListener(listener);
+        }
+    }
+
+    /**
+     * Displays all registers in the logcat, as written to the chip by the driver. Does not access
+     * the chip : use {@link #verifyRegisters()} to check the registers against the chip.
+     */
+    public void printRegisters() {
+        mSpiLock.lock();
+        try {
+            for (int i = 0; i < CC1101Constants.CC1101_COMPLETE_REGISTERS; i++) {
+                boolean unknown = ((mShadowUnknown >> i) & 1) != 0;
+                Log.v(TAG, "Register " + i + " = " + (unknown ? "unknown" : BitUtils.getHexValue(mShadowRegs[i])));
+            }
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Reads all configuration registers from the chip in a single burst and compares them to the
+     * values written by the driver. Differences are logged, and the driver copy is updated with
+     * the chip content. The FSCAL3 to FSCAL1 registers, updated by each calibration, are not
+     * compared.
+     *
+     * @return true if the chip registers match the values written by the driver
+     */
+    public boolean verifyRegisters() {
+        byte[] registers = new byte[CC1101Constants.CC1101_COMPLETE_REGISTERS];
+        boolean match = true;
+        mSpiLock.lock();
+        try {
+            readBurstReg(CC1101Constants.CC1101_IOCFG2, registers, registers.length);
+            for (int i = 0; i < registers.length; i++) {
+                boolean calibrated = i >= CC1101Constants.CC1101_FSCAL3 && i <= CC1101Constants.CC1101_FSCAL1;
+                boolean unknown = ((mShadowUnknown >> i) & 1) != 0;
+                if (!calibrated && !unknown && registers[i] != mShadowRegs[i]) {
+                    Log.w(TAG, "Register " + i + " is " + BitUtils.getHexValue(registers[i]) + ", expected " + BitUtils.getHexValue(mShadowRegs[i]));
+                    match = false;
+                }
+            }
+            System.arraycopy(registers, 0, mShadowRegs, 0, registers.length);
+            mShadowUnknown = 0;
+        } finally {
+            mSpiLock.unlock();
+        }
+        return match;
+    }
+
+    /**
+     * Applies a new configuration to the chip. Only the registers which differ from the values
+     * already written are written, see {@link #setChannel(int)}.
+     *
+     * @param config the new register settings
+     */
+    public void setConfig(CC1101Config config) {
+        byte[] registers = config.getRegisters();
+        mSpiLock.lock();
+        try {
+            boolean wakeOnRadio = mWakeOnRadio;
+            mWakeOnRadio = false;
+            System.arraycopy(registers, 0, mRegisters, 0, mRegisters.length);
+            mFsAutocal = mRegisters[CC1101Constants.CC1101_MCSM0] & MCSM0_FS_AUTOCAL;
+            reconfigure();
+            if (wakeOnRadio) {
+                // The new configuration has its own Wake-on-Radio settings
+                setIdleState();
+                cmdStrobe(CC1101Constants.CC1101_SRX);
+            }
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the channel number (CHANNR register). Like the other runtime settings, only the
+     * registers which changed are written. If the radio is listening, the chip goes through IDLE
+     * state, its RX FIFO is flushed and it goes back to RX state : a packet being received or
+     * sent is lost. Before {@link #setup()}, the setting is stored and applied by the setup.
+     * Once the automatic calibration is disabled, the channel is changed by {@link #hop(int)}.
+     *
+     * @param channel the channel number, from 0 to 255
+     */
+    public void setChannel(int channel) {
+        checkChannel(channel);
+        mSpiLock.lock();
+        try {
+            if (mRadioThread != null && (mRegisters[CC1101Constants.CC1101_MCSM0] & MCSM0_FS_AUTOCAL) == 0) {
+                hop(channel);
+                return;
+            }
+            mRegisters[CC1101Constants.CC1101_CHANNR] = (byte) channel;
+            reconfigure();
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the base frequency (FREQ2, FREQ1 and FREQ0 registers), see {@link #setChannel(int)}.
+     * The cached calibrations are dropped, and the automatic calibration of the configuration is
+     * restored.
+     *
+     * @param frequencyHz the base frequency, in Hz, for a 26 MHz crystal
+     */
+    public void setFrequency(long frequencyHz) {
+        int freq = CC1101Config.encodeFrequency(frequencyHz);
+        if (freq < 0) {
+            throw new IllegalArgumentException("Invalid frequency " + frequencyHz);
+        }
+        mSpiLock.lock();
+        try {
+            mRegisters[CC1101Constants.CC1101_FREQ2] = (byte) (freq >> 16);
+            mRegisters[CC1101Constants.CC1101_FREQ1] = (byte) (freq >> 8);
+            mRegisters[CC1101Constants.CC1101_FREQ0] = (byte) freq;
+            reconfigure();
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the data rate (DRATE_E field of MDMCFG4 and MDMCFG3 register), see
+     * {@link #setChannel(int)}.
+     *
+     * @param baudRate the data rate, in bauds, for a 26 MHz crystal
+     */
+    public void setDataRate(int baudRate) {
+        int drate = CC1101Config.encodeDataRate(baudRate);
+        if (drate < 0) {
+            throw new IllegalArgumentException("Invalid data rate " + baudRate);
+        }
+        mSpiLock.lock();
+        try {
+            byte mdmcfg4 = mRegisters[CC1101Constants.CC1101_MDMCFG4];
+            mRegisters[CC1101Constants.CC1101_MDMCFG4] = (byte) ((mdmcfg4 & 0xF0) | (drate >> 8));
+            mRegisters[CC1101Constants.CC1101_MDMCFG3] = (byte) drate;
+            reconfigure();
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Calibrates the frequency synthesizer on the channels 0 to
+     * {@link CC1101Constants#NUMBER_OF_FCHANNELS} - 1, so that {@link #hop(int)} never has to
+     * calibrate. Call it again to refresh the calibrations after a large temperature change.
+     */
+    public void calibrateChannels() {
+        checkSetup();
+        mSpiLock.lock();
+        try {
+            int channel = mRegisters[CC1101Constants.CC1101_CHANNR] & 0xFF;
+            for (int i = 0; i < CC1101Constants.NUMBER_OF_FCHANNELS; i++) {
+                calibrate(i);
+            }
+            hop(channel);
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Switches to another channel without calibrating the frequency synthesizer : CHANNR and the
+     * cached FSCAL3, FSCAL2 and FSCAL1 values of the channel are written from IDLE state, then
+     * the chip goes back to RX state. The first hop to a channel calibrates it and disables the
+     * automatic calibration (FS_AUTOCAL field of MCSM0). If that calibration times out, the
+     * automatic calibration of the configuration is restored and the chip recovered instead.
+     * Bytes left in the RX FIFO are flushed, so hop between packets.
+     *
+     * @param channel the channel number, from 0 to 255
+     */
+    public void hop(int channel) {
+        checkChannel(channel);
+        checkSetup();
+        mSpiLock.lock();
+        try {
+            if (!mCalibrated[channel] && !calibrate(channel)) {
+                // Loading another channel's calibration would leave the synthesizer off frequency
+                restoreAutoCalibration();
+                mRegisters[CC1101Constants.CC1101_CHANNR] = (byte) channel;
+                writeRegisters(getRegisterImage());
+                recover(Recovery.STUCK_STATE);
+                return;
+            }
+            byte mcsm0 = (byte) (mRegisters[CC1101Constants.CC1101_MCSM0] & ~MCSM0_FS_AUTOCAL);
+            mRegisters[CC1101Constants.CC1101_MCSM0] = mcsm0;
+            writeRegIfChanged(CC1101Constants.CC1101_MCSM0, mcsm0);
+            long start = System.nanoTime();
+            // The status byte tells whether the RX FIFO needs a flush
+            byte status = cmdStrobe((byte) (CC1101Constants.CC1101_SIDLE | CC1101Constants.READ_SINGLE));
+            if (CC1101Status.getFifoBytes(status) != 0) {
+                flushRxFifo();
+                abortStream(mStreamListener);
+                mRxFifoStart = 0;
+                mRxFifoEnd = 0;
+            }
+            writeReg(CC1101Constants.CC1101_CHANNR, (byte) channel);
+            writeBurstReg(CC1101Constants.CC1101_FSCAL3, mCalibrations, 3 * channel, 3);
+            resumeRx();
+            mLastHopLatencyNanos = System.nanoTime() - start;
+            mRegisters[CC1101Constants.CC1101_CHANNR] = (byte) channel;
+            mTracer.trace(TraceEvent.HOP, channel, (int) Math.min(mLastHopLatencyNanos, Integer.MAX_VALUE));
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the time spent by the last call to {@link #hop(int)} to switch channel, excluding
+     * the calibration of a channel hopped to for the first time.
+     *
+     * @return the duration of the last hop, in nanoseconds
+     */
+    public long getLastHopLatencyNanos() {
+        return mLastHopLatencyNanos;
+    }
+
+    /**
+     * Calibrates the frequency synthesizer on a channel from IDLE state with the SCAL strobe, and
+     * caches the results. Must be called with mSpiLock held.
+     *
+     * @return false if the calibration did not complete in time
+     */
+    private boolean calibrate(int channel) {
+        setIdleState();
+        writeReg(CC1101Constants.CC1101_CHANNR, (byte) channel);
+        cmdStrobe(CC1101Constants.CC1101_SCAL);
+
+        long deadline = System.nanoTime() + CALIBRATION_TIMEOUT_NANOS;
+        while (CC1101Status.getState(refreshChipStatus()) != CC1101Status.STATE_IDLE) {
+            if (System.nanoTime() - deadline > 0) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Timeout while calibrating channel " + channel);
+                return false;
+            }
+        }
+        byte[] values = new byte[3];
+        readBurstReg(CC1101Constants.CC1101_FSCAL3, values, values.length);
+        System.arraycopy(values, 0, mCalibrations, 3 * channel, values.length);
+        updateShadow(CC1101Constants.CC1101_FSCAL3, values, 0, values.length, true);
+        mCalibrated[channel] = true;
+        mTracer.trace(TraceEvent.CALIBRATION, channel, (values[0] & 0xFF) << 16 | (values[1] & 0xFF) << 8 | (values[2] & 0xFF));
+        return true;
+    }
+
+    /**
+     * Gives the calibration back to the chip, with the FS_AUTOCAL field of the configuration.
+     * Must be called with mSpiLock held.
+     */
+    private void restoreAutoCalibration() {
+        mRegisters[CC1101Constants.CC1101_MCSM0] = (byte) (mRegisters[CC1101Constants.CC1101_MCSM0] | mFsAutocal);
+    }
+
+    private static void checkChannel(int channel) {
+        if (channel < 0 || channel > 0xFF) {
+            throw new IllegalArgumentException("Invalid channel " + channel);
+        }
+    }
+
+    private void checkSetup() {
+        if (mRadioThread == null) {
+            throw new IllegalStateException("setup() must be called first");
+        }
+    }
+
+    /**
+     * Displays the MarcState (as described in the CC1101 datasheet) in the logcat
+     * All possible values are defined in CC1101Constants.
+     */
+    public void printMarcState() {
+        Log.v(TAG, "Marcstate is " + BitUtils.getHexValue(getMarcState()));
+    }
+
+    /**
+     * Takes the SPI lock and selects the chip. Must be followed by endTransaction()
+     * Selecting and deselecting the chip through the SPI and GPIO drivers takes far longer than
+     * the CSn setup and hold times of the CC1101 (20ns), so no delay is needed around
+     * transactions, except to let the crystal start after SLEEP.
+     */
+    private void beginTransaction() {
+        mSpiLock.lock();
+        if (mChipAsleep) {
+            waitChipReady();
+        }
+        selectChip();
+        mSpiTransactionCount++;
+    }
+
+    private void endTransaction() {
+        deselectChip();
+        mSpiLock.unlock();
+    }
+
+    /**
+     * Wakes the chip up from SLEEP. The CC1101 keeps SO high until its crystal is running, which
+     * is read as the CHIP_RDYn bit of the status byte : SNOP strobes are sent until it is cleared.
+     */
+    private void waitChipReady() {
+        mChipAsleep = false;
+        long deadline = System.nanoTime() + CHIP_READY_TIMEOUT_NANOS;
+        do {
+            selectChip();
+            mSpiTransactionCount++;
+            try {
+                mTxBuffer[0] = CC1101Constants.CC1101_SNOP;
+                mSpiByteCount++;
+                mTransport.transfer(mTxBuffer, mRxBuffer, 1);
+            } catch (IOException ioe) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Error while waiting for the chip to be ready");
+                ioe.printStackTrace();
+                mMetrics.spiErrors.increment();
+                mTracer.trace(TraceEvent.SPI_ERROR, CC1101Constants.CC1101_SNOP, 0);
+                return;
+            } finally {
+                deselectChip();
+            }
+            if ((mRxBuffer[0] & 0x80) == 0) {
+                return;
+            }
+        } while (System.nanoTime() - deadline < 0);
+        if (BuildConfig.DEBUG) Log.e(TAG, "Timeout while waiting for the chip to be ready");
+    }
+
+    private void writeReg(byte regAddr, byte value) {
+        beginTransaction();
+        try {
+            mTxBuffer[0] = regAddr;
+            mTxBuffer[1] = value;
+            mSpiByteCount += 2;
+            mTransport.transfer(mTxBuffer, mRxBuffer, 2);
+            updateChipStatus(mRxBuffer[0]);
+            updateShadow(regAddr, mTxBuffer, 1, 1, true);
+            mTracer.trace(TraceEvent.REGISTER_WRITE, regAddr, value);
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error while writing " + value + " to " + regAddr);
+            ioe.printStackTrace();
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, regAddr, 0);
+            updateShadow(regAddr, mTxBuffer, 1, 1, false);
+        } finally {
+            endTransaction();
+        }
+    }
+
+    private void waitDelay(int micros) {
+        DelayUtils.busyWaitNanos(micros * 1000L);
+    }
+
+    /**
+     * Writes consecutive registers in a single SPI transaction, starting at regAddr.
+     * The CC1101 auto-increments the register address after each byte of a burst access.
+     *
+     * @param regAddr the address of the first register to write
+     * @param buffer the values to write
+     * @param length the number of bytes of buffer to write
+     */
+    private void writeBurstReg(byte regAddr, byte[] buffer, int length) {
+        writeBurstReg(regAddr, buffer, 0, length);
+    }
+
+    private void writeBurstReg(byte regAddr, byte[] buffer, int offset, int length) {
+        byte address = (byte) (regAddr | CC1101Constants.WRITE_BURST);
+
+        beginTransaction();
+        try {
+            boolean large = length >= mTxBuffer.length;
+            byte[] data = large ? new byte[length + 1] : mTxBuffer;
+            byte[] status = large ? new byte[length + 1] : mRxBuffer;
+            data[0] = address;
+            System.arraycopy(buffer, offset, data, 1, length);
+            mSpiByteCount += length + 1;
+            mTransport.transfer(data, status, length + 1);
+            updateChipStatus(status[0]);
+            updateShadow(regAddr, data, 1, length, true);
+            mTracer.trace(TraceEvent.BURST_WRITE, regAddr, length);
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error during burst write");
+            ioe.printStackTrace();
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, address, 0);
+            updateShadow(regAddr, buffer, offset, length, false);
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Sends a command strobe. The status byte, received before the command is executed, is
+     * returned. Only the SNOP status is cached : other strobes change the state it reports.
+     */
+    private byte cmdStrobe(byte cmd) {
+        byte status = (byte) 0xFF;
+        beginTransaction();
+        try {
+            mTxBuffer[0] = cmd;
+            mSpiByteCount++;
+            mTransport.transfer(mTxBuffer, mRxBuffer, 1);
+            status = mRxBuffer[0];
+            if ((cmd & 0x3F) == CC1101Constants.CC1101_SNOP) {
+                updateChipStatus(status);
+            } else {
+                mChipStatus = 0;
+                mTracer.trace(TraceEvent.STROBE, cmd, status);
+            }
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error while send a cmb strobe");
+            ioe.printStackTrace();
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, cmd, 0);
+        } finally {
+            endTransaction();
+        }
+        return status;
+    }
+
+    /**
+     * Reads a register in a single full duplex transfer : the header byte is sent while the chip
+     * status byte is received, then the value is received while a dummy byte is sent.
+     */
+    private byte readReg(byte regAddr, byte regType) {
+        beginTransaction();
+        try {
+            mTxBuffer[0] = (byte) (regAddr | regType);
+            mTxBuffer[1] = 0;
+            mRxBuffer[1] = 0;
+            mSpiByteCount += 2;
+            mTransport.transfer(mTxBuffer, mRxBuffer, 2);
+            updateChipStatus(mRxBuffer[0]);
+            mTracer.trace(TraceEvent.REGISTER_READ, mTxBuffer[0], mRxBuffer[1]);
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error while reading a registry");
+            ioe.printStackTrace();
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, mTxBuffer[0], 0);
+        } finally {
+            endTransaction();
+        }
+        return mRxBuffer[1];
+    }
+
+    /**
+     * Reads consecutive registers, or several bytes of a FIFO, in a single full duplex transfer.
+     *
+     * @param regAddr the address of the first register to read
+     * @param buffer the buffer the values are read into, starting at index 0
+     * @param length the number of bytes to read, at most 64
+     */
+    private void readBurstReg(byte regAddr, byte[] buffer, int length) {
+        beginTransaction();
+        try {
+            mTxBuffer[0] = (byte) (regAddr | CC1101Constants.READ_BURST);
+            Arrays.fill(mTxBuffer, 1, length + 1, (byte) 0);
+            mSpiByteCount += length + 1;
+            mTransport.transfer(mTxBuffer, mRxBuffer, length + 1);
+            updateChipStatus(mRxBuffer[0]);
+            System.arraycopy(mRxBuffer, 1, buffer, 0, length);
+            mTracer.trace(TraceEvent.BURST_READ, regAddr, length);
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error during a burst read");
+            ioe.printStackTrace();
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, mTxBuffer[0], 0);
+        } finally {
+            endTransaction();
+        }
+    }
+
+    private void reset() {
+        if (mTransport.hasHardwareChipSelect()) {
+            // The manual reset sequence needs control over CSn : use the SRES strobe, then wait
+            // for the chip to be ready again
+            cmdStrobe(CC1101Constants.CC1101_SRES);
+            mChipAsleep = true;
+            mChipStatus = 0;
+            mShadowUnknown = SHADOW_ALL_UNKNOWN;
+            return;
+        }
+        mSpiLock.lock();
+        try {
+            deselectChip();
+            waitDelay(5);
+            selectChip();
+            waitDelay(10);
+            deselectChip();
+            waitDelay(41);
+            selectChip();
+
+            mSpiTransactionCount++;
+            mTxBuffer[0] = CC1101Constants.CC1101_SRES;
+            mSpiByteCount++;
+            mTransport.write(mTxBuffer, 1);
+            mChipStatus = 0;
+            mShadowUnknown = SHADOW_ALL_UNKNOWN;
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error during reset");
+            ioe.printStackTrace();
+            mMetrics.spiErrors.increment();
+            mTracer.trace(TraceEvent.SPI_ERROR, CC1101Constants.CC1101_SRES, 0);
+        } finally {
+            deselectChip();
+            mSpiLock.unlock();
+        }
+    }
+
+    private void setDefaultRegs() {
+        updatePacketFormat(mRegisters);
+        writeRegisters(getRegisterImage());
+    }
+
+    /**
+     * Applies mRegisters to the chip, if the radio is listening. Must be called with mSpiLock held.
+     */
+    private void reconfigure() {
+        if (mRadioThread == null) {
+            return;
+        }
+        byte[] image = getRegisterImage();
+        if (!hasStaleRegisters(image)) {
+            return;
+        }
+        setIdleState();
+        flushRxFifo();
+        abortStream(mStreamListener);
+        updatePacketFormat(mRegisters);
+        boolean synthesizer = false;
+        for (int i = CC1101Constants.CC1101_FSCTRL1; i <= CC1101Constants.CC1101_FREQ0; i++) {
+            synthesizer |= isRegisterStale(i, image[i]);
+        }
+        if (synthesizer) {
+            // The cached calibrations are only valid for the frequency they were made at
+            Arrays.fill(mCalibrated, false);
+            restoreAutoCalibration();
+            image = getRegisterImage();
+        }
+        writeRegisters(image);
+        int channel = mRegisters[CC1101Constants.CC1101_CHANNR] & 0xFF;
+        if ((mRegisters[CC1101Constants.CC1101_MCSM0] & MCSM0_FS_AUTOCAL) == 0 && !mCalibrated[channel]) {
+            // Without automatic calibration, RX would start on a stale calibration
+            calibrate(channel);
+        }
+        resumeRx();
+    }
+
+    /**
+     * Returns the register values to write to the chip : mRegisters, with the cached calibration
+     * of the channel once the automatic calibration is disabled, and the RX streaming settings if
+     * a stream listener is set. Must be called with mSpiLock held.
+     */
+    private byte[] getRegisterImage() {
+        System.arraycopy(mRegisters, 0, mRegisterImage, 0, mRegisterImage.length);
+        int channel = mRegisters[CC1101Constants.CC1101_CHANNR] & 0xFF;
+        if ((mRegisters[CC1101Constants.CC1101_MCSM0] & MCSM0_FS_AUTOCAL) == 0 && mCalibrated[channel]) {
+            System.arraycopy(mCalibrations, 3 * channel, mRegisterImage, CC1101Constants.CC1101_FSCAL3, 3);
+        }
+        if (mStreamListener != null) {
+            mRegisterImage[CC1101Constants.CC1101_IOCFG2] = IOCFG_RX_FIFO_THRESHOLD;
+            byte pktctrl0 = mRegisters[CC1101Constants.CC1101_PKTCTRL0];
+            mRegisterImage[CC1101Constants.CC1101_PKTCTRL0] = (byte) ((pktctrl0 & ~PKTCTRL0_LENGTH_CONFIG) | PKTCTRL0_INFINITE_LENGTH);
+        }
+        return mRegisterImage;
+    }
+
+    private boolean isRegisterStale(int address, byte value) {
+        return ((mShadowUnknown >> address) & 1) != 0 || mShadowRegs[address] != value;
+    }
+
+    private boolean hasStaleRegisters(byte[] image) {
+        for (int i = 0; i < image.length; i++) {
+            if (isRegisterStale(i, image[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the configuration registers which differ from the shadow copy, coalescing close runs
+     * of registers into burst writes.
+     *
+     * @param image the values of all configuration registers
+     */
+    private void writeRegisters(byte[] image) {
+        mSpiLock.lock();
+        try {
+            int address = 0;
+            while (address < image.length) {
+                if (!isRegisterStale(address, image[address])) {
+                    address++;
+                    continue;
+                }
+                int end = address + 1;
+                for (int next = end; next < image.length && next - end <= REGISTER_COALESCE_GAP; next++) {
+                    if (isRegisterStale(next, image[next])) {
+                        end = next + 1;
+                    }
+                }
+                if (end - address == 1) {
+                    writeReg((byte) address, image[address]);
+                } else {
+                    writeBurstReg((byte) address, image, address, end - address);
+                }
+                address = end;
+            }
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a register only if the shadow copy says it holds another value
+     */
+    private void writeRegIfChanged(byte regAddr, byte value) {
+        if (isRegisterStale(regAddr, value)) {
+            writeReg(regAddr, value);
+        }
+    }
+
+    /**
+     * Records in the shadow copy the values written to the configuration registers, if any
+     */
+    private void updateShadow(byte regAddr, byte[] buffer, int offset, int length, boolean written) {
+        int address = regAddr & 0x3F;
+        int count = Math.min(length, CC1101Constants.CC1101_COMPLETE_REGISTERS - address);
+        if (count <= 0) {
+            return;
+        }
+        long mask = ((1L << count) - 1) << address;
+        if (written) {
+            System.arraycopy(buffer, offset, mShadowRegs, address, count);
+            mShadowUnknown &= ~mask;
+        } else {
+            mShadowUnknown |= mask;
+        }
+    }
+
+    /**
+     * Caches the packet format settings used to parse the RX FIFO
+     */
+    private void updatePacketFormat(byte[] config) {
+        mAppendStatus = (config[CC1101Constants.CC1101_PKTCTRL1] & PKTCTRL1_APPEND_STATUS) != 0;
+        mVariableLength = (config[CC1101Constants.CC1101_PKTCTRL0] & 0x03) == PKTCTRL0_VARIABLE_LENGTH;
+        mFixedLength = config[CC1101Constants.CC1101_PKTLEN] & 0xFF;
+        mStayInRx = ((config[CC1101Constants.CC1101_MCSM1] >> 2) & 0x03) == MCSM1_RXOFF_RX;
+        mTxOffRx = (config[CC1101Constants.CC1101_MCSM1] & 0x03) == MCSM1_TXOFF_RX;
+        mMcsm1 = config[CC1101Constants.CC1101_MCSM1];
+        mIocfg2 = config[CC1101Constants.CC1101_IOCFG2];
+        mPktctrl0 = config[CC1101Constants.CC1101_PKTCTRL0];
+        mDataRate = CC1101Config.decodeDataRate(config[CC1101Constants.CC1101_MDMCFG4], config[CC1101Constants.CC1101_MDMCFG3]);
+        mRxFifoStart = 0;
+        mRxFifoEnd = 0;
+        mStreamLength = -1;
+    }
+
+    /**
+     * Returns the configured PKTCTRL0 value with another packet length mode
+     */
+    private byte getPktctrl0(int lengthConfig) {
+        return (byte) ((mPktctrl0 & ~PKTCTRL0_LENGTH_CONFIG) | lengthConfig);
+    }
+
+    /**
+     * Returns how long the chip takes to send or receive two full FIFOs, plus a safety margin
+     */
+    private long getFifoTimeoutMillis() {
+        return 2 * CC1101_BUFFER_LEN * 8 * 1000L / Math.max(1, mDataRate) + 100;
+    }
+
+    private void init() {
+        reset();
+        byte patableLevel = (byte) 0xC0;
+        writeReg(CC1101Constants.CC1101_PATABLE, patableLevel);
+
+        setDefaultRegs();
+    }
+
+    private void setPowerDownState() {
+        cmdStrobe(CC1101Constants.CC1101_SIDLE);
+        cmdStrobe(CC1101Constants.CC1101_SPWD);
+        mChipAsleep = true;
+        mChipStatus = 0;
+        mShadowUnknown |= SHADOW_LOST_IN_SLEEP;
+    }
+
+    /**
+     * Sets the chip in RX state
      *
      */
     public void setRxState() {
+        if (mWakeOnRadio) {
+            stopWakeOnRadio();
+        }
         cmdStrobe(CC1101Constants.CC1101_SRX);
         //printMarcState();
     }
 
+    /**
+     * Puts the chip in Wake-on-Radio mode : the chip sleeps, and its RC oscillator wakes it up
+     * every EVENT0 timeout to listen for a packet during at most dutyCycle of the period. If a
+     * preamble or sync word is found, the chip stays in RX until the end of the packet. The radio
+     * thread only runs on the GDO0 packet interrupts : it drains the RX FIFO and restarts the
+     * polling. Status checks are suspended, as any SPI access wakes the chip up.
+     * Packets are only received if their preamble lasts longer than the period. The EVENT0
+     * timeout, WOR_RES and RX_TIME settings are computed by the driver, the EVENT1 timeout is
+     * kept from the configuration. Call {@link #setRxState()} to go back to continuous RX.
+     *
+     * @param latencyMillis the longest time the chip may sleep, in milliseconds
+     * @param dutyCycle the largest fraction of the time the chip may spend in RX, between 0 and 1
+     */
+    public void setWakeOnRadioState(int latencyMillis, double dutyCycle) {
+        int settings = CC1101Config.encodeWakeOnRadio(latencyMillis * 1000L, dutyCycle);
+        if (settings < 0) {
+            throw new IllegalArgumentException("No Wake-on-Radio settings for a latency of " + latencyMillis + "ms and a duty cycle of " + dutyCycle);
+        }
+        checkSetup();
+        mSpiLock.lock();
+        try {
+            if (!mWakeOnRadio) {
+                for (int i = 0; i < WAKE_ON_RADIO_REGISTERS.length; i++) {
+                    mRxWakeOnRadioRegs[i] = mRegisters[WAKE_ON_RADIO_REGISTERS[i]];
+                }
+            }
+            byte mcsm2 = mRegisters[CC1101Constants.CC1101_MCSM2];
+            byte worctrl = mRegisters[CC1101Constants.CC1101_WORCTRL];
+            mRegisters[CC1101Constants.CC1101_WOREVT1] = (byte) (settings >> 8);
+            mRegisters[CC1101Constants.CC1101_WOREVT0] = (byte) settings;
+            mRegisters[CC1101Constants.CC1101_WORCTRL] = (byte) ((worctrl & ~(WORCTRL_RC_PD | WORCTRL_WOR_RES))
+                    | WORCTRL_RC_CAL | (settings >> 20));
+            mRegisters[CC1101Constants.CC1101_MCSM2] = (byte) ((mcsm2 & ~(MCSM2_RX_TIME_QUAL | MCSM2_RX_TIME))
+                    | MCSM2_RX_TIME_QUAL | ((settings >> 16) & MCSM2_RX_TIME));
+            setIdleState();
+            flushRxFifo();
+            abortStream(mStreamListener);
+            mRxFifoStart = 0;
+            mRxFifoEnd = 0;
+            writeRegisters(getRegisterImage());
+            mWakeOnRadio = true;
+            enterWakeOnRadio();
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Restores the Wake-on-Radio registers of the configuration. The chip is woken up by the SPI
+     * access and left in IDLE state.
+     */
+    private void stopWakeOnRadio() {
+        mSpiLock.lock();
+        try {
+            mWakeOnRadio = false;
+            mWakeOnRadioPending = false;
+            for (int i = 0; i < WAKE_ON_RADIO_REGISTERS.length; i++) {
+                mRegisters[WAKE_ON_RADIO_REGISTERS[i]] = mRxWakeOnRadioRegs[i];
+            }
+            setIdleState();
+            writeRegisters(getRegisterImage());
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Starts the automatic RX polling from IDLE state. SWORRST restarts the RC oscillator timer,
+     * so the first wake up comes one period later. Must be called with mSpiLock held.
+     */
+    private void enterWakeOnRadio() {
+        mWakeOnRadioPending = false;
+        setIdleState();
+        cmdStrobe(CC1101Constants.CC1101_SWORRST);
+        cmdStrobe(CC1101Constants.CC1101_SWOR);
+        mChipAsleep = true;
+        mChipStatus = 0;
+        mShadowUnknown |= SHADOW_LOST_IN_SLEEP;
+    }
+
+    private void restartWakeOnRadio() {
+        mSpiLock.lock();
+        try {
+            if (mWakeOnRadio) {
+                enterWakeOnRadio();
+            }
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Goes back to RX after a packet, a recovery or a configuration change. In Wake-on-Radio
+     * mode, the chip is left in its RXOFF_MODE state and the radio thread restarts the polling
+     * once the RX FIFO is drained.
+     */
+    private void resumeRx() {
+        if (!mWakeOnRadio) {
+            cmdStrobe(CC1101Constants.CC1101_SRX);
+            return;
+        }
+        mWakeOnRadioPending = true;
+        Thread radioThread = mRadioThread;
+        if (radioThread != null && radioThread != Thread.currentThread()) {
+            LockSupport.unpark(radioThread);
+        }
+    }
+
     /**
      * Sets the chip in TX state
      */
@@ -423,58 +1820,221 @@ public class CC1101Manager {
         return readReg(regAddr, CC1101Constants.CC1101_CONFIG_REGISTER);
     }
 
-    // Untested
-    private boolean sendData(CC1101Packet packet) {
-        byte marcState;
+    /**
+     * Queues a packet for transmission and returns without waiting for it to be on air. The radio
+     * thread writes each packet to the TX FIFO in a single burst, as soon as there is room for it.
+     * When several packets are queued, TXOFF_MODE is set to TX so that they are sent back to back,
+     * the next packet being loaded while the current one is on air, without going through IDLE
+     * and calibrating between packets. The chip goes back to RX once the queue is empty.
+     * The packet must not be modified until the returned future is completed.
+     *
+     * @param packet the packet to send. In variable packet length mode, its length is sent first.
+     *               In fixed packet length mode, its length must be PKTLEN.
+     * @return a future completed on the radio thread with the packet once GDO0 signals its end, or
+     * exceptionally if the queue is full, the transmission does not end in time or the manager is
+     * closed
+     */
+    public CompletableFuture<CC1101Packet> sendData(CC1101Packet packet) {
+        int length = packet.getLength();
+        if (length > CC1101_DATA_LEN || length > packet.data.length || (!mVariableLength && length != mFixedLength)) {
+            throw new IllegalArgumentException("Invalid packet length " + length);
+        }
+        Thread radioThread = mRadioThread;
+        if (radioThread == null) {
+            throw new IllegalStateException("setup() must be called before sending packets");
+        }
 
-        setTxState();
-        while (getMarcState() != CC1101Constants.MARCSTATE_TX) {
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException ie) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Error while sleeping 1ms");
-                ie.printStackTrace();
+        CompletableFuture<CC1101Packet> future = new CompletableFuture<>();
+        synchronized (mTxQueue) {
+            if (mTxQueue.size() >= TX_QUEUE_CAPACITY) {
+                future.completeExceptionally(new IllegalStateException("The TX queue is full"));
+                return future;
             }
+            mTxQueue.add(new Transmission(packet, future));
         }
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException ie) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error while sleeping 500ms");
-            ie.printStackTrace();
+        LockSupport.unpark(radioThread);
+        return future;
+    }
+
+    private boolean hasQueuedTransmissions() {
+        synchronized (mTxQueue) {
+            return !mTxQueue.isEmpty();
         }
+    }
+
+    /**
+     * Writes the queued packets that fit in the TX FIFO. A new burst of packets is started with
+     * STX when the chip is not already sending, otherwise packets can only be appended while
+     * TXOFF_MODE keeps the chip in TX state.
+     */
+    private void loadTransmissions() {
+        mSpiLock.lock();
+        try {
+            boolean startBurst = mTxInFlight.isEmpty() && !mTxPipelining;
+            int free;
+            if (startBurst) {
+                boolean pipelined;
+                synchronized (mTxQueue) {
+                    pipelined = mTxQueue.size() > 1;
+                }
+                if (pipelined) {
+                    writeReg(CC1101Constants.CC1101_MCSM1, (byte) ((mMcsm1 & ~0x03) | MCSM1_TXOFF_TX));
+                    mTxPipelining = true;
+                }
+                free = CC1101_BUFFER_LEN;
+            } else if (mTxPipelining) {
+                free = CC1101_BUFFER_LEN - (readStatusReg(CC1101Constants.CC1101_TXBYTES) & 0x7F);
+            } else {
+                return;
+            }
+
+            int headerLength = mVariableLength ? 1 : 0;
+            // Without pipelining, the chip leaves TX after the first packet
+            while (mTxPipelining || mTxInFlight.isEmpty()) {
+                Transmission transmission;
+                synchronized (mTxQueue) {
+                    transmission = mTxQueue.peek();
+                    if (transmission == null || headerLength + transmission.packet.getLength() > free) {
+                        break;
+                    }
+                    mTxQueue.poll();
+                }
+                CC1101Packet packet = transmission.packet;
+                int length = headerLength + packet.getLength();
+                mStreamChunk[0] = packet.length;
+                System.arraycopy(packet.data, 0, mStreamChunk, headerLength, packet.getLength());
+                writeBurstReg(CC1101Constants.CC1101_TXFIFO, mStreamChunk, length);
+                free -= length;
+                mTxInFlight.add(transmission);
+            }
 
-        writeReg(CC1101Constants.CC1101_TXFIFO, packet.length);
+            if (!mTxInFlight.isEmpty()) {
+                mTransmitting = true;
+                mTxDeadline = System.nanoTime() + getFifoTimeoutMillis() * 1000000L;
+                if (startBurst) {
+                    setTxState();
+                }
+            }
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
 
-        setTxState();
+    /**
+     * Completes the packets sent since the last call : in TX, each GDO0 falling edge is the end
+     * of a packet. Leaves TX state once the last queued packet is sent.
+     */
+    private void completeTransmissions(int count) {
+        mSpiLock.lock();
+        try {
+            for (int i = 0; i < count && !mTxInFlight.isEmpty(); i++) {
+                mTxSent.add(mTxInFlight.poll());
+            }
+            mTxDeadline = System.nanoTime() + getFifoTimeoutMillis() * 1000000L;
+            if (mTxInFlight.isEmpty()) {
+                endTransmissions();
+            }
+        } finally {
+            mSpiLock.unlock();
+        }
+        for (int i = 0; i < mTxSent.size(); i++) {
+            Transmission transmission = mTxSent.get(i);
+            mTracer.trace(TraceEvent.PACKET_SENT, transmission.packet.getLength(), 0);
+            transmission.future.complete(transmission.packet);
+        }
+        mTxSent.clear();
+    }
 
-        marcState = getMarcState();
-        if ((marcState != CC1101Constants.MARCSTATE_TX) && (marcState != CC1101Constants.MARCSTATE_TX_END) && (marcState != CC1101Constants.MARCSTATE_RXTX_SWITCH)) {
+    /**
+     * Leaves TX state when no more packets are waiting, restoring TXOFF_MODE if it was changed
+     */
+    private void endTransmissions() {
+        if (mTxPipelining) {
+            if (hasQueuedTransmissions()) {
+                return;
+            }
             setIdleState();
-            flushTxFifo();
-            setTxState();
-            return false;
+            writeReg(CC1101Constants.CC1101_MCSM1, mMcsm1);
+            mTxPipelining = false;
+            resumeRx();
+        } else if (!mTxOffRx || mWakeOnRadio) {
+            resumeRx();
         }
+        mTransmitting = false;
+    }
 
+    /**
+     * Called when no end of packet edge came in time. If the TX FIFO was sent, the edges were
+     * missed and the packets are completed, otherwise they are failed and the TX FIFO is flushed.
+     */
+    private void checkTransmissionTimeout() {
+        mSpiLock.lock();
         try {
-            mGDO0.setEdgeTriggerType(Gpio.EDGE_FALLING);
-            mGDO0.registerGpioCallback(new GpioCallback() {
-                @Override
-                public boolean onGpioEdge(Gpio gpio) {
-                    setTxState();
+            // The status byte of the TXBYTES read gives the state in the same transaction
+            byte txBytes = readStatusReg(CC1101Constants.CC1101_TXBYTES);
+            int state = CC1101Status.getState(getChipStatus());
+            boolean sent = (state != CC1101Status.STATE_TX || mTxPipelining)
+                    && state != CC1101Status.STATE_TXFIFO_UNDERFLOW
+                    && txBytes == 0;
+            if (sent) {
+                if (BuildConfig.DEBUG) Log.w(TAG, "Missed the end of packet edges of " + mTxInFlight.size() + " packets");
+                completeTransmissions(mTxInFlight.size());
+                return;
+            }
+            if (BuildConfig.DEBUG) Log.e(TAG, "Timeout while sending " + mTxInFlight.size() + " packets, " + CC1101Status.toString(getChipStatus()));
+            Recovery recovery = state == CC1101Status.STATE_TXFIFO_UNDERFLOW ? Recovery.TX_FIFO_UNDERFLOW : Recovery.TX_TIMEOUT;
+            failTransmissions(new TimeoutException("The packet was not sent in time"), recovery);
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
 
-                    if ((readStatusReg(CC1101Constants.CC1101_TXBYTES) & (byte) 0x7F) == 0) {
-                        return true;
-                    }
-                    gpio.unregisterGpioCallback(this);
-                    if (BuildConfig.DEBUG) Log.v(TAG, "Data sent successfully");
-                    return true;
-                }
-            });
-        } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error while waiting for the GDO0 pin to go low");
-            ioe.printStackTrace();
+    /**
+     * Fails the packets being sent, restores TXOFF_MODE if it was changed and recovers the chip
+     */
+    private void failTransmissions(Exception error, Recovery recovery) {
+        mSpiLock.lock();
+        try {
+            while (!mTxInFlight.isEmpty()) {
+                mTxInFlight.poll().future.completeExceptionally(error);
+            }
+            if (mTxPipelining) {
+                writeReg(CC1101Constants.CC1101_MCSM1, mMcsm1);
+                mTxPipelining = false;
+            }
+            recover(recovery);
+            mTransmitting = false;
+        } finally {
+            mSpiLock.unlock();
         }
-        return true;
+    }
+
+    /**
+     * Cancels the queued and in flight packets once the radio thread is stopped
+     */
+    private void cancelTransmissions() {
+        synchronized (mTxQueue) {
+            mTxInFlight.addAll(mTxQueue);
+            mTxQueue.clear();
+        }
+        while (!mTxInFlight.isEmpty()) {
+            mTxInFlight.poll().future.cancel(false);
+        }
+        mTxPipelining = false;
+        mTransmitting = false;
+    }
+
+    /**
+     * Sends a SNOP strobe with the read bit set, so that the returned status byte holds the
+     * number of bytes available in the RX FIFO
+     */
+    private byte refreshChipStatus() {
+        cmdStrobe((byte) (CC1101Constants.CC1101_SNOP | CC1101Constants.READ_SINGLE));
+        return (byte) mChipStatus;
+    }
+
+    private void updateChipStatus(byte status) {
+        mChipStatus = (System.nanoTime() << STATUS_TIME_SHIFT) | STATUS_VALID | (status & 0xFF);
     }
 
     private byte getMarcState() {
@@ -486,97 +2046,636 @@ public class CC1101Manager {
      *
      * If you configure the GDO0 pin to receive interrupts when a new packet is received (as it is done
      * in the default config), you should not have to call this method.
+     * When a packet pool is set, the packet is taken from the pool and must be recycled.
+     * The returned packet has a length of 0 when no packet was available : the PacketListener is
+     * the only way to tell empty packets apart.
      * @return a CC1101Packet read from the CC1101 chip
      */
     public CC1101Packet receiveData() {
-        CC1101Packet packet = new CC1101Packet();
+        CC1101Packet packet = newPacket();
+        if (!receivePacket(packet)) {
+            mMetrics.emptyReads.increment();
+            packet.length = 0;
+        }
+        return packet;
+    }
 
-        if (getMarcState() == CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW) {
-            setIdleState();
-            flushRxFifo();
+    private CC1101Packet newPacket() {
+        CC1101PacketPool pool = mPacketPool;
+        // Without a pool, the data buffer is allocated at the size of the payload
+        return pool != null ? pool.acquire() : new CC1101Packet(null, 0);
+    }
+
+    /**
+     * Reads the next packet of the RX FIFO into packet
+     *
+     * @return false if no packet was available
+     */
+    private boolean receivePacket(CC1101Packet packet) {
+        mSpiLock.lock();
+        try {
+            if (!readPacket(packet)) {
+                return false;
+            }
+            mMetrics.countPacket(packet);
+            mTracer.trace(TraceEvent.PACKET_RECEIVED, packet.length,
+                    (packet.crcOk ? 0x10000 : 0) | (packet.rssi & 0xFF) << 8 | (packet.lqi & 0xFF));
+            return true;
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    private boolean readPacket(CC1101Packet packet) {
+        boolean allocateData = !packet.isPooled();
+
+        if (mAppendStatus) {
+            return receiveAppendedStatus(packet, allocateData);
+        }
+
+        // The overflow bit of RXBYTES saves a separate MARCSTATE read
+        byte rxBytes = readStatusReg(CC1101Constants.CC1101_RXBYTES);
+        boolean received = rxBytes != 0;
+        if ((rxBytes & 0x80) != 0) {
+            recover(Recovery.RX_FIFO_OVERFLOW);
             packet.length = -1;
-        } else if (readStatusReg(CC1101Constants.CC1101_RXBYTES) != 0) {
+        } else if (received) {
             packet.length = readConfigReg(CC1101Constants.CC1101_RXFIFO);
-            if (packet.length > CC1101_DATA_LEN) {
+            if (packet.getLength() > CC1101_DATA_LEN) {
+                // The rest of the packet would be parsed as the next packets : flush it
+                recover(Recovery.INVALID_PACKET);
                 packet.length = -2;
             } else {
                 int length = packet.getLength();
+                if (allocateData) {
+                    packet.data = new byte[length];
+                }
                 if (length > 0) {
-                    packet.data = readBurstReg(CC1101Constants.CC1101_RXFIFO, length);
-                    packet.rssi = readStatusReg(CC1101Constants.CC1101_RSSI);
-                    //packet.rssi = readConfigReg(CC1101Constants.CC1101_RXFIFO);
-                    //byte val = readConfigReg(CC1101Constants.CC1101_RXFIFO);
-                    byte lqi = readStatusReg(CC1101Constants.CC1101_LQI);
-                    //packet.lqi = (byte) (lqi & (byte) 0x7F);
-                    packet.lqi = BitUtils.bitsRead(lqi, 0, 6);
-                    packet.crcOk = BitUtils.bitsRead(lqi, 7, 7) == 1;
-                } else {
-                    if (BuildConfig.DEBUG) Log.e(TAG, "Packet length is " + BitUtils.getHexValue(packet.length) + ", nothing to read");
+                    readBurstReg(CC1101Constants.CC1101_RXFIFO, packet.data, length);
                 }
+                packet.rssi = readStatusReg(CC1101Constants.CC1101_RSSI);
+                //packet.rssi = readConfigReg(CC1101Constants.CC1101_RXFIFO);
+                //byte val = readConfigReg(CC1101Constants.CC1101_RXFIFO);
+                byte lqi = readStatusReg(CC1101Constants.CC1101_LQI);
+                packet.lqi = (byte) (lqi & 0x7F);
+                packet.crcOk = (lqi & 0x80) != 0;
             }
-        } else {
-            packet.length = 0;
         }
 
-        setRxState();
+        resumeRx();
 
-        return packet;
+        return received;
+    }
+
+    /**
+     * Reads a packet when PKTCTRL1.APPEND_STATUS is set : the RSSI and LQI/CRC bytes of the packet
+     * follow its payload in the RX FIFO. A single RXBYTES read gives the FIFO size and the overflow
+     * flag, then the FIFO (length, payload and status bytes) is drained in one burst.
+     * The last byte of the RX FIFO is only read when it ends a packet, as reading it while the next
+     * packet is being received may corrupt the FIFO (see the CC1101 errata) : unless the packet
+     * lengths already known show that the FIFO ends on a packet, all bytes but the last are read,
+     * and the last one follows in a second read if the bytes read show that it ends a packet.
+     * Bytes following the first complete packet are kept for the next call.
+     *
+     * @return false if no complete packet was available
+     */
+    private boolean receiveAppendedStatus(CC1101Packet packet, boolean allocateData) {
+        if (!parseRxFifoBuffer(packet, allocateData)) {
+            byte rxBytes = readStatusReg(CC1101Constants.CC1101_RXBYTES);
+            if ((rxBytes & 0x80) != 0) {
+                recover(Recovery.RX_FIFO_OVERFLOW);
+                packet.length = -1;
+                return true;
+            }
+            int available = rxBytes & 0x7F;
+            if (available > 0) {
+                if (mRxFifoStart > 0) {
+                    System.arraycopy(mRxFifoBuffer, mRxFifoStart, mRxFifoBuffer, 0, mRxFifoEnd - mRxFifoStart);
+                    mRxFifoEnd -= mRxFifoStart;
+                    mRxFifoStart = 0;
+                }
+                available = Math.min(available, mRxFifoBuffer.length - mRxFifoEnd);
+                if (!endsOnPacket(mRxFifoEnd + available)) {
+                    readRxFifo(available - 1);
+                    available = endsOnPacket(mRxFifoEnd + 1) ? 1 : 0;
+                }
+                readRxFifo(available);
+            }
+            if (!parseRxFifoBuffer(packet, allocateData)) {
+                if (!mStayInRx) {
+                    resumeRx();
+                }
+                return false;
+            }
+        }
+
+        if (packet.length == -2) {
+            recover(Recovery.INVALID_PACKET);
+        } else if (!mStayInRx) {
+            resumeRx();
+        }
+        return true;
+    }
+
+    /**
+     * Appends count bytes of the RX FIFO to the bytes already drained
+     */
+    private void readRxFifo(int count) {
+        if (count > 0) {
+            readBurstReg(CC1101Constants.CC1101_RXFIFO, mRxBuffer, count);
+            System.arraycopy(mRxBuffer, 0, mRxFifoBuffer, mRxFifoEnd, count);
+            mRxFifoEnd += count;
+        }
+    }
+
+    /**
+     * Tells whether the bytes drained from the RX FIFO would end on a complete packet if they
+     * went up to end. The length of each packet must be known : in variable packet length mode,
+     * its length byte must have been drained already.
+     */
+    private boolean endsOnPacket(int end) {
+        int headerLength = mVariableLength ? 1 : 0;
+        int position = mRxFifoStart;
+        while (position < end) {
+            if (mVariableLength && position >= mRxFifoEnd) {
+                return false;
+            }
+            int length = mVariableLength ? mRxFifoBuffer[position] & 0xFF : mFixedLength;
+            if (length > CC1101_DATA_LEN) {
+                return false;
+            }
+            position += headerLength + length + 2;
+        }
+        return position == end;
+    }
+
+    /**
+     * Extracts the first packet of the bytes drained from the RX FIFO.
+     *
+     * @return true if packet was filled, false if no complete packet was available
+     */
+    private boolean parseRxFifoBuffer(CC1101Packet packet, boolean allocateData) {
+        int buffered = mRxFifoEnd - mRxFifoStart;
+        int headerLength = mVariableLength ? 1 : 0;
+        if (buffered <= headerLength) {
+            return false;
+        }
+        int length = mVariableLength ? mRxFifoBuffer[mRxFifoStart] & 0xFF : mFixedLength;
+        if (length > CC1101_DATA_LEN) {
+            packet.length = -2;
+            return true;
+        }
+        if (buffered < headerLength + length + 2) {
+            return false;
+        }
+        int offset = mRxFifoStart + headerLength;
+        packet.length = (byte) length;
+        if (allocateData) {
+            packet.data = new byte[length];
+        }
+        System.arraycopy(mRxFifoBuffer, offset, packet.data, 0, length);
+        packet.rssi = mRxFifoBuffer[offset + length];
+        byte lqi = mRxFifoBuffer[offset + length + 1];
+        packet.lqi = (byte) (lqi & 0x7F);
+        packet.crcOk = (lqi & 0x80) != 0;
+        mRxFifoStart = offset + length + 2;
+        if (mRxFifoStart == mRxFifoEnd) {
+            mRxFifoStart = 0;
+            mRxFifoEnd = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the packet being streamed from the RX FIFO, as described in the "Packet Length > 255"
+     * section of the datasheet : the packet is received in infinite packet length mode, and the
+     * chip is switched to fixed packet length mode once less than 256 bytes remain, with PKTLEN set
+     * to the packet length modulo 256.
+     * The last byte of the RX FIFO is only read at the end of the packet (see the CC1101 errata).
+     * The SPI bus is released around each listener call, so that a slow listener does not stall
+     * the other radios of a shared bus.
+     */
+    private void drainStream() {
+        StreamListener listener = mStreamListener;
+        int statusLength = mAppendStatus ? 2 : 0;
+        mSpiLock.lock();
+        try {
+            while (true) {
+                byte rxBytes = readStatusReg(CC1101Constants.CC1101_RXBYTES);
+                if ((rxBytes & 0x80) != 0) {
+                    if (BuildConfig.DEBUG) Log.e(TAG, "RX FIFO overflow while streaming");
+                    recover(Recovery.RX_FIFO_OVERFLOW);
+                    return;
+                }
+                int available = rxBytes & 0x7F;
+                int aborts = mStreamAborts;
+
+                if (mStreamLength < 0) {
+                    if (available < STREAM_HEADER_LEN) {
+                        return;
+                    }
+                    readBurstReg(CC1101Constants.CC1101_RXFIFO, mRxBuffer, STREAM_HEADER_LEN);
+                    available -= STREAM_HEADER_LEN;
+                    mStreamLength = ((mRxBuffer[0] & 0xFF) << 8) | (mRxBuffer[1] & 0xFF);
+                    mStreamReceived = 0;
+                    mStreamFixedLength = false;
+                    writeReg(CC1101Constants.CC1101_PKTLEN, (byte) (mStreamLength + STREAM_HEADER_LEN));
+                    if (listener != null) {
+                        mSpiLock.unlock();
+                        try {
+                            listener.onStreamStart(mStreamLength);
+                        } finally {
+                            mSpiLock.lock();
+                        }
+                        if (mStreamAborts != aborts) {
+                            return;
+                        }
+                    }
+                }
+
+                int remaining = mStreamLength - mStreamReceived;
+                if (!mStreamFixedLength && remaining < 256) {
+                    writeReg(CC1101Constants.CC1101_PKTCTRL0, getPktctrl0(0));
+                    mStreamFixedLength = true;
+                }
+
+                if (remaining + statusLength <= available) {
+                    readBurstReg(CC1101Constants.CC1101_RXFIFO, mStreamData, remaining + statusLength);
+                    byte rssi;
+                    byte lqi;
+                    if (mAppendStatus) {
+                        rssi = mStreamData[remaining];
+                        lqi = mStreamData[remaining + 1];
+                    } else {
+                        rssi = readStatusReg(CC1101Constants.CC1101_RSSI);
+                        lqi = readStatusReg(CC1101Constants.CC1101_LQI);
+                    }
+                    mStreamLength = -1;
+                    writeReg(CC1101Constants.CC1101_PKTCTRL0, getPktctrl0(PKTCTRL0_INFINITE_LENGTH));
+                    if (!mStayInRx) {
+                        resumeRx();
+                    }
+                    mMetrics.countPacket((lqi & 0x80) != 0);
+                    if (listener != null) {
+                        mSpiLock.unlock();
+                        try {
+                            if (remaining > 0) {
+                                listener.onStreamData(mStreamData, 0, remaining);
+                            }
+                            listener.onStreamEnd(rssi, (byte) (lqi & 0x7F), (lqi & 0x80) != 0);
+                        } finally {
+                            mSpiLock.lock();
+                        }
+                    }
+                    continue;
+                }
+
+                int length = Math.min(remaining, available - 1);
+                if (length <= 0) {
+                    return;
+                }
+                readBurstReg(CC1101Constants.CC1101_RXFIFO, mStreamData, length);
+                mStreamReceived += length;
+                if (listener != null) {
+                    mSpiLock.unlock();
+                    try {
+                        listener.onStreamData(mStreamData, 0, length);
+                    } finally {
+                        mSpiLock.lock();
+                    }
+                    if (mStreamAborts != aborts) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            mSpiLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the packet being streamed, if any, and goes back to infinite packet length mode.
+     * The listener is told by the radio thread, as it may be in a callback for this packet.
+     */
+    private void abortStream(@Nullable StreamListener listener) {
+        if (mStreamLength < 0) {
+            return;
+        }
+        mStreamLength = -1;
+        mStreamAborts++;
+        writeReg(CC1101Constants.CC1101_PKTCTRL0, getPktctrl0(PKTCTRL0_INFINITE_LENGTH));
+        if (listener != null) {
+            mAbortedStream.set(listener);
+            Thread radioThread = mRadioThread;
+            if (radioThread != null) {
+                LockSupport.unpark(radioThread);
+            }
+        }
     }
 
+    /**
+     * Calls onStreamAborted() for the stream dropped by abortStream, if any, without holding the
+     * SPI bus
+     */
+    private void notifyStreamAborted() {
+        StreamListener listener = mAbortedStream.getAndSet(null);
+        if (listener != null) {
+            listener.onStreamAborted();
+        }
+    }
 
-    private void spiWrite(byte[] buffer, byte registerAddress) {
-        if (mSPIDevice == null) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "SPI device is null, could not write");
+    /**
+     * Sends a packet larger than the TX FIFO, read from the given stream. The packet starts with a
+     * 2 bytes big-endian length field, and the TX FIFO is refilled each time GDO2 signals that it
+     * went below the FIFOTHR threshold. The chip sends the packet in infinite packet length mode
+     * and is switched to fixed packet length mode once less than 256 bytes remain.
+     * Blocks until the packet is sent, then puts the chip back in RX state. Requires a transport
+     * with a GDO2 line.
+     *
+     * @param data the payload of the packet
+     * @param length the number of bytes of data to send, up to 65535
+     * @return true if the packet was sent, false if data ended early or the TX FIFO underflowed
+     */
+    public boolean sendStream(InputStream data, int length) {
+        if (!mTransport.hasGdo2()) {
+            throw new IllegalStateException("Sending a stream requires the GDO2 line");
+        }
+        if (length < 0 || length > STREAM_MAX_LENGTH) {
+            throw new IllegalArgumentException("The stream length must be between 0 and " + STREAM_MAX_LENGTH);
         }
-        byte[] dataToWrite = new byte[buffer.length + 1];
-        dataToWrite[0] = registerAddress;
-        for (int i = 1; i < dataToWrite.length; i++) {
-            dataToWrite[i] = buffer[i-1];
+        int total = length + STREAM_HEADER_LEN;
+        long timeoutMillis = getFifoTimeoutMillis();
+        boolean sent = false;
+
+        mSpiLock.lock();
+        if (mTransmitting) {
+            mSpiLock.unlock();
+            if (BuildConfig.DEBUG) Log.e(TAG, "Packets queued by sendData() are being sent");
+            return false;
+        }
+        try {
+            abortStream(mStreamListener);
+            setIdleState();
+            flushTxFifo();
+            mTxStreamSignal.drainPermits();
+            mTransport.setGdo0Listener(mTxStreamListener);
+            mTransport.setGdo2Listener(mTxStreamListener);
+            mTransport.setGdo2EdgeTrigger(CC1101Transport.EDGE_FALLING);
+            writeReg(CC1101Constants.CC1101_IOCFG2, IOCFG_TX_FIFO_THRESHOLD);
+            writeReg(CC1101Constants.CC1101_PKTLEN, (byte) total);
+            boolean fixedLength = total < 256;
+            writeReg(CC1101Constants.CC1101_PKTCTRL0, getPktctrl0(fixedLength ? 0 : PKTCTRL0_INFINITE_LENGTH));
+
+            int chunkLength = Math.min(total, CC1101_BUFFER_LEN);
+            mStreamChunk[0] = (byte) (length >> 8);
+            mStreamChunk[1] = (byte) length;
+            if (!readFully(data, mStreamChunk, STREAM_HEADER_LEN, chunkLength - STREAM_HEADER_LEN)) {
+                return false;
+            }
+            writeBurstReg(CC1101Constants.CC1101_TXFIFO, mStreamChunk, chunkLength);
+            int written = chunkLength;
+            setTxState();
+
+            while (written < total) {
+                if (!mTxStreamSignal.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    if (BuildConfig.DEBUG) Log.e(TAG, "Timeout while sending a stream");
+                    return false;
+                }
+                byte txBytes = readStatusReg(CC1101Constants.CC1101_TXBYTES);
+                if ((txBytes & 0x80) != 0) {
+                    if (BuildConfig.DEBUG) Log.e(TAG, "TX FIFO underflow while sending a stream");
+                    return false;
+                }
+                int queued = txBytes & 0x7F;
+                if (!fixedLength && total - (written - queued) < 256) {
+                    writeReg(CC1101Constants.CC1101_PKTCTRL0, getPktctrl0(0));
+                    fixedLength = true;
+                }
+                chunkLength = Math.min(CC1101_BUFFER_LEN - queued, total - written);
+                if (!fixedLength) {
+                    // The last byte must not be queued before the switch to fixed packet length mode
+                    chunkLength = Math.min(chunkLength, total - 1 - written);
+                }
+                if (chunkLength <= 0) {
+                    continue;
+                }
+                if (!readFully(data, mStreamChunk, 0, chunkLength)) {
+                    return false;
+                }
+                writeBurstReg(CC1101Constants.CC1101_TXFIFO, mStreamChunk, chunkLength);
+                written += chunkLength;
+            }
+
+            int state = CC1101Status.getState(refreshChipStatus());
+            while (state == CC1101Status.STATE_TX) {
+                if (!mTxStreamSignal.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    if (BuildConfig.DEBUG) Log.e(TAG, "Timeout while waiting for the end of a stream");
+                    return false;
+                }
+                state = CC1101Status.getState(refreshChipStatus());
+            }
+            sent = true;
+            if (BuildConfig.DEBUG) Log.v(TAG, "Stream of " + length + " bytes sent successfully");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error while sending a stream");
+            ioe.printStackTrace();
+        } finally {
+            if (!sent) {
+                setIdleState();
+                flushTxFifo();
+            }
+            restoreRxRegisters();
+            mSpiLock.unlock();
         }
+        return sent;
+    }
+
+    /**
+     * Restores the GDO2 and packet length settings changed by sendStream(), then goes back to RX
+     */
+    private void restoreRxRegisters() {
+        boolean streaming = mStreamListener != null;
+        writeRegIfChanged(CC1101Constants.CC1101_IOCFG2, streaming ? IOCFG_RX_FIFO_THRESHOLD : mIocfg2);
+        writeRegIfChanged(CC1101Constants.CC1101_PKTLEN, (byte) mFixedLength);
+        writeRegIfChanged(CC1101Constants.CC1101_PKTCTRL0, streaming ? getPktctrl0(PKTCTRL0_INFINITE_LENGTH) : mPktctrl0);
         try {
-            mSPIDevice.write(dataToWrite, dataToWrite.length);
+            registerEdgeListeners();
         } catch (IOException ioe) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "Error while reading");
+            if (BuildConfig.DEBUG) Log.e(TAG, "Error while registering the gpio callbacks");
             ioe.printStackTrace();
         }
+        resumeRx();
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read < 0) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "The stream ended before the announced length");
+                return false;
+            }
+            offset += read;
+            length -= read;
+        }
+        return true;
     }
 
+
     /**
      * Closes the SPI device and GPIO connections. Should be called when you don't need to use
      * the CC1101 anymore.
      */
     public void close() {
-        if (mSPIDevice != null) {
-            try {
-                mSPIDevice.close();
-            } catch (IOException ioe) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing " + mSPIDeviceName);
-                ioe.printStackTrace();
+        stopRadioThread();
+        setMetricsListener(null, 0);
+        try {
+            mTransport.setGdo0Listener(null);
+            if (mTransport.hasGdo2()) {
+                mTransport.setGdo2Listener(null);
             }
-            mSPIDevice = null;
+            mTransport.close();
+        } catch (IOException ioe) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing the SPI device and gpio ports");
+            ioe.printStackTrace();
         }
+    }
 
-        if (mGDO0 != null) {
-            try {
-                mGDO0.close();
-            } catch (IOException ioe) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing " + mGDO0Name);
-                ioe.printStackTrace();
-            }
+
+    public interface PacketListener {
+        /**
+         * Called with each received packet, on the dispatch executor. An exception thrown here
+         * is logged, and the following packets are still delivered.
+         *
+         * @param packet the received packet
+         */
+        void onNewPacket(CC1101Packet packet);
+    }
+
+    public interface MetricsListener {
+        void onMetrics(CC1101Metrics metrics);
+    }
+
+    /**
+     * A host-side packet filter, see {@link #addPacketFilter(PacketFilter)}. Some common filters
+     * are built by {@link PacketFilters}.
+     */
+    public interface PacketFilter {
+        /**
+         * Called on the radio thread with each received packet
+         *
+         * @param packet the packet, which must not be kept
+         * @return true to deliver the packet, false to drop it
+         */
+        boolean accept(CC1101Packet packet);
+    }
+
+    private static class FilterStage {
+        final PacketFilter filter;
+        final LongAdder rejected = new LongAdder();
+
+        FilterStage(PacketFilter filter) {
+            this.filter = filter;
         }
+    }
 
-        if (mSS != null) {
-            try {
-                mSS.close();
-            } catch (IOException ioe) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing " + mSSName);
-                ioe.printStackTrace();
-            }
+    public interface BatchPacketListener {
+        /**
+         * Called with the packets read from the RX FIFO on a GDO0 interrupt, in reception order.
+         * The list is reused by the driver and must not be kept after this call.
+         *
+         * @param packets the received packets
+         */
+        void onNewPackets(List<CC1101Packet> packets);
+    }
+
+    /**
+     * Receives the packets of the streaming mode piece by piece, on the radio thread. Callbacks
+     * are made without holding the SPI bus, but the RX FIFO is not drained meanwhile : a listener
+     * slower than the air rate makes the RX FIFO overflow. onStreamAborted() is called on the
+     * radio thread too, whichever thread dropped the packet, so callbacks never overlap.
+     */
+    public interface StreamListener {
+        /**
+         * Called when the length field of a new packet is received
+         *
+         * @param length the payload length announced by the sender
+         */
+        void onStreamStart(int length);
+
+        /**
+         * Called with the next bytes of the payload. The buffer is reused by the driver and must
+         * not be kept after this call.
+         */
+        void onStreamData(byte[] buffer, int offset, int length);
+
+        /**
+         * Called once the whole payload was received
+         */
+        void onStreamEnd(byte rssi, byte lqi, boolean crcOk);
+
+        /**
+         * Called when the packet being received is dropped : after an RX FIFO overflow, or when
+         * the chip is reconfigured, changes channel or leaves RX
+         */
+        void onStreamAborted();
+    }
+
+    /**
+     * A packet queued by sendData() and the future completed once it is sent
+     */
+    private static class Transmission {
+        final CC1101Packet packet;
+        final CompletableFuture<CC1101Packet> future;
+
+        Transmission(CC1101Packet packet, CompletableFuture<CC1101Packet> future) {
+            this.packet = packet;
+            this.future = future;
         }
     }
 
+    /**
+     * The failures the supervisor recovers from, see {@link #getRecoveryCount(Recovery)}
+     */
+    public enum Recovery {
+        /**
+         * The RX FIFO overflowed : the chip is idled, the RX FIFO flushed and RX restarted
+         */
+        RX_FIFO_OVERFLOW,
+        /**
+         * A packet with an invalid length was read : the RX FIFO is flushed
+         */
+        INVALID_PACKET,
+        /**
+         * The TX FIFO underflowed : the packets being sent are failed and the TX FIFO flushed
+         */
+        TX_FIFO_UNDERFLOW,
+        /**
+         * The end of the packets being sent was not signaled in time
+         */
+        TX_TIMEOUT,
+        /**
+         * The chip was found out of RX state, or in a transient state for two checks in a row
+         */
+        STUCK_STATE
+    }
 
-    public interface PacketListener {
-        void onNewPacket(CC1101Packet packet);
+    /**
+     * What the radio thread does with a new packet when the dispatch queue is full
+     */
+    public enum BackpressurePolicy {
+        /**
+         * Drops the oldest queued packet to make room for the new one
+         */
+        DROP_OLDEST,
+        /**
+         * Drops the new packet
+         */
+        DROP_NEWEST,
+        /**
+         * Waits until the listener frees some room. The RX FIFO is not drained in the meantime.
+         */
+        BLOCK
     }
 }
@@ -0,0 +1,283 @@
+package eu.quartum.cc1101_driver;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of the receive path and SPI counters of a CC1101Manager, returned by
+ * {@link CC1101Manager#getMetrics()}. Counters are read one after the other while the radio
+ * keeps running, so two counters of a snapshot may be a few events apart.
+ * Compare two snapshots with {@link #since(CC1101Metrics)} to get the rates over a period.
+ */
+public class CC1101Metrics {
+    private final long mTimestampNanos;
+    private final long mPacketsReceived;
+    private final long mCrcFailures;
+    private final long mFifoOverflows;
+    private final long mOversizedPackets;
+    private final long mEmptyReads;
+    private final long mDroppedPackets;
+    private final long mHardwareRejections;
+    private final long mFilterRejections;
+    private final long mSpiTransactions;
+    private final long mSpiBytes;
+    private final long mSpiErrors;
+    private final long[] mRecoveries;
+    private final Histogram mInterruptLatency;
+    private final Histogram mListenerTime;
+
+    CC1101Metrics(MetricsRecorder recorder, long droppedPackets, long spiTransactions, long spiBytes, long[] recoveries) {
+        mTimestampNanos = System.nanoTime();
+        mPacketsReceived = recorder.packetsReceived.sum();
+        mCrcFailures = recorder.crcFailures.sum();
+        mFifoOverflows = recorder.fifoOverflows.sum();
+        mOversizedPackets = recorder.oversizedPackets.sum();
+        mEmptyReads = recorder.emptyReads.sum();
+        mDroppedPackets = droppedPackets;
+        mHardwareRejections = recorder.hardwareRejections.sum();
+        mFilterRejections = recorder.filterRejections.sum();
+        mSpiTransactions = spiTransactions;
+        mSpiBytes = spiBytes;
+        mSpiErrors = recorder.spiErrors.sum();
+        mRecoveries = recoveries;
+        mInterruptLatency = recorder.interruptLatency.snapshot();
+        mListenerTime = recorder.listenerTime.snapshot();
+    }
+
+    private CC1101Metrics(CC1101Metrics current, CC1101Metrics previous) {
+        mTimestampNanos = current.mTimestampNanos - previous.mTimestampNanos;
+        mPacketsReceived = current.mPacketsReceived - previous.mPacketsReceived;
+        mCrcFailures = current.mCrcFailures - previous.mCrcFailures;
+        mFifoOverflows = current.mFifoOverflows - previous.mFifoOverflows;
+        mOversizedPackets = current.mOversizedPackets - previous.mOversizedPackets;
+        mEmptyReads = current.mEmptyReads - previous.mEmptyReads;
+        mDroppedPackets = current.mDroppedPackets - previous.mDroppedPackets;
+        mHardwareRejections = current.mHardwareRejections - previous.mHardwareRejections;
+        mFilterRejections = current.mFilterRejections - previous.mFilterRejections;
+        mSpiTransactions = current.mSpiTransactions - previous.mSpiTransactions;
+        mSpiBytes = current.mSpiBytes - previous.mSpiBytes;
+        mSpiErrors = current.mSpiErrors - previous.mSpiErrors;
+        mRecoveries = new long[current.mRecoveries.length];
+        for (int i = 0; i < mRecoveries.length; i++) {
+            mRecoveries[i] = current.mRecoveries[i] - previous.mRecoveries[i];
+        }
+        mInterruptLatency = current.mInterruptLatency.since(previous.mInterruptLatency);
+        mListenerTime = current.mListenerTime.since(previous.mListenerTime);
+    }
+
+    /**
+     * Returns the difference between this snapshot and an older one. The timestamp of the
+     * returned metrics is the time elapsed between the two snapshots.
+     *
+     * @param previous a snapshot taken earlier from the same manager
+     * @return the events counted between the two snapshots
+     */
+    public CC1101Metrics since(CC1101Metrics previous) {
+        return new CC1101Metrics(this, previous);
+    }
+
+    /**
+     * @return the System.nanoTime() this snapshot was taken at
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * @return the number of packets read from the RX FIFO, including the packets with an
+     * invalid CRC and the streamed packets
+     */
+    public long getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    /**
+     * @return the number of received packets with an invalid CRC
+     */
+    public long getCrcFailures() {
+        return mCrcFailures;
+    }
+
+    /**
+     * @return the number of RX FIFO overflows found while reading a packet
+     */
+    public long getFifoOverflows() {
+        return mFifoOverflows;
+    }
+
+    /**
+     * @return the number of packets rejected because their length exceeds the RX FIFO
+     */
+    public long getOversizedPackets() {
+        return mOversizedPackets;
+    }
+
+    /**
+     * @return the number of RX FIFO drains, or receiveData() calls, which found no complete packet
+     */
+    public long getEmptyReads() {
+        return mEmptyReads;
+    }
+
+    /**
+     * @return the number of packets dropped because the PacketListener could not keep up
+     */
+    public long getDroppedPackets() {
+        return mDroppedPackets;
+    }
+
+    /**
+     * Returns the number of GDO0 interrupts not matched by a packet in the RX FIFO : the chip
+     * discarded the packet after its sync word, because of its address, its length or, with the
+     * CRC autoflush, its CRC. Packets rejected by the sync word or preamble qualification raise
+     * no interrupt and are not counted, nor are the packets whose interrupt was missed.
+     *
+     * @return the number of packets rejected by the chip
+     */
+    public long getHardwareRejections() {
+        return mHardwareRejections;
+    }
+
+    /**
+     * @return the number of packets read from the chip and dropped by a PacketFilter
+     */
+    public long getFilterRejections() {
+        return mFilterRejections;
+    }
+
+    /**
+     * @return the number of SPI transactions
+     */
+    public long getSpiTransactions() {
+        return mSpiTransactions;
+    }
+
+    /**
+     * @return the number of bytes exchanged on the SPI bus, headers included
+     */
+    public long getSpiBytes() {
+        return mSpiBytes;
+    }
+
+    /**
+     * @return the number of SPI or GPIO accesses which failed with an IOException
+     */
+    public long getSpiErrors() {
+        return mSpiErrors;
+    }
+
+    /**
+     * @param recovery the failure recovered from
+     * @return the number of recoveries of the given type
+     */
+    public long getRecoveryCount(CC1101Manager.Recovery recovery) {
+        return mRecoveries[recovery.ordinal()];
+    }
+
+    /**
+     * @return the time from the GDO0 interrupt signaling a packet to the call of its listener
+     */
+    public Histogram getInterruptLatency() {
+        return mInterruptLatency;
+    }
+
+    /**
+     * @return the time spent in the PacketListener or BatchPacketListener, per call
+     */
+    public Histogram getListenerTime() {
+        return mListenerTime;
+    }
+
+    @Override
+    public String toString() {
+        return "received " + mPacketsReceived + ", crc failures " + mCrcFailures
+                + ", overflows " + mFifoOverflows + ", oversized " + mOversizedPackets
+                + ", empty reads " + mEmptyReads + ", dropped " + mDroppedPackets
+                + ", rejected by the chip " + mHardwareRejections + " / by filters " + mFilterRejections
+                + ", spi " + mSpiTransactions + " transactions / " + mSpiBytes + " bytes / "
+                + mSpiErrors + " errors, interrupt latency " + mInterruptLatency
+                + ", listener time " + mListenerTime;
+    }
+
+    /**
+     * A histogram of durations, with one bucket per power of 2 nanoseconds. Percentiles are
+     * rounded up to the upper bound of their bucket, so they are at most twice the exact value.
+     */
+    public static class Histogram {
+        static final int BUCKETS = 64;
+
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Histogram(long[] buckets, long sum, long max) {
+            mBuckets = buckets;
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        Histogram since(Histogram previous) {
+            long[] buckets = new long[mBuckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets[i] - previous.mBuckets[i];
+            }
+            // The maximum of the period is unknown, the overall maximum is an upper bound
+            return new Histogram(buckets, mSum - previous.mSum, mMax);
+        }
+
+        /**
+         * @return the number of recorded durations
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the mean duration in nanoseconds, 0 if nothing was recorded
+         */
+        public long getMeanNanos() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        /**
+         * @return the longest recorded duration in nanoseconds
+         */
+        public long getMaxNanos() {
+            return mMax;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the percentile in nanoseconds, 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("The percentile must be between 0 and 100");
+            }
+            long rank = (long) Math.ceil(mCount * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                    return Math.min(upperBound, mMax);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+                    mCount, getMeanNanos() / 1000.0, getPercentileNanos(50) / 1000.0,
+                    getPercentileNanos(99) / 1000.0, mMax / 1000.0);
+        }
+    }
+}
@@ -8,15 +8,53 @@ import eu.quartum.cc1101_driver.utils.BitUtils;
  */
 
 public class CC1101Packet {
+    private final static byte[] NO_DATA = new byte[0];
+    private final static int DEFAULT_CAPACITY = 64;
+    /**
+     * The typical RSSI offset of the datasheet. The exact offset, from 72 to 79 dB, depends on
+     * the frequency band and the data rate.
+     */
+    public final static int RSSI_OFFSET = 74;
+
     public byte length;
-    public byte[] data = new byte[64];
+    /**
+     * The packet payload. Only the first {@link #getLength()} bytes are meaningful : new packets
+     * and packets taken from a CC1101PacketPool have a buffer larger than the payload.
+     */
+    public byte[] data;
     public boolean crcOk;
     public byte rssi;
     public byte lqi;
+    /**
+     * The System.nanoTime() of the GDO0 interrupt which signaled this packet, 0 if unknown
+     */
+    public long receivedNanos;
+
+    private final CC1101PacketPool mPool;
+    /**
+     * Whether the packet is waiting in its pool, guarded by the pool
+     */
+    boolean mInPool;
+
+    /**
+     * Builds a packet with a 64 bytes data buffer
+     */
+    public CC1101Packet() {
+        this(null, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param pool the pool the packet is recycled to, if any
+     * @param capacity the size of the data buffer, 0 for a packet whose buffer is set later
+     */
+    CC1101Packet(CC1101PacketPool pool, int capacity) {
+        mPool = pool;
+        data = capacity > 0 ? new byte[capacity] : NO_DATA;
+    }
 
     @Override
     public String toString() {
-        return "Packet of length " + getLength() + ", crc is " + (crcOk ? "ok" : "invalid") + ", rssi is " + BitUtils.getHexValue(rssi) + ", lqi is " + BitUtils.getHexValue(lqi) + ", data is " + BitUtils.getHexValue(data);
+        return "Packet of length " + getLength() + ", crc is " + (crcOk ? "ok" : "invalid") + ", rssi is " + BitUtils.getHexValue(rssi) + ", lqi is " + BitUtils.getHexValue(lqi) + ", data is " + BitUtils.getHexValue(data, 0, Math.min(getLength(), data.length));
     }
 
     /**
@@ -31,5 +69,48 @@ public class CC1101Packet {
         return length & 0xFF;
     }
 
+    /**
+     * Returns the signal strength of the packet in dBm, using the typical {@link #RSSI_OFFSET}
+     *
+     * @return the RSSI in dBm
+     */
+    public float getRssiDbm() {
+        return rssiToDbm(rssi, RSSI_OFFSET);
+    }
+
+    /**
+     * Converts a raw RSSI value, a two's complement number of half dB, to dBm
+     *
+     * @param rssi the raw value of the RSSI register or of the appended status byte
+     * @param offset the RSSI offset of the configuration, in dB
+     * @return the RSSI in dBm
+     */
+    public static float rssiToDbm(byte rssi, int offset) {
+        return rssi / 2f - offset;
+    }
 
+    /**
+     * Returns this packet to the CC1101PacketPool it was taken from. The packet must not be used
+     * anymore after this call, and must be recycled only once. Does nothing if the packet does
+     * not belong to a pool.
+     *
+     * @throws IllegalStateException if the packet is already back in its pool
+     */
+    public void recycle() {
+        if (mPool != null) {
+            mPool.release(this);
+        }
+    }
+
+    boolean isPooled() {
+        return mPool != null;
+    }
+
+    void clear() {
+        length = 0;
+        crcOk = false;
+        rssi = 0;
+        lqi = 0;
+        receivedNanos = 0;
+    }
 }
@@ -0,0 +1,88 @@
+package eu.quartum.cc1101_driver;
+
+/**
+ * A pool of recyclable CC1101Packet instances, each one owning a data buffer large enough for
+ * the whole RX FIFO.
+ *
+ * When a pool is set on a CC1101Manager with {@link CC1101Manager#setPacketPool(CC1101PacketPool)},
+ * received packets are taken from the pool instead of being allocated, and the PacketListener
+ * must call {@link CC1101Packet#recycle()} once it is done with a packet.
+ * If the pool is empty, a new packet is allocated and will join the pool when recycled, as long
+ * as the pool is not full.
+ */
+public class CC1101PacketPool {
+    public final static int PACKET_CAPACITY = 64;
+
+    private final CC1101Packet[] mPackets;
+    private int mCount;
+    private long mMissCount;
+
+    /**
+     * Builds a pool and fills it with capacity packets
+     *
+     * @param capacity the maximum number of packets kept in the pool
+     */
+    public CC1101PacketPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The pool capacity must be positive");
+        }
+        mPackets = new CC1101Packet[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mPackets[i] = new CC1101Packet(this, PACKET_CAPACITY);
+            mPackets[i].mInPool = true;
+        }
+        mCount = capacity;
+    }
+
+    /**
+     * Returns a cleared packet from the pool, or a new one if the pool is empty
+     *
+     * @return a packet with a data buffer of {@link #PACKET_CAPACITY} bytes
+     */
+    public CC1101Packet acquire() {
+        CC1101Packet packet = null;
+        synchronized (this) {
+            if (mCount > 0) {
+                mCount--;
+                packet = mPackets[mCount];
+                mPackets[mCount] = null;
+                packet.mInPool = false;
+            } else {
+                mMissCount++;
+            }
+        }
+        if (packet == null) {
+            packet = new CC1101Packet(this, PACKET_CAPACITY);
+        }
+        packet.clear();
+        return packet;
+    }
+
+    void release(CC1101Packet packet) {
+        synchronized (this) {
+            // A second recycle would hand the same buffer to two receivers
+            if (packet.mInPool) {
+                throw new IllegalStateException("The packet was already recycled");
+            }
+            if (mCount < mPackets.length) {
+                mPackets[mCount] = packet;
+                mCount++;
+                packet.mInPool = true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of packets currently available in the pool
+     */
+    public synchronized int getAvailableCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the number of times a packet had to be allocated because the pool was empty
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,175 @@
+package eu.quartum.cc1101_driver;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.quartum.cc1101_driver.capture.PacketCapture;
+import eu.quartum.cc1101_driver.link.LinkQualityMonitor;
+import eu.quartum.cc1101_driver.transport.CC1101Transport;
+
+/**
+ * Drives several CC1101 chips, possibly spread over several SPI buses.
+ *
+ * Each radio is a CC1101Manager with its own radio thread, so the radios drain their RX FIFO
+ * concurrently. The managers of a bus share a fair SPI lock : their transactions never
+ * interleave, and a radio waiting for the bus gets it before a radio which just released it.
+ * Radios on different buses never wait for each other.
+ *
+ * The packets of all the radios are merged into a single stream, delivered to one
+ * {@link PacketListener} with the id of the radio which received them, on a single dispatch
+ * thread. Received packets can be taken from a CC1101PacketPool shared by all the radios.
+ */
+public class CC1101RadioGroup {
+    private final static String TAG = CC1101RadioGroup.class.getSimpleName();
+
+    private final List<CC1101Manager> mRadios = new ArrayList<>();
+    private final Map<String, ReentrantLock> mBusLocks = new HashMap<>();
+    private final ExecutorService mDispatchExecutor;
+    private volatile PacketListener mListener;
+    private CC1101PacketPool mPacketPool;
+    private PacketCapture mCapture;
+    private LinkQualityMonitor mLinkQualityMonitor;
+
+    public CC1101RadioGroup() {
+        mDispatchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG + "-dispatch");
+            }
+        });
+    }
+
+    /**
+     * Adds a radio to the group. Must be called before {@link #setup()}.
+     *
+     * @param busName the name of the SPI bus of the chip : radios with the same bus name share
+     *                their SPI lock
+     * @param transport the SPI and GPIO link to the chip
+     * @param registerValues the register settings used to configure the chip
+     * @return the id of the radio, passed to the PacketListener with its packets
+     */
+    public synchronized int addRadio(String busName, CC1101Transport transport, CC1101Config registerValues) {
+        ReentrantLock busLock = mBusLocks.get(busName);
+        if (busLock == null) {
+            busLock = new ReentrantLock(true);
+            mBusLocks.put(busName, busLock);
+        }
+        final int radioId = mRadios.size();
+        CC1101Manager radio = new CC1101Manager(transport, registerValues, busLock);
+        radio.setDispatchExecutor(mDispatchExecutor);
+        radio.setPacketPool(mPacketPool);
+        radio.setPacketCapture(mCapture);
+        radio.setLinkQualityMonitor(mLinkQualityMonitor);
+        radio.setPacketListener(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                PacketListener listener = mListener;
+                if (listener != null) {
+                    listener.onNewPacket(radioId, packet);
+                } else {
+                    packet.recycle();
+                }
+            }
+        });
+        mRadios.add(radio);
+        return radioId;
+    }
+
+    /**
+     * Returns the manager of a radio, to configure it or send packets
+     *
+     * @param radioId the id returned by {@link #addRadio(String, CC1101Transport, CC1101Config)}
+     * @return the manager of the radio
+     */
+    public synchronized CC1101Manager getRadio(int radioId) {
+        return mRadios.get(radioId);
+    }
+
+    /**
+     * @return the number of radios in the group
+     */
+    public synchronized int getRadioCount() {
+        return mRadios.size();
+    }
+
+    /**
+     * Defines the listener receiving the packets of all the radios. It is called on a single
+     * thread, so it does not need to be thread safe.
+     *
+     * @param listener the listener, or null to drop the received packets
+     */
+    public void setPacketListener(@Nullable PacketListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Takes the packets received by all the radios from the given pool, see
+     * {@link CC1101Manager#setPacketPool(CC1101PacketPool)}
+     *
+     * @param pool the shared pool, or null to allocate each packet
+     */
+    public synchronized void setPacketPool(@Nullable CC1101PacketPool pool) {
+        mPacketPool = pool;
+        for (CC1101Manager radio : mRadios) {
+            radio.setPacketPool(pool);
+        }
+    }
+
+    /**
+     * Records the packets of all the radios to the same capture, see
+     * {@link CC1101Manager#setPacketCapture(PacketCapture)}
+     *
+     * @param capture the shared capture, or null to stop recording
+     */
+    public synchronized void setPacketCapture(@Nullable PacketCapture capture) {
+        mCapture = capture;
+        for (CC1101Manager radio : mRadios) {
+            radio.setPacketCapture(capture);
+        }
+    }
+
+    /**
+     * Counts the packets of all the radios in the same link quality statistics, see
+     * {@link CC1101Manager#setLinkQualityMonitor(LinkQualityMonitor)}
+     *
+     * @param monitor the shared monitor, or null to stop updating it
+     */
+    public synchronized void setLinkQualityMonitor(@Nullable LinkQualityMonitor monitor) {
+        mLinkQualityMonitor = monitor;
+        for (CC1101Manager radio : mRadios) {
+            radio.setLinkQualityMonitor(monitor);
+        }
+    }
+
+    /**
+     * Initializes all the radios and puts them in RX state
+     */
+    public synchronized void setup() {
+        for (CC1101Manager radio : mRadios) {
+            radio.setup();
+            radio.setRxState();
+        }
+    }
+
+    /**
+     * Closes all the radios and stops the dispatch thread
+     */
+    public synchronized void close() {
+        for (CC1101Manager radio : mRadios) {
+            radio.close();
+        }
+        mDispatchExecutor.shutdown();
+    }
+
+    public interface PacketListener {
+        void onNewPacket(int radioId, CC1101Packet packet);
+    }
+}
@@ -0,0 +1,51 @@
+package eu.quartum.cc1101_driver;
+
+/**
+ * Decodes the chip status byte, returned by the CC1101 on MISO while it receives the header byte
+ * of each SPI transaction : the CHIP_RDYn bit, the main state machine mode and the number of bytes
+ * available in the RX FIFO (read accesses) or free in the TX FIFO (write accesses).
+ */
+public class CC1101Status {
+    /**
+     * Values of the STATE field of the status byte
+     */
+    public final static int STATE_IDLE = 0;
+    public final static int STATE_RX = 1;
+    public final static int STATE_TX = 2;
+    public final static int STATE_FSTXON = 3;
+    public final static int STATE_CALIBRATE = 4;
+    public final static int STATE_SETTLING = 5;
+    public final static int STATE_RXFIFO_OVERFLOW = 6;
+    public final static int STATE_TXFIFO_UNDERFLOW = 7;
+
+    private final static String[] STATE_NAMES = new String[] {
+            "IDLE", "RX", "TX", "FSTXON", "CALIBRATE", "SETTLING", "RXFIFO_OVERFLOW", "TXFIFO_UNDERFLOW"
+    };
+
+    /**
+     * Returns whether the crystal is running and the chip is ready (CHIP_RDYn low)
+     */
+    public static boolean isChipReady(byte status) {
+        return (status & 0x80) == 0;
+    }
+
+    /**
+     * Returns the main state machine mode, one of the STATE_ constants
+     */
+    public static int getState(byte status) {
+        return (status >> 4) & 0x07;
+    }
+
+    /**
+     * Returns the number of bytes available in the RX FIFO after a read access, or free in the TX
+     * FIFO after a write access. The field saturates at 15.
+     */
+    public static int getFifoBytes(byte status) {
+        return status & 0x0F;
+    }
+
+    public static String toString(byte status) {
+        return "Status " + (isChipReady(status) ? "" : "not ready, ") + STATE_NAMES[getState(status)]
+                + ", " + getFifoBytes(status) + " FIFO bytes";
+    }
+}
@@ -0,0 +1,86 @@
+package eu.quartum.cc1101_driver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the outcome of each RX FIFO read and times the packet delivery, for
+ * {@link CC1101Manager#getMetrics()}. Updated by the radio and dispatch threads without any lock.
+ */
+class MetricsRecorder {
+    final LongAdder packetsReceived = new LongAdder();
+    final LongAdder crcFailures = new LongAdder();
+    final LongAdder fifoOverflows = new LongAdder();
+    final LongAdder oversizedPackets = new LongAdder();
+    final LongAdder emptyReads = new LongAdder();
+    final LongAdder spiErrors = new LongAdder();
+    final LongAdder hardwareRejections = new LongAdder();
+    final LongAdder filterRejections = new LongAdder();
+    final Histogram interruptLatency = new Histogram();
+    final Histogram listenerTime = new Histogram();
+
+    /**
+     * Counts a packet returned by an RX FIFO read, according to its length : -1 for an overflow,
+     * -2 for a packet larger than the FIFO. Drains which found no packet are counted in emptyReads.
+     */
+    void countPacket(CC1101Packet packet) {
+        switch (packet.length) {
+            case -1:
+                fifoOverflows.increment();
+                break;
+            case -2:
+                oversizedPackets.increment();
+                break;
+            default:
+                countPacket(packet.crcOk);
+                break;
+        }
+    }
+
+    void countPacket(boolean crcOk) {
+        packetsReceived.increment();
+        if (!crcOk) {
+            crcFailures.increment();
+        }
+    }
+
+    /**
+     * Records the time from the GDO0 edge which signaled the packet to its delivery
+     */
+    void recordLatency(CC1101Packet packet, long nowNanos) {
+        if (packet.receivedNanos != 0) {
+            interruptLatency.record(nowNanos - packet.receivedNanos);
+        }
+    }
+
+    /**
+     * A histogram of durations in nanoseconds, with one bucket per power of 2 : bucket i counts
+     * the durations from 2^(i-1) to 2^i - 1
+     */
+    static class Histogram {
+        private final AtomicLongArray mBuckets = new AtomicLongArray(CC1101Metrics.Histogram.BUCKETS);
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            mBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            mSum.addAndGet(nanos);
+            long max = mMax.get();
+            while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+                max = mMax.get();
+            }
+        }
+
+        CC1101Metrics.Histogram snapshot() {
+            long[] buckets = new long[mBuckets.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            return new CC1101Metrics.Histogram(buckets, mSum.get(), mMax.get());
+        }
+    }
+}
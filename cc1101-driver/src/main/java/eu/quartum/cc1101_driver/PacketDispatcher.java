@@ -0,0 +1,192 @@
+package eu.quartum.cc1101_driver;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import eu.quartum.cc1101_driver.trace.TraceEvent;
+
+/**
+ * Hands the packets read by the radio thread over to the PacketListener, on a dispatch executor.
+ * Packets go through a bounded PacketQueue, so a slow listener never delays the RX FIFO drain :
+ * when the queue is full, the BackpressurePolicy decides which packet is lost, or makes the
+ * radio thread wait.
+ *
+ * The radio thread submits all the packets drained on an interrupt, then calls dispatch() once, so
+ * that a BatchPacketListener receives them together.
+ */
+class PacketDispatcher {
+    private final static String TAG = PacketDispatcher.class.getSimpleName();
+    private final static long BLOCK_PARK_NANOS = 100000;
+
+    private final PacketQueue mQueue;
+    private final CC1101Manager.BackpressurePolicy mPolicy;
+    private final Executor mExecutor;
+    private final MetricsRecorder mMetrics;
+    private final Tracer mTracer;
+    private volatile CC1101Manager.PacketListener mListener;
+    private volatile CC1101Manager.BatchPacketListener mBatchListener;
+    private final List<CC1101Packet> mBatch = new ArrayList<>();
+    private volatile boolean mRunning = true;
+
+    private final AtomicBoolean mDispatchScheduled = new AtomicBoolean();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            CC1101Manager.BatchPacketListener batchListener = mBatchListener;
+            CC1101Packet packet;
+            try {
+                if (batchListener != null) {
+                    while ((packet = mQueue.poll()) != null) {
+                        mBatch.add(packet);
+                    }
+                    deliver(batchListener);
+                } else {
+                    while ((packet = mQueue.poll()) != null) {
+                        deliver(packet);
+                    }
+                }
+            } finally {
+                // Left set, the flag would stop every later dispatch
+                mDispatchScheduled.set(false);
+            }
+            if (!mQueue.isEmpty()) {
+                scheduleDispatch();
+            }
+        }
+    };
+
+    PacketDispatcher(int capacity, CC1101Manager.BackpressurePolicy policy, Executor executor, MetricsRecorder metrics, Tracer tracer) {
+        mQueue = new PacketQueue(capacity);
+        mPolicy = policy;
+        mExecutor = executor;
+        mMetrics = metrics;
+        mTracer = tracer;
+    }
+
+    void setListener(CC1101Manager.PacketListener listener) {
+        mListener = listener;
+    }
+
+    void setBatchListener(CC1101Manager.BatchPacketListener listener) {
+        mBatchListener = listener;
+    }
+
+    /**
+     * Queues a packet. The packet is delivered after the next call to {@link #dispatch()}, or
+     * earlier if the queue is full. Must only be called from the radio thread.
+     *
+     * @return false if the packet was dropped
+     */
+    boolean submit(CC1101Packet packet) {
+        boolean queued = mQueue.offer(packet);
+        if (!queued) {
+            switch (mPolicy) {
+                case DROP_NEWEST:
+                    drop(packet);
+                    break;
+                case DROP_OLDEST:
+                    while (!queued) {
+                        CC1101Packet oldest = mQueue.poll();
+                        if (oldest != null) {
+                            drop(oldest);
+                        }
+                        queued = mQueue.offer(packet);
+                    }
+                    break;
+                case BLOCK:
+                    while (!queued && mRunning) {
+                        scheduleDispatch();
+                        LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                        queued = mQueue.offer(packet);
+                    }
+                    if (!queued) {
+                        drop(packet);
+                    }
+                    break;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Delivers the queued packets to the listener on the dispatch executor
+     */
+    void dispatch() {
+        if (!mQueue.isEmpty()) {
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * @return the number of packets dropped because the queue was full
+     */
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    void shutdown() {
+        mRunning = false;
+    }
+
+    private void drop(CC1101Packet packet) {
+        mDroppedCount.incrementAndGet();
+        packet.recycle();
+    }
+
+    private void scheduleDispatch() {
+        if (mDispatchScheduled.compareAndSet(false, true)) {
+            try {
+                mExecutor.execute(mDispatchRunnable);
+            } catch (RejectedExecutionException ree) {
+                mDispatchScheduled.set(false);
+                if (BuildConfig.DEBUG) Log.e(TAG, "The dispatch executor rejected the packets");
+            }
+        }
+    }
+
+    private void deliver(CC1101Manager.BatchPacketListener listener) {
+        if (mBatch.isEmpty()) {
+            return;
+        }
+        mTracer.trace(TraceEvent.PACKETS_DISPATCHED, mBatch.size(), 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < mBatch.size(); i++) {
+            mMetrics.recordLatency(mBatch.get(i), start);
+        }
+        try {
+            listener.onNewPackets(mBatch);
+        } catch (RuntimeException re) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "The batch packet listener failed", re);
+        } finally {
+            mMetrics.listenerTime.record(System.nanoTime() - start);
+            mBatch.clear();
+        }
+    }
+
+    private void deliver(CC1101Packet packet) {
+        CC1101Manager.PacketListener listener = mListener;
+        mTracer.trace(TraceEvent.PACKETS_DISPATCHED, 1, 0);
+        if (listener != null) {
+            long start = System.nanoTime();
+            mMetrics.recordLatency(packet, start);
+            try {
+                listener.onNewPacket(packet);
+            } catch (RuntimeException re) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "The packet listener failed", re);
+            } finally {
+                mMetrics.listenerTime.record(System.nanoTime() - start);
+            }
+        } else {
+            packet.recycle();
+        }
+    }
+}
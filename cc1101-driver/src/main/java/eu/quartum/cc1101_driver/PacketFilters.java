@@ -0,0 +1,65 @@
+package eu.quartum.cc1101_driver;
+
+/**
+ * Common host-side filters for {@link CC1101Manager#addPacketFilter(CC1101Manager.PacketFilter)}.
+ * When possible, prefer the chip filtering of CC1101Config, which drops the packets before they
+ * cost an SPI read : CRC autoflush, address check and sync word qualification.
+ */
+public class PacketFilters {
+    /**
+     * Drops the packets with an invalid CRC, for the configurations where the CRC autoflush can't
+     * be used, such as several packets in the RX FIFO
+     */
+    public final static CC1101Manager.PacketFilter CRC_OK = new CC1101Manager.PacketFilter() {
+        @Override
+        public boolean accept(CC1101Packet packet) {
+            return packet.crcOk;
+        }
+    };
+
+    private PacketFilters() {
+    }
+
+    /**
+     * Returns a filter keeping the packets whose first payload byte is one of the given addresses,
+     * when the chip address check, limited to one address and the broadcast addresses, is not
+     * enough
+     *
+     * @param addresses the accepted addresses, from 0 to 255
+     * @return the filter
+     */
+    public static CC1101Manager.PacketFilter addresses(int... addresses) {
+        final boolean[] accepted = new boolean[256];
+        for (int address : addresses) {
+            if (address < 0 || address > 0xFF) {
+                throw new IllegalArgumentException("Invalid address " + address);
+            }
+            accepted[address] = true;
+        }
+        return new CC1101Manager.PacketFilter() {
+            @Override
+            public boolean accept(CC1101Packet packet) {
+                return packet.getLength() > 0 && accepted[packet.data[0] & 0xFF];
+            }
+        };
+    }
+
+    /**
+     * Returns a filter keeping the packets received with a link quality indicator at most
+     * maxLqi : the LQI grows as the demodulation gets harder
+     *
+     * @param maxLqi the highest accepted LQI, from 0 to 127
+     * @return the filter
+     */
+    public static CC1101Manager.PacketFilter maxLinkQualityIndicator(final int maxLqi) {
+        if (maxLqi < 0 || maxLqi > 0x7F) {
+            throw new IllegalArgumentException("Invalid LQI " + maxLqi);
+        }
+        return new CC1101Manager.PacketFilter() {
+            @Override
+            public boolean accept(CC1101Packet packet) {
+                return (packet.lqi & 0x7F) <= maxLqi;
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package eu.quartum.cc1101_driver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue of packets, filled by the radio thread and emptied by the dispatch
+ * executor. offer() must only be called by a single producer thread, poll() can be called from
+ * any thread, including the producer when it drops the oldest packet.
+ */
+class PacketQueue {
+    private final AtomicReferenceArray<CC1101Packet> mSlots;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * @param capacity the minimum number of packets the queue can hold, rounded up to a power of 2
+     */
+    PacketQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The queue capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+    }
+
+    /**
+     * Adds a packet at the end of the queue. Must only be called by the producer thread.
+     *
+     * @return false if the queue is full
+     */
+    boolean offer(CC1101Packet packet) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            return false;
+        }
+        mSlots.set((int) tail & mMask, packet);
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Removes the packet at the head of the queue
+     *
+     * @return the oldest packet of the queue, or null if the queue is empty
+     */
+    CC1101Packet poll() {
+        while (true) {
+            long head = mHead.get();
+            if (head >= mTail.get()) {
+                return null;
+            }
+            int index = (int) head & mMask;
+            CC1101Packet packet = mSlots.get(index);
+            if (mHead.compareAndSet(head, head + 1)) {
+                mSlots.compareAndSet(index, packet, null);
+                return packet;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+}
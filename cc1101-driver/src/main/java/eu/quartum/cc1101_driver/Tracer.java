@@ -0,0 +1,35 @@
+package eu.quartum.cc1101_driver;
+
+import eu.quartum.cc1101_driver.trace.TraceEvent;
+import eu.quartum.cc1101_driver.trace.TraceLevel;
+import eu.quartum.cc1101_driver.trace.TraceSink;
+
+/**
+ * Forwards the events of a CC1101Manager to its TraceSink, if their level is enabled. A disabled
+ * event costs a volatile read.
+ */
+class Tracer {
+    private volatile TraceSink mSink;
+    private volatile int mLevel = -1;
+
+    void setSink(TraceSink sink, TraceLevel level) {
+        mLevel = -1;
+        mSink = sink;
+        if (sink != null) {
+            mLevel = level.ordinal();
+        }
+    }
+
+    boolean isEnabled(TraceLevel level) {
+        return level.ordinal() <= mLevel;
+    }
+
+    void trace(TraceEvent event, int arg0, int arg1) {
+        if (event.level.ordinal() <= mLevel) {
+            TraceSink sink = mSink;
+            if (sink != null) {
+                sink.trace(event, arg0, arg1);
+            }
+        }
+    }
+}
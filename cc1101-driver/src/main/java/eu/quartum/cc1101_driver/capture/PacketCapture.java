@@ -0,0 +1,190 @@
+package eu.quartum.cc1101_driver.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+
+/**
+ * Records the received packets to a fixed-size ring file, memory-mapped so that recording a
+ * packet is a copy to memory : it takes no system call, and the kernel writes the pages back to
+ * the file in the background. Once the file is full, the oldest packets are overwritten.
+ * Set it on a manager with {@link eu.quartum.cc1101_driver.CC1101Manager#setPacketCapture(PacketCapture)},
+ * and read the file back with a {@link PacketReplayer}. The manager records the packets read
+ * from the RX FIFO, not the packets of the streaming mode.
+ *
+ * The file starts with a {@value #HEADER_SIZE} bytes header, followed by the ring of records.
+ * Each record holds a flags byte (bit 0 : CRC ok), the raw length byte, the RSSI and LQI bytes,
+ * the System.nanoTime() of the packet on 8 bytes and the payload. Records never wrap around the
+ * end of the ring : a {@link #WRAP_MARKER} flags byte sends the reader back to its start.
+ * All values are little-endian.
+ */
+public class PacketCapture implements Closeable {
+    final static int MAGIC = 0x50414343;   // "CCAP"
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 64;
+    final static int RECORD_HEADER_SIZE = 12;
+    final static int FLAG_CRC_OK = 0x01;
+    final static int WRAP_MARKER = 0xFF;
+    final static int MIN_CAPACITY = 256;
+
+    final static int OFFSET_MAGIC = 0;
+    final static int OFFSET_VERSION = 4;
+    final static int OFFSET_CAPACITY = 8;
+    final static int OFFSET_HEAD = 12;
+    final static int OFFSET_TAIL = 16;
+    final static int OFFSET_COUNT = 20;
+    final static int OFFSET_TOTAL = 24;
+    final static int OFFSET_START_MILLIS = 32;
+    final static int OFFSET_START_NANOS = 40;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    /**
+     * Offset of the next record, of the oldest record, number of records in the ring and number
+     * of records written since the capture started. Guarded by this.
+     */
+    private int mHead;
+    private int mTail;
+    private int mCount;
+    private long mTotal;
+
+    /**
+     * Creates or truncates a capture file
+     *
+     * @param file the capture file
+     * @param capacity the size of the ring, at least 256 bytes : a packet of n bytes takes
+     *                 12 + n bytes
+     * @throws IOException if the file can't be created or mapped
+     */
+    public PacketCapture(File file, int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY) {
+            throw new IllegalArgumentException("The capacity must be at least " + MIN_CAPACITY + " bytes");
+        }
+        mCapacity = capacity;
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mFile.setLength(0);
+            mFile.setLength(HEADER_SIZE + (long) capacity);
+            mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+        } catch (IOException ioe) {
+            mFile.close();
+            throw ioe;
+        }
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+        mBuffer.putInt(OFFSET_VERSION, VERSION);
+        mBuffer.putInt(OFFSET_CAPACITY, capacity);
+        mBuffer.putLong(OFFSET_START_MILLIS, System.currentTimeMillis());
+        mBuffer.putLong(OFFSET_START_NANOS, System.nanoTime());
+        writeHeader();
+    }
+
+    /**
+     * Appends a packet to the ring, overwriting the oldest packets if needed. Packets with a
+     * negative length (FIFO errors) are recorded without payload.
+     *
+     * @param packet the received packet
+     */
+    public synchronized void record(CC1101Packet packet) {
+        int length = packet.length > 0 ? Math.min(packet.getLength(), packet.data.length) : 0;
+        int size = RECORD_HEADER_SIZE + length;
+        makeRoom(size);
+        if (mCount == 0) {
+            mTail = mHead;
+        }
+        int position = HEADER_SIZE + mHead;
+        mBuffer.put(position, (byte) (packet.crcOk ? FLAG_CRC_OK : 0));
+        mBuffer.put(position + 1, packet.length);
+        mBuffer.put(position + 2, packet.rssi);
+        mBuffer.put(position + 3, packet.lqi);
+        mBuffer.putLong(position + 4, packet.receivedNanos != 0 ? packet.receivedNanos : System.nanoTime());
+        mBuffer.position(position + RECORD_HEADER_SIZE);
+        mBuffer.put(packet.data, 0, length);
+        mHead += size;
+        mCount++;
+        mTotal++;
+        writeHeader();
+    }
+
+    /**
+     * Frees size contiguous bytes at the head of the ring, evicting the oldest records
+     */
+    private void makeRoom(int size) {
+        while (true) {
+            if (mHead + size <= mCapacity) {
+                // The live records span from the tail to the head, wrapping if the tail is ahead
+                if (mCount == 0 || mTail < mHead || mHead + size <= mTail) {
+                    return;
+                }
+                evict();
+            } else if (mCount == 0 || mTail < mHead) {
+                if (mHead < mCapacity) {
+                    mBuffer.put(HEADER_SIZE + mHead, (byte) WRAP_MARKER);
+                }
+                mHead = 0;
+            } else {
+                evict();
+            }
+        }
+    }
+
+    private void evict() {
+        if (mTail >= mCapacity || (mBuffer.get(HEADER_SIZE + mTail) & 0xFF) == WRAP_MARKER) {
+            mTail = 0;
+            return;
+        }
+        mTail += recordSize(mBuffer, HEADER_SIZE + mTail);
+        mCount--;
+    }
+
+    static int recordSize(MappedByteBuffer buffer, int position) {
+        byte length = buffer.get(position + 1);
+        return RECORD_HEADER_SIZE + (length > 0 ? length & 0xFF : 0);
+    }
+
+    private void writeHeader() {
+        mBuffer.putInt(OFFSET_TAIL, mTail);
+        mBuffer.putInt(OFFSET_COUNT, mCount);
+        mBuffer.putLong(OFFSET_TOTAL, mTotal);
+        mBuffer.putInt(OFFSET_HEAD, mHead);
+    }
+
+    /**
+     * @return the number of packets in the ring
+     */
+    public synchronized int getPacketCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the number of packets recorded since the capture started, including the
+     * overwritten ones
+     */
+    public synchronized long getRecordedCount() {
+        return mTotal;
+    }
+
+    /**
+     * Writes the recorded packets to the storage device. Not needed to read the file from
+     * another process, only to survive a power loss.
+     */
+    public synchronized void flush() {
+        mBuffer.force();
+    }
+
+    /**
+     * Flushes and closes the file. The capture must be removed from the manager first.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mBuffer.force();
+        mFile.close();
+    }
+}
@@ -0,0 +1,180 @@
+package eu.quartum.cc1101_driver.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import eu.quartum.cc1101_driver.CC1101Manager;
+import eu.quartum.cc1101_driver.CC1101Packet;
+import eu.quartum.cc1101_driver.transport.SimulatedCC1101Transport;
+
+/**
+ * Reads a file recorded by a {@link PacketCapture} and plays its packets back, from the oldest
+ * to the newest, keeping the delays between them or accelerating them by a speed factor.
+ *
+ * Packets are either handed to a PacketListener on the calling thread, or injected into a
+ * SimulatedCC1101Transport : a CC1101Manager driving it then reads them from the simulated
+ * FIFOs and delivers them through its whole receive path, so that the listeners can be load
+ * tested without any radio.
+ */
+public class PacketReplayer {
+    /**
+     * Plays the packets back without waiting between them
+     */
+    public final static double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private final MappedByteBuffer mBuffer;
+    private final int[] mOffsets;
+    private final long mStartMillis;
+    private final long mStartNanos;
+
+    /**
+     * Opens a capture file and indexes its packets
+     *
+     * @param file a file written by a PacketCapture
+     * @throws IOException if the file can't be read or is not a valid capture
+     */
+    public PacketReplayer(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            mBuffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } finally {
+            input.close();
+        }
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (mBuffer.capacity() < PacketCapture.HEADER_SIZE
+                || mBuffer.getInt(PacketCapture.OFFSET_MAGIC) != PacketCapture.MAGIC
+                || mBuffer.getInt(PacketCapture.OFFSET_VERSION) != PacketCapture.VERSION) {
+            throw new IOException("Not a packet capture : " + file);
+        }
+        int capacity = mBuffer.getInt(PacketCapture.OFFSET_CAPACITY);
+        int count = mBuffer.getInt(PacketCapture.OFFSET_COUNT);
+        if (capacity < PacketCapture.MIN_CAPACITY || PacketCapture.HEADER_SIZE + (long) capacity > mBuffer.capacity()
+                || count < 0 || count > capacity / PacketCapture.RECORD_HEADER_SIZE) {
+            throw new IOException("Corrupted packet capture : " + file);
+        }
+        mStartMillis = mBuffer.getLong(PacketCapture.OFFSET_START_MILLIS);
+        mStartNanos = mBuffer.getLong(PacketCapture.OFFSET_START_NANOS);
+
+        mOffsets = new int[count];
+        int offset = mBuffer.getInt(PacketCapture.OFFSET_TAIL);
+        for (int i = 0; i < count; i++) {
+            if (offset >= capacity || (mBuffer.get(PacketCapture.HEADER_SIZE + offset) & 0xFF) == PacketCapture.WRAP_MARKER) {
+                offset = 0;
+            }
+            int position = PacketCapture.HEADER_SIZE + offset;
+            int size = PacketCapture.recordSize(mBuffer, position);
+            if (offset + size > capacity) {
+                throw new IOException("Corrupted packet capture : " + file);
+            }
+            mOffsets[i] = position;
+            offset += size;
+        }
+    }
+
+    /**
+     * @return the number of packets in the capture
+     */
+    public int getPacketCount() {
+        return mOffsets.length;
+    }
+
+    /**
+     * Returns a recorded packet. Its receivedNanos field holds the System.nanoTime() it was
+     * received at, on the capturing device.
+     *
+     * @param index the index of the packet, 0 for the oldest
+     * @return a new packet
+     */
+    public CC1101Packet getPacket(int index) {
+        int position = mOffsets[index];
+        CC1101Packet packet = new CC1101Packet();
+        packet.crcOk = (mBuffer.get(position) & PacketCapture.FLAG_CRC_OK) != 0;
+        packet.length = mBuffer.get(position + 1);
+        packet.rssi = mBuffer.get(position + 2);
+        packet.lqi = mBuffer.get(position + 3);
+        packet.receivedNanos = mBuffer.getLong(position + 4);
+        if (packet.length > 0) {
+            packet.data = new byte[packet.length];
+            for (int i = 0; i < packet.data.length; i++) {
+                packet.data[i] = mBuffer.get(position + PacketCapture.RECORD_HEADER_SIZE + i);
+            }
+        }
+        return packet;
+    }
+
+    /**
+     * @param index the index of the packet, 0 for the oldest
+     * @return the wall clock time the packet was received at, in milliseconds since the epoch
+     */
+    public long getTimestampMillis(int index) {
+        return mStartMillis + (mBuffer.getLong(mOffsets[index] + 4) - mStartNanos) / 1000000;
+    }
+
+    /**
+     * Calls the listener with each packet of the capture, on the calling thread
+     *
+     * @param listener the listener receiving the packets
+     * @param speed the replay speed : 1 keeps the recorded delays, 2 halves them, and
+     *              {@link #MAX_SPEED} does not wait
+     * @return the number of packets played back
+     * @throws InterruptedException if the thread is interrupted while waiting for a packet
+     */
+    public int replay(CC1101Manager.PacketListener listener, double speed) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < mOffsets.length; i++) {
+            waitForPacket(i, start, speed);
+            listener.onNewPacket(getPacket(i));
+        }
+        return mOffsets.length;
+    }
+
+    /**
+     * Injects each packet of the capture into a simulated chip, see
+     * {@link SimulatedCC1101Transport#injectPacket(byte[], byte, byte, boolean)}. FIFO errors are
+     * not replayed.
+     *
+     * @param transport the simulated chip, in RX state
+     * @param speed the replay speed : 1 keeps the recorded delays, 2 halves them, and
+     *              {@link #MAX_SPEED} does not wait
+     * @return the number of packets the simulated chip received
+     * @throws InterruptedException if the thread is interrupted while waiting for a packet
+     */
+    public int replay(SimulatedCC1101Transport transport, double speed) throws InterruptedException {
+        long start = System.nanoTime();
+        int received = 0;
+        for (int i = 0; i < mOffsets.length; i++) {
+            CC1101Packet packet = getPacket(i);
+            if (packet.length <= 0) {
+                continue;
+            }
+            waitForPacket(i, start, speed);
+            if (transport.injectPacket(packet.data, packet.rssi, packet.lqi, packet.crcOk)) {
+                received++;
+            }
+        }
+        return received;
+    }
+
+    private void waitForPacket(int index, long start, double speed) throws InterruptedException {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("The replay speed must be positive");
+        }
+        if (speed == MAX_SPEED) {
+            return;
+        }
+        long delay = (long) ((mBuffer.getLong(mOffsets[index] + 4) - mBuffer.getLong(mOffsets[0] + 4)) / speed);
+        long deadline = start + delay;
+        long now;
+        while ((now = System.nanoTime()) - deadline < 0) {
+            LockSupport.parkNanos(this, deadline - now);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
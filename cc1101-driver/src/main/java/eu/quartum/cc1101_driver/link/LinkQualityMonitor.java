@@ -0,0 +1,325 @@
+package eu.quartum.cc1101_driver.link;
+
+import java.util.Arrays;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+
+/**
+ * Keeps link quality statistics for each sender : exponentially weighted moving averages of the
+ * RSSI, the LQI and the CRC failures, the RSSI extremes and an RSSI histogram for percentiles.
+ * Set it on a manager with {@link eu.quartum.cc1101_driver.CC1101Manager#setLinkQualityMonitor(LinkQualityMonitor)},
+ * or call {@link #record(CC1101Packet)} with each packet.
+ *
+ * The statistics live in primitive arrays indexed by an open addressing table of sender ids, all
+ * allocated up front : recording a packet neither allocates nor boxes. Memory is bounded by the
+ * maximum number of senders. Once it is reached, a new sender replaces the least recently heard
+ * of a few senders sampled near its slot.
+ */
+public class LinkQualityMonitor {
+    /**
+     * Returned by a SenderId for packets which must not be counted
+     */
+    public final static int NO_SENDER = -1;
+
+    /**
+     * Histogram buckets of 8 raw RSSI steps (4 dB), covering the whole RSSI range
+     */
+    final static int RSSI_BUCKETS = 32;
+    private final static int RSSI_BUCKET_SHIFT = 3;
+    private final static int EVICTION_SAMPLES = 8;
+    /**
+     * Enough for thousands of nodes : the tables then take about 14 MB
+     */
+    private final static int MAX_SENDERS = 1 << 16;
+
+    private final SenderId mSenderId;
+    private final float mSmoothing;
+    private final int mMaxSenders;
+    private final int mMask;
+    private volatile int mRssiOffset = CC1101Packet.RSSI_OFFSET;
+
+    private final int[] mKeys;
+    private final boolean[] mUsed;
+    private final long[] mPackets;
+    private final long[] mCrcFailures;
+    private final long[] mLastSeenNanos;
+    private final float[] mRssi;
+    private final float[] mLqi;
+    private final float[] mCrcFailureRate;
+    private final byte[] mMinRssi;
+    private final byte[] mMaxRssi;
+    private final char[] mHistograms;
+    private int mSenderCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxSenders the maximum number of senders tracked, up to 65536
+     * @param smoothing the weight of a new packet in the moving averages, between 0 and 1
+     * @param senderId extracts the sender of a packet
+     */
+    public LinkQualityMonitor(int maxSenders, double smoothing, SenderId senderId) {
+        if (maxSenders <= 0 || maxSenders > MAX_SENDERS) {
+            throw new IllegalArgumentException("Invalid maximum number of senders " + maxSenders);
+        }
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("The smoothing factor must be between 0 and 1");
+        }
+        mSenderId = senderId;
+        mSmoothing = (float) smoothing;
+        mMaxSenders = maxSenders;
+        // Keeps the table at most half full, for short probe sequences
+        int size = Integer.highestOneBit(2 * maxSenders);
+        if (size < 2 * maxSenders) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mKeys = new int[size];
+        mUsed = new boolean[size];
+        mPackets = new long[size];
+        mCrcFailures = new long[size];
+        mLastSeenNanos = new long[size];
+        mRssi = new float[size];
+        mLqi = new float[size];
+        mCrcFailureRate = new float[size];
+        mMinRssi = new byte[size];
+        mMaxRssi = new byte[size];
+        mHistograms = new char[size * RSSI_BUCKETS];
+    }
+
+    /**
+     * Returns a SenderId reading the sender from a byte of the payload
+     *
+     * @param index the index of the sender byte in the payload
+     * @return the SenderId, which ignores the packets too short to hold the sender byte
+     */
+    public static SenderId payloadByte(final int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid sender index " + index);
+        }
+        return new SenderId() {
+            @Override
+            public int getSender(CC1101Packet packet) {
+                return packet.length > index ? packet.data[index] & 0xFF : NO_SENDER;
+            }
+        };
+    }
+
+    /**
+     * Sets the RSSI offset used to convert the RSSI to dBm, {@link CC1101Packet#RSSI_OFFSET} by
+     * default. The statistics are kept in raw units, so this also applies to the packets
+     * already recorded.
+     *
+     * @param offset the RSSI offset of the configuration, from the datasheet
+     */
+    public void setRssiOffset(int offset) {
+        mRssiOffset = offset;
+    }
+
+    /**
+     * Adds a packet to the statistics of its sender. FIFO errors and packets without sender are
+     * ignored. The sender of a packet with an invalid CRC may be corrupted : it is counted
+     * against the sender it names.
+     *
+     * @param packet the received packet
+     */
+    public void record(CC1101Packet packet) {
+        if (packet.length <= 0) {
+            return;
+        }
+        int sender = mSenderId.getSender(packet);
+        if (sender == NO_SENDER) {
+            return;
+        }
+        long now = packet.receivedNanos != 0 ? packet.receivedNanos : System.nanoTime();
+        synchronized (this) {
+            int slot = findSlot(sender);
+            if (!mUsed[slot]) {
+                if (mSenderCount == mMaxSenders) {
+                    evictNear(slot);
+                    slot = findSlot(sender);
+                }
+                addSender(slot, sender, packet.rssi);
+            }
+            update(slot, packet, now);
+        }
+    }
+
+    private void update(int slot, CC1101Packet packet, long now) {
+        byte rssi = packet.rssi;
+        float failure = packet.crcOk ? 0 : 1;
+        if (mPackets[slot] == 0) {
+            mRssi[slot] = rssi;
+            mLqi[slot] = packet.lqi & 0x7F;
+            mCrcFailureRate[slot] = failure;
+        } else {
+            mRssi[slot] += mSmoothing * (rssi - mRssi[slot]);
+            mLqi[slot] += mSmoothing * ((packet.lqi & 0x7F) - mLqi[slot]);
+            mCrcFailureRate[slot] += mSmoothing * (failure - mCrcFailureRate[slot]);
+        }
+        mPackets[slot]++;
+        if (!packet.crcOk) {
+            mCrcFailures[slot]++;
+        }
+        mLastSeenNanos[slot] = now;
+        if (rssi < mMinRssi[slot]) {
+            mMinRssi[slot] = rssi;
+        }
+        if (rssi > mMaxRssi[slot]) {
+            mMaxRssi[slot] = rssi;
+        }
+        int histogram = slot * RSSI_BUCKETS;
+        int bucket = histogram + ((rssi + 128) >> RSSI_BUCKET_SHIFT);
+        if (mHistograms[bucket] == Character.MAX_VALUE) {
+            // Halving all the buckets keeps the distribution, and ages the old packets out
+            for (int i = histogram; i < histogram + RSSI_BUCKETS; i++) {
+                mHistograms[i] >>= 1;
+            }
+        }
+        mHistograms[bucket]++;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the slot of a sender, or the free slot ending its probe sequence
+     */
+    private int findSlot(int sender) {
+        int slot = hash(sender) & mMask;
+        while (mUsed[slot] && mKeys[slot] != sender) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    private void addSender(int slot, int sender, byte rssi) {
+        mUsed[slot] = true;
+        mKeys[slot] = sender;
+        mPackets[slot] = 0;
+        mCrcFailures[slot] = 0;
+        mMinRssi[slot] = rssi;
+        mMaxRssi[slot] = rssi;
+        Arrays.fill(mHistograms, slot * RSSI_BUCKETS, (slot + 1) * RSSI_BUCKETS, (char) 0);
+        mSenderCount++;
+    }
+
+    /**
+     * Removes the least recently heard of the first senders found from a slot
+     */
+    private void evictNear(int start) {
+        int oldest = -1;
+        int found = 0;
+        for (int i = 0, slot = start; i <= mMask && found < EVICTION_SAMPLES; i++, slot = (slot + 1) & mMask) {
+            if (mUsed[slot]) {
+                if (oldest < 0 || mLastSeenNanos[slot] - mLastSeenNanos[oldest] < 0) {
+                    oldest = slot;
+                }
+                found++;
+            }
+        }
+        remove(oldest);
+        mEvictionCount++;
+    }
+
+    /**
+     * Frees a slot, then moves back the following entries of its cluster which can't be found
+     * anymore, so that no probe sequence crosses a free slot
+     */
+    private void remove(int slot) {
+        mUsed[slot] = false;
+        mSenderCount--;
+        int free = slot;
+        for (int next = (slot + 1) & mMask; mUsed[next]; next = (next + 1) & mMask) {
+            int home = hash(mKeys[next]) & mMask;
+            // The entry stays if its home slot lies cyclically in (free, next]
+            boolean reachable = free <= next ? home > free && home <= next : home > free || home <= next;
+            if (!reachable) {
+                move(next, free);
+                free = next;
+            }
+        }
+    }
+
+    private void move(int from, int to) {
+        mUsed[to] = true;
+        mUsed[from] = false;
+        mKeys[to] = mKeys[from];
+        mPackets[to] = mPackets[from];
+        mCrcFailures[to] = mCrcFailures[from];
+        mLastSeenNanos[to] = mLastSeenNanos[from];
+        mRssi[to] = mRssi[from];
+        mLqi[to] = mLqi[from];
+        mCrcFailureRate[to] = mCrcFailureRate[from];
+        mMinRssi[to] = mMinRssi[from];
+        mMaxRssi[to] = mMaxRssi[from];
+        System.arraycopy(mHistograms, from * RSSI_BUCKETS, mHistograms, to * RSSI_BUCKETS, RSSI_BUCKETS);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of a sender
+     *
+     * @param sender the sender id
+     * @return the statistics, or null if the sender is not tracked
+     */
+    public synchronized LinkStats getStats(int sender) {
+        int slot = findSlot(sender);
+        if (!mUsed[slot]) {
+            return null;
+        }
+        int[] histogram = new int[RSSI_BUCKETS];
+        for (int i = 0; i < RSSI_BUCKETS; i++) {
+            histogram[i] = mHistograms[slot * RSSI_BUCKETS + i];
+        }
+        return new LinkStats(sender, mPackets[slot], mCrcFailures[slot], mCrcFailureRate[slot],
+                mRssi[slot], mMinRssi[slot], mMaxRssi[slot], histogram, mLqi[slot],
+                mLastSeenNanos[slot], mRssiOffset);
+    }
+
+    /**
+     * @return the ids of the tracked senders, in no particular order
+     */
+    public synchronized int[] getSenders() {
+        int[] senders = new int[mSenderCount];
+        int count = 0;
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mUsed[slot]) {
+                senders[count++] = mKeys[slot];
+            }
+        }
+        return senders;
+    }
+
+    /**
+     * @return the number of tracked senders
+     */
+    public synchronized int getSenderCount() {
+        return mSenderCount;
+    }
+
+    /**
+     * @return the number of senders forgotten to make room for new ones
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Forgets all the senders
+     */
+    public synchronized void clear() {
+        Arrays.fill(mUsed, false);
+        mSenderCount = 0;
+    }
+
+    public interface SenderId {
+        /**
+         * Called with each received packet, on the radio thread
+         *
+         * @param packet the packet, with a positive length
+         * @return the sender of the packet, or {@link #NO_SENDER} to ignore the packet
+         */
+        int getSender(CC1101Packet packet);
+    }
+}
@@ -0,0 +1,137 @@
+package eu.quartum.cc1101_driver.link;
+
+import java.util.Locale;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+
+/**
+ * A snapshot of the link quality statistics of a sender, returned by
+ * {@link LinkQualityMonitor#getStats(int)}. RSSI values are in dBm, and the averages are
+ * exponentially weighted moving averages.
+ */
+public class LinkStats {
+    private final int mSender;
+    private final long mPacketCount;
+    private final long mCrcFailureCount;
+    private final float mRecentCrcFailureRate;
+    private final float mRssi;
+    private final byte mMinRssi;
+    private final byte mMaxRssi;
+    private final int[] mRssiHistogram;
+    private final float mLqi;
+    private final long mLastSeenNanos;
+    private final int mRssiOffset;
+
+    LinkStats(int sender, long packetCount, long crcFailureCount, float recentCrcFailureRate,
+              float rssi, byte minRssi, byte maxRssi, int[] rssiHistogram, float lqi,
+              long lastSeenNanos, int rssiOffset) {
+        mSender = sender;
+        mPacketCount = packetCount;
+        mCrcFailureCount = crcFailureCount;
+        mRecentCrcFailureRate = recentCrcFailureRate;
+        mRssi = rssi;
+        mMinRssi = minRssi;
+        mMaxRssi = maxRssi;
+        mRssiHistogram = rssiHistogram;
+        mLqi = lqi;
+        mLastSeenNanos = lastSeenNanos;
+        mRssiOffset = rssiOffset;
+    }
+
+    public int getSender() {
+        return mSender;
+    }
+
+    /**
+     * @return the number of packets received from the sender, including the invalid ones
+     */
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    /**
+     * @return the number of packets received from the sender with an invalid CRC
+     */
+    public long getCrcFailureCount() {
+        return mCrcFailureCount;
+    }
+
+    /**
+     * @return the ratio of packets with an invalid CRC since the sender was first heard
+     */
+    public float getCrcFailureRate() {
+        return mPacketCount > 0 ? (float) mCrcFailureCount / mPacketCount : 0;
+    }
+
+    /**
+     * @return the moving average of the CRC failures, weighting the recent packets
+     */
+    public float getRecentCrcFailureRate() {
+        return mRecentCrcFailureRate;
+    }
+
+    /**
+     * @return the moving average of the RSSI, in dBm
+     */
+    public float getRssiDbm() {
+        return mRssi / 2 - mRssiOffset;
+    }
+
+    public float getMinRssiDbm() {
+        return CC1101Packet.rssiToDbm(mMinRssi, mRssiOffset);
+    }
+
+    public float getMaxRssiDbm() {
+        return CC1101Packet.rssiToDbm(mMaxRssi, mRssiOffset);
+    }
+
+    /**
+     * Returns an upper bound of an RSSI percentile, rounded up to the 4 dB bucket it falls in.
+     * Once a bucket is full, all the buckets are halved : the percentiles favor recent packets.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile in dBm
+     */
+    public float getRssiPercentileDbm(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        long count = 0;
+        for (int bucket : mRssiHistogram) {
+            count += bucket;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < mRssiHistogram.length; i++) {
+            seen += mRssiHistogram[i];
+            if (seen >= rank && seen > 0) {
+                byte upperBound = (byte) (((i + 1) << 3) - 1 - 128);
+                return CC1101Packet.rssiToDbm((byte) Math.min(upperBound, mMaxRssi), mRssiOffset);
+            }
+        }
+        return getMaxRssiDbm();
+    }
+
+    /**
+     * @return the moving average of the link quality indicator : the lower, the better
+     */
+    public float getLqi() {
+        return mLqi;
+    }
+
+    /**
+     * @return the System.nanoTime() of the last packet received from the sender
+     */
+    public long getLastSeenNanos() {
+        return mLastSeenNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "sender %d : %d packets, crc failures %.1f%% (recent %.1f%%), "
+                        + "rssi %.1fdBm [%.1f, %.1f] p10=%.1f p90=%.1f, lqi %.1f",
+                mSender, mPacketCount, 100 * getCrcFailureRate(), 100 * mRecentCrcFailureRate,
+                getRssiDbm(), getMinRssiDbm(), getMaxRssiDbm(), getRssiPercentileDbm(10),
+                getRssiPercentileDbm(90), mLqi);
+    }
+}
@@ -0,0 +1,31 @@
+package eu.quartum.cc1101_driver.trace;
+
+import android.util.Log;
+
+/**
+ * Formats each event at once and writes it to the Android log. Meant for debugging : the
+ * formatting costs far more than the event itself, use a {@link RingBufferTraceSink} to keep
+ * traces on in production.
+ */
+public class LogTraceSink implements TraceSink {
+    private final static String TAG = "CC1101Trace";
+
+    @Override
+    public void trace(TraceEvent event, int arg0, int arg1) {
+        String message = event.format(arg0, arg1);
+        switch (event.level) {
+            case ERROR:
+                Log.e(TAG, message);
+                break;
+            case INFO:
+                Log.i(TAG, message);
+                break;
+            case DEBUG:
+                Log.d(TAG, message);
+                break;
+            default:
+                Log.v(TAG, message);
+                break;
+        }
+    }
+}
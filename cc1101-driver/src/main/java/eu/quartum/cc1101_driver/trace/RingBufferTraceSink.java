@@ -0,0 +1,109 @@
+package eu.quartum.cc1101_driver.trace;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the last events in a ring buffer allocated once, and formats them only when dumped, so
+ * that traces can be left on in production. Tracing an event takes a slot with an atomic
+ * increment and writes three longs : it neither allocates nor locks.
+ *
+ * Each slot holds a sequence word, the System.nanoTime() of the event and its two arguments.
+ * The sequence word is cleared while the slot is written, so dump() skips the slots being
+ * overwritten instead of reading torn events.
+ */
+public class RingBufferTraceSink implements TraceSink {
+    private final static String TAG = "CC1101Trace";
+    private final static int SLOT_SIZE = 3;
+    private final static TraceEvent[] EVENTS = TraceEvent.values();
+
+    private final AtomicLongArray mSlots;
+    private final int mMask;
+    private final AtomicLong mNext = new AtomicLong();
+
+    /**
+     * @param capacity the minimum number of events kept, rounded up to a power of 2
+     */
+    public RingBufferTraceSink(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new AtomicLongArray(SLOT_SIZE * size);
+        mMask = size - 1;
+    }
+
+    @Override
+    public void trace(TraceEvent event, int arg0, int arg1) {
+        long sequence = mNext.getAndIncrement();
+        int slot = SLOT_SIZE * (int) (sequence & mMask);
+        mSlots.set(slot, 0);
+        mSlots.set(slot + 1, System.nanoTime());
+        mSlots.set(slot + 2, ((long) arg0 << 32) | (arg1 & 0xFFFFFFFFL));
+        // The sequence word is never 0 once written : sequence + 1 in bits 63:8, event in bits 7:0
+        mSlots.set(slot, ((sequence + 1) << 8) | event.ordinal());
+    }
+
+    /**
+     * @return the number of events traced since this sink was created, including the events
+     * overwritten since
+     */
+    public long getEventCount() {
+        return mNext.get();
+    }
+
+    /**
+     * Appends the events kept in the buffer to a StringBuilder, one per line, oldest first.
+     * Times are in microseconds, relative to the oldest event. Can be called while events are
+     * traced.
+     */
+    public void dump(StringBuilder builder) {
+        long end = mNext.get();
+        long start = Math.max(0, end - (mMask + 1));
+        long origin = 0;
+        boolean first = true;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = SLOT_SIZE * (int) (sequence & mMask);
+            long header = mSlots.get(slot);
+            long time = mSlots.get(slot + 1);
+            long args = mSlots.get(slot + 2);
+            if (header != ((sequence + 1) << 8 | (header & 0xFF)) || mSlots.get(slot) != header) {
+                // Overwritten or being written
+                continue;
+            }
+            if (first) {
+                origin = time;
+                first = false;
+            }
+            builder.append(String.format(Locale.US, "%12.3f ", (time - origin) / 1000.0));
+            EVENTS[(int) (header & 0xFF)].format(builder, (int) (args >> 32), (int) args);
+            builder.append('\n');
+        }
+    }
+
+    /**
+     * @return the events kept in the buffer, one per line, oldest first
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        dump(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Writes the events kept in the buffer to the Android log
+     */
+    public void dumpToLog() {
+        for (String line : dump().split("\n")) {
+            if (!line.isEmpty()) {
+                Log.i(TAG, line);
+            }
+        }
+    }
+}
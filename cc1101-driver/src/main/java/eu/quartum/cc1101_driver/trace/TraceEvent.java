@@ -0,0 +1,140 @@
+package eu.quartum.cc1101_driver.trace;
+
+import eu.quartum.cc1101_driver.CC1101Manager;
+import eu.quartum.cc1101_driver.CC1101Status;
+import eu.quartum.cc1101_driver.utils.BitUtils;
+
+/**
+ * The events traced by a CC1101Manager, with the meaning of their two arguments
+ */
+public enum TraceEvent {
+    /**
+     * An SPI transaction failed. arg0 is the header byte, or -1 for a chip select error
+     */
+    SPI_ERROR(TraceLevel.ERROR),
+    /**
+     * A command strobe other than SNOP. arg0 is the strobe, arg1 the status byte received before
+     * it was executed
+     */
+    STROBE(TraceLevel.INFO),
+    /**
+     * The chip was recovered. arg0 is the ordinal of the CC1101Manager.Recovery
+     */
+    RECOVERY(TraceLevel.INFO),
+    /**
+     * A channel was calibrated. arg0 is the channel, arg1 holds FSCAL3, FSCAL2 and FSCAL1 in its
+     * bits 23:16, 15:8 and 7:0
+     */
+    CALIBRATION(TraceLevel.INFO),
+    /**
+     * The chip hopped to another channel. arg0 is the channel, arg1 the duration in nanoseconds
+     */
+    HOP(TraceLevel.INFO),
+    /**
+     * A status check found the chip out of RX state. arg0 is the status byte
+     */
+    STATUS(TraceLevel.DEBUG),
+    /**
+     * A packet was read from the RX FIFO. arg0 is the length field of the CC1101Packet (-1 for
+     * an overflow, -2 for an oversized packet), arg1 holds the CRC flag in bit 16, the RSSI in
+     * bits 15:8 and the LQI in bits 7:0
+     */
+    PACKET_RECEIVED(TraceLevel.DEBUG),
+    /**
+     * The end of a packet was signaled. arg0 is the packet length
+     */
+    PACKET_SENT(TraceLevel.DEBUG),
+    /**
+     * Received packets were handed to the listener. arg0 is the number of packets
+     */
+    PACKETS_DISPATCHED(TraceLevel.DEBUG),
+    /**
+     * A single register read. arg0 is the header byte, arg1 the value
+     */
+    REGISTER_READ(TraceLevel.VERBOSE),
+    /**
+     * A single register write. arg0 is the address, arg1 the value
+     */
+    REGISTER_WRITE(TraceLevel.VERBOSE),
+    /**
+     * A burst read of registers or of the RX FIFO. arg0 is the address, arg1 the length
+     */
+    BURST_READ(TraceLevel.VERBOSE),
+    /**
+     * A burst write of registers or of the TX FIFO. arg0 is the address, arg1 the length
+     */
+    BURST_WRITE(TraceLevel.VERBOSE);
+
+    private final static String[] STROBES = {
+            "SRES", "SFSTXON", "SXOFF", "SCAL", "SRX", "STX", "SIDLE", "0x37",
+            "SWOR", "SPWD", "SFRX", "SFTX", "SWORRST", "SNOP"
+    };
+
+    public final TraceLevel level;
+
+    TraceEvent(TraceLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * Appends a readable description of an event to a StringBuilder
+     */
+    public void format(StringBuilder builder, int arg0, int arg1) {
+        builder.append(name()).append(' ');
+        switch (this) {
+            case SPI_ERROR:
+                builder.append(arg0 < 0 ? "chip select" : "header " + BitUtils.getHexValue((byte) arg0));
+                break;
+            case STROBE:
+                int strobe = (arg0 & 0x3F) - 0x30;
+                builder.append(strobe >= 0 && strobe < STROBES.length ? STROBES[strobe] : BitUtils.getHexValue((byte) arg0))
+                        .append(", was ").append(CC1101Status.toString((byte) arg1));
+                break;
+            case RECOVERY:
+                CC1101Manager.Recovery[] recoveries = CC1101Manager.Recovery.values();
+                builder.append(arg0 >= 0 && arg0 < recoveries.length ? recoveries[arg0].name() : String.valueOf(arg0));
+                break;
+            case CALIBRATION:
+                builder.append("channel ").append(arg0).append(", FSCAL3-1 ")
+                        .append(BitUtils.getHexValue(new byte[] { (byte) (arg1 >> 16), (byte) (arg1 >> 8), (byte) arg1 }));
+                break;
+            case HOP:
+                builder.append("channel ").append(arg0).append(" in ").append(arg1).append("ns");
+                break;
+            case STATUS:
+                builder.append(CC1101Status.toString((byte) arg0));
+                break;
+            case PACKET_RECEIVED:
+                builder.append("length ").append(arg0 < 0 ? arg0 : arg0 & 0xFF);
+                if (arg0 > 0) {
+                    builder.append(", crc ").append((arg1 & 0x10000) != 0 ? "ok" : "invalid")
+                            .append(", rssi ").append(BitUtils.getHexValue((byte) (arg1 >> 8)))
+                            .append(", lqi ").append(BitUtils.getHexValue((byte) arg1));
+                }
+                break;
+            case PACKET_SENT:
+                builder.append("length ").append(arg0);
+                break;
+            case PACKETS_DISPATCHED:
+                builder.append(arg0).append(" packets");
+                break;
+            case REGISTER_READ:
+            case REGISTER_WRITE:
+                builder.append(BitUtils.getHexValue((byte) arg0)).append(" = ").append(BitUtils.getHexValue((byte) arg1));
+                break;
+            case BURST_READ:
+            case BURST_WRITE:
+                builder.append(BitUtils.getHexValue((byte) arg0)).append(", ").append(arg1).append(" bytes");
+                break;
+        }
+    }
+
+    /**
+     * @return a readable description of an event
+     */
+    public String format(int arg0, int arg1) {
+        StringBuilder builder = new StringBuilder();
+        format(builder, arg0, arg1);
+        return builder.toString();
+    }
+}
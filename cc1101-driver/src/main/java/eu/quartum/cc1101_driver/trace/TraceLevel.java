@@ -0,0 +1,24 @@
+package eu.quartum.cc1101_driver.trace;
+
+/**
+ * The verbosity of a trace : a TraceSink installed at a level receives the events of that level
+ * and of the levels above it in this list.
+ */
+public enum TraceLevel {
+    /**
+     * SPI errors
+     */
+    ERROR,
+    /**
+     * State changing command strobes, recoveries, calibrations and hops
+     */
+    INFO,
+    /**
+     * Received, sent and dispatched packets, and status checks finding the chip out of RX state
+     */
+    DEBUG,
+    /**
+     * Every register and FIFO access
+     */
+    VERBOSE
+}
@@ -0,0 +1,14 @@
+package eu.quartum.cc1101_driver.trace;
+
+/**
+ * Receives the events traced by a CC1101Manager, see
+ * {@link eu.quartum.cc1101_driver.CC1101Manager#setTraceSink(TraceSink, TraceLevel)}.
+ * Events are made of two int arguments, so tracing allocates nothing : the sink decides when to
+ * format them with {@link TraceEvent#format(StringBuilder, int, int)}.
+ *
+ * trace() is called from the radio thread, the dispatch executor and the threads calling the
+ * manager, sometimes with the SPI lock held : it must be thread safe and must not block.
+ */
+public interface TraceSink {
+    void trace(TraceEvent event, int arg0, int arg1);
+}
@@ -0,0 +1,102 @@
+package eu.quartum.cc1101_driver.transport;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.google.android.things.pio.PeripheralManagerService;
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+
+/**
+ * An SPI bus shared by several CC1101 chips, each one with its own slave select and GDO gpios.
+ * The SPI device is opened by the first AndroidThingsTransport of the bus and closed by the last
+ * one. The GPIO callbacks of the chips of the bus run on a dedicated thread instead of the main
+ * looper.
+ *
+ * The transports of a bus must be driven by CC1101Managers sharing the same SPI lock, see
+ * {@link eu.quartum.cc1101_driver.CC1101RadioGroup}.
+ */
+public class AndroidThingsSpiBus {
+    private final PeripheralManagerService mPMS;
+    private final String mSPIDeviceName;
+    private SpiDevice mSPIDevice;
+    private int mOpenCount;
+    private HandlerThread mGpioThread;
+    private Handler mGpioHandler;
+
+    /**
+     * @param spiDeviceName the SPI device name
+     */
+    public AndroidThingsSpiBus(String spiDeviceName) {
+        this(new PeripheralManagerService(), spiDeviceName);
+    }
+
+    /**
+     * @param pms the PeripheralManagerService, shared by all the buses
+     * @param spiDeviceName the SPI device name
+     */
+    public AndroidThingsSpiBus(PeripheralManagerService pms, String spiDeviceName) {
+        mPMS = pms;
+        mSPIDeviceName = spiDeviceName;
+    }
+
+    PeripheralManagerService getPeripheralManagerService() {
+        return mPMS;
+    }
+
+    String getName() {
+        return mSPIDeviceName;
+    }
+
+    /**
+     * Opens the SPI device if no transport of the bus opened it yet. The chips of a shared bus
+     * are selected by gpios, so the native CS of the SPI device is left unused.
+     */
+    synchronized SpiDevice open() throws IOException {
+        if (mOpenCount == 0) {
+            mSPIDevice = mPMS.openSpiDevice(mSPIDeviceName);
+            mSPIDevice.setFrequency(16000000);
+            // The SPI and GPIO driver calls take far longer than the CSn setup and hold times
+            mSPIDevice.setDelay(0);
+            mSPIDevice.setCsChange(true);
+            mSPIDevice.setBitJustification(false);
+            mSPIDevice.setBitsPerWord(8);
+        }
+        mOpenCount++;
+        return mSPIDevice;
+    }
+
+    /**
+     * Closes the SPI device and the GPIO thread once every transport of the bus closed it
+     */
+    synchronized void close() throws IOException {
+        if (mOpenCount == 0) {
+            return;
+        }
+        mOpenCount--;
+        if (mOpenCount == 0) {
+            if (mGpioThread != null) {
+                mGpioThread.quitSafely();
+                mGpioThread = null;
+                mGpioHandler = null;
+            }
+            SpiDevice device = mSPIDevice;
+            mSPIDevice = null;
+            device.close();
+        }
+    }
+
+    /**
+     * @return the handler the GPIO callbacks of the bus run on
+     */
+    synchronized Handler getGpioHandler() {
+        if (mGpioHandler == null) {
+            mGpioThread = new HandlerThread("CC1101-gpio-" + mSPIDeviceName, Process.THREAD_PRIORITY_URGENT_AUDIO);
+            mGpioThread.start();
+            mGpioHandler = new Handler(mGpioThread.getLooper());
+        }
+        return mGpioHandler;
+    }
+}
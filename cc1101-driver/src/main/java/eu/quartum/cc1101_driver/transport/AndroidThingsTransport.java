@@ -0,0 +1,317 @@
+package eu.quartum.cc1101_driver.transport;
+
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.pio.PeripheralManagerService;
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.List;
+
+import eu.quartum.cc1101_driver.BuildConfig;
+
+/**
+ * CC1101Transport backed by the Android Things peripheral I/O API.
+ * The slave select line is either driven by a GPIO port, or by the native CS of the SPI device
+ * when no slave select gpio is given. The native CS saves two IPCs per SPI transaction, but does
+ * not allow the manual reset sequence of the CC1101, so the chip is reset with the SRES strobe.
+ */
+public class AndroidThingsTransport implements CC1101Transport {
+    public final static String TAG = AndroidThingsTransport.class.getSimpleName();
+
+    private PeripheralManagerService mPMS;
+    /**
+     * The bus shared with other chips, null if this transport owns its SPI device
+     */
+    private final AndroidThingsSpiBus mBus;
+    private String mSPIDeviceName;
+    private SpiDevice mSPIDevice;
+    private String mGDO0Name;
+    private Gpio mGDO0;
+
+    private String mGDO2Name;
+    private Gpio mGDO2;
+
+    private String mSSName;
+    private Gpio mSS;
+
+    private EdgeListener mEdgeListener;
+    private EdgeListener mGdo2EdgeListener;
+
+    private volatile long mIpcCount;
+
+    private GpioCallback mGDO0Callback = new GpioCallback() {
+        @Override
+        public boolean onGpioEdge(Gpio gpio) {
+            EdgeListener listener = mEdgeListener;
+            if (listener != null) {
+                listener.onEdge();
+            }
+            return true;
+        }
+    };
+
+    private GpioCallback mGDO2Callback = new GpioCallback() {
+        @Override
+        public boolean onGpioEdge(Gpio gpio) {
+            EdgeListener listener = mGdo2EdgeListener;
+            if (listener != null) {
+                listener.onEdge();
+            }
+            return true;
+        }
+    };
+
+    /**
+     * @param spiDeviceName the SPI device name
+     * @param gpioGDO0Name the GDO0 gpio name
+     * @param gpioSlaveSelectName the gpio port used as a slave select for the CC1101 chip, or null
+     *                            to use the native CS of the SPI device
+     */
+    public AndroidThingsTransport(String spiDeviceName, String gpioGDO0Name, @Nullable String gpioSlaveSelectName) {
+        this(spiDeviceName, gpioGDO0Name, null, gpioSlaveSelectName);
+    }
+
+    /**
+     * @param spiDeviceName the SPI device name
+     * @param gpioGDO0Name the GDO0 gpio name
+     * @param gpioGDO2Name the GDO2 gpio name, or null if GDO2 is not connected
+     * @param gpioSlaveSelectName the gpio port used as a slave select for the CC1101 chip, or null
+     *                            to use the native CS of the SPI device
+     */
+    public AndroidThingsTransport(String spiDeviceName, String gpioGDO0Name, @Nullable String gpioGDO2Name,
+                                  @Nullable String gpioSlaveSelectName) {
+        this(new PeripheralManagerService(), null, spiDeviceName, gpioGDO0Name, gpioGDO2Name, gpioSlaveSelectName);
+    }
+
+    /**
+     * Builds the transport of a chip sharing its SPI bus with other chips. The chip must be
+     * selected by its own gpio, the native CS of the SPI device is not used.
+     *
+     * @param bus the SPI bus
+     * @param gpioGDO0Name the GDO0 gpio name
+     * @param gpioGDO2Name the GDO2 gpio name, or null if GDO2 is not connected
+     * @param gpioSlaveSelectName the gpio port used as a slave select for the CC1101 chip
+     */
+    public AndroidThingsTransport(AndroidThingsSpiBus bus, String gpioGDO0Name, @Nullable String gpioGDO2Name,
+                                  String gpioSlaveSelectName) {
+        this(bus.getPeripheralManagerService(), bus, bus.getName(), gpioGDO0Name, gpioGDO2Name, gpioSlaveSelectName);
+        if (gpioSlaveSelectName == null) {
+            throw new InvalidParameterException("A chip on a shared SPI bus needs a slave select gpio");
+        }
+    }
+
+    private AndroidThingsTransport(PeripheralManagerService pms, @Nullable AndroidThingsSpiBus bus, String spiDeviceName,
+                                   String gpioGDO0Name, @Nullable String gpioGDO2Name, @Nullable String gpioSlaveSelectName) {
+        mPMS = pms;
+        mBus = bus;
+        mSPIDeviceName = spiDeviceName;
+        mGDO0Name = gpioGDO0Name;
+        mGDO2Name = gpioGDO2Name;
+        mSSName = gpioSlaveSelectName;
+        List<String> deviceList = mPMS.getSpiBusList();
+        if (!deviceList.contains(spiDeviceName)) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "SPI device does not exist");
+        }
+
+        List<String> gpioList = mPMS.getGpioList();
+        if (gpioGDO0Name == null || !gpioList.contains(gpioGDO0Name)) {
+            throw new InvalidParameterException("The GDO0 gpio name " + gpioGDO0Name + " does not exist");
+        }
+
+        if (gpioGDO2Name != null && !gpioList.contains(gpioGDO2Name)) {
+            throw new InvalidParameterException("The GDO2 gpio name " + gpioGDO2Name + " does not exist");
+        }
+
+        if (gpioSlaveSelectName != null && !gpioList.contains(gpioSlaveSelectName)) {
+            throw new InvalidParameterException("The slave select gpio name " + gpioSlaveSelectName + " does not exist");
+        }
+    }
+
+    @Override
+    public void open() throws IOException {
+        Handler gpioHandler = null;
+        if (mBus != null) {
+            mSPIDevice = mBus.open();
+            gpioHandler = mBus.getGpioHandler();
+        } else {
+            mSPIDevice = mPMS.openSpiDevice(mSPIDeviceName);
+            mSPIDevice.setFrequency(16000000);
+            // The SPI and GPIO driver calls take far longer than the CSn setup and hold times
+            mSPIDevice.setDelay(0);
+            // With the native CS, the chip must be deselected at the end of each transfer
+            mSPIDevice.setCsChange(mSSName != null);
+            mSPIDevice.setBitJustification(false);
+            mSPIDevice.setBitsPerWord(8);
+        }
+
+        mGDO0 = mPMS.openGpio(mGDO0Name);
+        mGDO0.setDirection(Gpio.DIRECTION_IN);
+        registerGpioCallback(mGDO0, mGDO0Callback, gpioHandler);
+
+        if (mGDO2Name != null) {
+            mGDO2 = mPMS.openGpio(mGDO2Name);
+            mGDO2.setDirection(Gpio.DIRECTION_IN);
+            registerGpioCallback(mGDO2, mGDO2Callback, gpioHandler);
+        }
+
+        if (mSSName != null) {
+            mSS = mPMS.openGpio(mSSName);
+            mSS.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+        }
+    }
+
+    private static void registerGpioCallback(Gpio gpio, GpioCallback callback, @Nullable Handler handler) throws IOException {
+        if (handler != null) {
+            gpio.registerGpioCallback(callback, handler);
+        } else {
+            gpio.registerGpioCallback(callback);
+        }
+    }
+
+    @Override
+    public boolean hasHardwareChipSelect() {
+        return mSSName == null;
+    }
+
+    @Override
+    public long getIpcCount() {
+        return mIpcCount;
+    }
+
+    @Override
+    public void select() throws IOException {
+        if (mSS != null) {
+            mIpcCount++;
+            mSS.setValue(false);
+        }
+    }
+
+    @Override
+    public void deselect() throws IOException {
+        if (mSS != null) {
+            mIpcCount++;
+            mSS.setValue(true);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int length) throws IOException {
+        checkOpen();
+        mIpcCount++;
+        mSPIDevice.write(buffer, length);
+    }
+
+    @Override
+    public void read(byte[] buffer, int length) throws IOException {
+        checkOpen();
+        mIpcCount++;
+        mSPIDevice.read(buffer, length);
+    }
+
+    @Override
+    public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+        checkOpen();
+        mIpcCount++;
+        mSPIDevice.transfer(txBuffer, rxBuffer, length);
+    }
+
+    @Override
+    public void setGdo0EdgeTrigger(int edge) throws IOException {
+        if (mGDO0 == null) {
+            throw new IOException("GDO0 gpio " + mGDO0Name + " is not open");
+        }
+        mGDO0.setEdgeTriggerType(edge == EDGE_FALLING ? Gpio.EDGE_FALLING : Gpio.EDGE_RISING);
+    }
+
+    @Override
+    public void setGdo0Listener(@Nullable EdgeListener listener) {
+        mEdgeListener = listener;
+    }
+
+    @Override
+    public boolean hasGdo2() {
+        return mGDO2Name != null;
+    }
+
+    @Override
+    public void setGdo2EdgeTrigger(int edge) throws IOException {
+        if (mGDO2 == null) {
+            throw new IOException("GDO2 gpio " + mGDO2Name + " is not open");
+        }
+        mGDO2.setEdgeTriggerType(edge == EDGE_FALLING ? Gpio.EDGE_FALLING : Gpio.EDGE_RISING);
+    }
+
+    @Override
+    public void setGdo2Listener(@Nullable EdgeListener listener) throws IOException {
+        if (mGDO2Name == null) {
+            throw new IOException("GDO2 gpio is not connected");
+        }
+        mGdo2EdgeListener = listener;
+    }
+
+    private void checkOpen() throws IOException {
+        if (mSPIDevice == null) {
+            throw new IOException("SPI device " + mSPIDeviceName + " is not open");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        if (mSPIDevice != null) {
+            try {
+                if (mBus != null) {
+                    mBus.close();
+                } else {
+                    mSPIDevice.close();
+                }
+            } catch (IOException ioe) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing " + mSPIDeviceName);
+                exception = ioe;
+            }
+            mSPIDevice = null;
+        }
+
+        if (mGDO0 != null) {
+            mGDO0.unregisterGpioCallback(mGDO0Callback);
+            try {
+                mGDO0.close();
+            } catch (IOException ioe) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing " + mGDO0Name);
+                exception = ioe;
+            }
+            mGDO0 = null;
+        }
+
+        if (mGDO2 != null) {
+            mGDO2.unregisterGpioCallback(mGDO2Callback);
+            try {
+                mGDO2.close();
+            } catch (IOException ioe) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing " + mGDO2Name);
+                exception = ioe;
+            }
+            mGDO2 = null;
+        }
+
+        if (mSS != null) {
+            try {
+                mSS.close();
+            } catch (IOException ioe) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Exception while closing " + mSSName);
+                exception = ioe;
+            }
+            mSS = null;
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package eu.quartum.cc1101_driver.transport;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * The link between a CC1101Manager and a CC1101 chip : an SPI bus, the slave select line, the
+ * GDO0 interrupt line and optionally the GDO2 interrupt line.
+ *
+ * The Android Things implementation is {@link AndroidThingsTransport}. {@link SimulatedCC1101Transport}
+ * emulates a CC1101 chip in memory so the driver can be tested and benchmarked on a plain JVM.
+ */
+public interface CC1101Transport {
+    int EDGE_RISING = 1;
+    int EDGE_FALLING = 2;
+
+    /**
+     * Opens the SPI device and the GPIO ports. Must be called before any other method.
+     *
+     * @throws IOException if the peripherals could not be opened
+     */
+    void open() throws IOException;
+
+    /**
+     * Returns whether the slave select line is driven by the SPI controller. In that case,
+     * select() and deselect() do nothing and each call to write(), read() or transfer() is a
+     * whole SPI transaction : a header byte and the bytes read after it must go through a single
+     * transfer().
+     */
+    boolean hasHardwareChipSelect();
+
+    /**
+     * Returns the number of calls made to the peripheral drivers (SPI accesses and slave select
+     * toggles) since the transport was created. On Android Things, each call is an IPC to the
+     * peripheral manager.
+     */
+    long getIpcCount();
+
+    /**
+     * Pulls the slave select line low, starting an SPI transaction.
+     */
+    void select() throws IOException;
+
+    /**
+     * Pulls the slave select line high, ending an SPI transaction.
+     */
+    void deselect() throws IOException;
+
+    /**
+     * Writes length bytes of buffer on the SPI bus
+     */
+    void write(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Reads length bytes from the SPI bus into buffer
+     */
+    void read(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Writes length bytes of txBuffer while reading length bytes into rxBuffer (full duplex)
+     */
+    void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException;
+
+    /**
+     * Defines which edges of the GDO0 line are reported to the edge listener.
+     *
+     * @param edge {@link #EDGE_RISING} or {@link #EDGE_FALLING}
+     */
+    void setGdo0EdgeTrigger(int edge) throws IOException;
+
+    /**
+     * Defines the listener called on GDO0 edges.
+     *
+     * @param listener the listener. Can be null to unset the listener.
+     */
+    void setGdo0Listener(@Nullable EdgeListener listener) throws IOException;
+
+    /**
+     * Returns whether the GDO2 line of the chip is connected
+     */
+    boolean hasGdo2();
+
+    /**
+     * Defines which edges of the GDO2 line are reported to the GDO2 edge listener.
+     *
+     * @param edge {@link #EDGE_RISING} or {@link #EDGE_FALLING}
+     * @throws IOException if the GDO2 line is not connected
+     */
+    void setGdo2EdgeTrigger(int edge) throws IOException;
+
+    /**
+     * Defines the listener called on GDO2 edges.
+     *
+     * @param listener the listener. Can be null to unset the listener.
+     * @throws IOException if the GDO2 line is not connected
+     */
+    void setGdo2Listener(@Nullable EdgeListener listener) throws IOException;
+
+    /**
+     * Closes the SPI device and the GPIO ports.
+     */
+    void close() throws IOException;
+
+    interface EdgeListener {
+        void onEdge();
+    }
+}
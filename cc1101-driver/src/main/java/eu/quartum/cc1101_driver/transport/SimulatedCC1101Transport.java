@@ -0,0 +1,999 @@
+package eu.quartum.cc1101_driver.transport;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.quartum.cc1101_driver.CC1101Constants;
+
+/**
+ * A CC1101Transport emulating a CC1101 chip in memory, so that the driver can be tested and
+ * benchmarked on a plain JVM without any radio hardware.
+ *
+ * The simulator models the configuration and status registers, the PATABLE, the 64 bytes RX and TX
+ * FIFOs, the MARCSTATE transitions triggered by the command strobes, the GDO0 edges produced
+ * when a packet is received or sent (IOCFG0 = 0x06 : asserted on sync word, de-asserted at the
+ * end of the packet) and the GDO2 FIFO threshold edges (IOCFG2 = 0x00 or 0x02).
+ * The fixed, variable and infinite packet length modes of PKTCTRL0 are supported. The packet
+ * filtering of the chip (address check, maximum length and CRC autoflush) is only applied once
+ * enabled by {@link #setPacketFilteringEnabled(boolean)}.
+ *
+ * Packets are received with {@link #injectPacket(byte[], byte, byte, boolean)}, or with
+ * {@link #injectStream(byte[], byte, byte, boolean)} for packets larger than the RX FIFO.
+ * Transmitted packets can be retrieved with {@link #getTransmittedPackets()}. The simulator does
+ * not model time : the TX FIFO is emptied at the end of each SPI transaction while in TX state.
+ *
+ * An SPI transaction lasts from select() to deselect(), or is a single write(), read() or
+ * transfer() call made while the chip is not selected.
+ *
+ * All methods are thread safe. The GDO0 edge listener is called on the thread that caused the
+ * edge, once the SPI transaction that caused it is over.
+ */
+public class SimulatedCC1101Transport implements CC1101Transport {
+    public final static int FIFO_SIZE = 64;
+    public final static byte PARTNUM = (byte) 0x00;
+    public final static byte VERSION = (byte) 0x14;
+
+    private final static int GDO0 = 0;
+    private final static int GDO2 = 1;
+    private final static int GDO_RX_FIFO_THRESHOLD = 0x00;
+    private final static int GDO_TX_FIFO_THRESHOLD = 0x02;
+    private final static int LENGTH_FIXED = 0x00;
+    private final static int LENGTH_VARIABLE = 0x01;
+
+    /**
+     * How long injectStream() waits for the driver to drain a full RX FIFO before overflowing
+     */
+    private final static long STREAM_DRAIN_TIMEOUT_MS = 1000;
+
+    /**
+     * Register values after a reset, as described in the CC1101 datasheet
+     */
+    private final static byte[] RESET_VALUES = new byte[] {
+            (byte) 0x29, (byte) 0x2E, (byte) 0x3F, (byte) 0x07, (byte) 0xD3, (byte) 0x91, (byte) 0xFF, (byte) 0x04,
+            (byte) 0x45, (byte) 0x00, (byte) 0x00, (byte) 0x0F, (byte) 0x00, (byte) 0x1E, (byte) 0xC4, (byte) 0xEC,
+            (byte) 0x8C, (byte) 0x22, (byte) 0x02, (byte) 0x22, (byte) 0xF8, (byte) 0x47, (byte) 0x07, (byte) 0x30,
+            (byte) 0x04, (byte) 0x36, (byte) 0x6C, (byte) 0x03, (byte) 0x40, (byte) 0x91, (byte) 0x87, (byte) 0x6B,
+            (byte) 0xF8, (byte) 0x56, (byte) 0x10, (byte) 0xA9, (byte) 0x0A, (byte) 0x20, (byte) 0x0D, (byte) 0x41,
+            (byte) 0x00, (byte) 0x59, (byte) 0x7F, (byte) 0x3F, (byte) 0x88, (byte) 0x31, (byte) 0x0B
+    };
+
+    private final byte[] mConfigRegs = new byte[CC1101Constants.CC1101_COMPLETE_REGISTERS];
+    private final byte[] mPaTable = new byte[8];
+    private int mPaTableIndex;
+
+    private final byte[] mRxFifo = new byte[FIFO_SIZE];
+    private int mRxHead;
+    private int mRxCount;
+    private boolean mRxOverflow;
+
+    private final byte[] mTxFifo = new byte[FIFO_SIZE];
+    private int mTxHead;
+    private int mTxCount;
+    private boolean mTxUnderflow;
+
+    private byte mMarcState = CC1101Constants.MARCSTATE_IDLE;
+    private byte mRssi;
+    private byte mLqi;
+    private boolean mGdo0Level;
+    private boolean mGdo2Level;
+
+    private boolean mOpen;
+    private final boolean mHardwareChipSelect;
+    private boolean mSelected;
+    private long mIpcCount;
+    /**
+     * False during the first transaction after SLEEP : the chip ignores it and keeps SO high
+     */
+    private boolean mChipReady = true;
+    private int mHeader = -1;
+    private int mAddress;
+
+    private long mTransactionCount;
+    private int mCalibrationCount;
+    /**
+     * Set by SWOR : the chip sleeps, and wakes up for the packets injected meanwhile
+     */
+    private boolean mWakeOnRadio;
+    private int mWakeUpCount;
+    private boolean mPacketFiltering;
+    private int mDiscardedCount;
+    /**
+     * Set by startPacket : the packet being received, of which mPartialCount payload bytes were written
+     */
+    private byte[] mPartialPayload;
+    private int mPartialCount;
+    private final List<byte[]> mTransmittedPackets = new ArrayList<>();
+    private byte[] mTxPacket = new byte[256];
+    private int mTxPacketLength;
+    private int mTxExpectedLength;
+
+    private final int[] mEdgeTriggers = new int[] { EDGE_RISING, EDGE_RISING };
+    private final EdgeListener[] mEdgeListeners = new EdgeListener[2];
+    private final List<Integer> mPendingEdges = new ArrayList<>();
+    private final List<Integer> mEdgesToDispatch = new ArrayList<>();
+
+    public SimulatedCC1101Transport() {
+        this(false);
+    }
+
+    /**
+     * @param hardwareChipSelect true to simulate the native CS of the SPI controller : select()
+     *                           and deselect() do nothing and each SPI call is a transaction
+     */
+    public SimulatedCC1101Transport(boolean hardwareChipSelect) {
+        mHardwareChipSelect = hardwareChipSelect;
+        resetChip();
+    }
+
+    @Override
+    public synchronized void open() {
+        mOpen = true;
+    }
+
+    @Override
+    public boolean hasHardwareChipSelect() {
+        return mHardwareChipSelect;
+    }
+
+    @Override
+    public synchronized long getIpcCount() {
+        return mIpcCount;
+    }
+
+    @Override
+    public void select() {
+        if (mHardwareChipSelect) {
+            return;
+        }
+        synchronized (this) {
+            mIpcCount++;
+            mSelected = true;
+            startTransaction();
+        }
+    }
+
+    @Override
+    public void deselect() {
+        if (mHardwareChipSelect) {
+            return;
+        }
+        synchronized (this) {
+            mIpcCount++;
+            if (!mSelected) {
+                return;
+            }
+            mSelected = false;
+            endTransaction();
+        }
+        dispatchEdges();
+    }
+
+    @Override
+    public void write(byte[] buffer, int length) {
+        synchronized (this) {
+            mIpcCount++;
+            if (!mSelected) {
+                startTransaction();
+            }
+            for (int i = 0; i < length; i++) {
+                exchange(buffer[i]);
+            }
+            if (!mSelected) {
+                endTransaction();
+            }
+        }
+        dispatchEdges();
+    }
+
+    @Override
+    public void read(byte[] buffer, int length) {
+        synchronized (this) {
+            mIpcCount++;
+            if (!mSelected) {
+                startTransaction();
+            }
+            for (int i = 0; i < length; i++) {
+                buffer[i] = exchange((byte) 0);
+            }
+            if (!mSelected) {
+                endTransaction();
+            }
+        }
+        dispatchEdges();
+    }
+
+    @Override
+    public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) {
+        synchronized (this) {
+            mIpcCount++;
+            if (!mSelected) {
+                startTransaction();
+            }
+            for (int i = 0; i < length; i++) {
+                rxBuffer[i] = exchange(txBuffer[i]);
+            }
+            if (!mSelected) {
+                endTransaction();
+            }
+        }
+        dispatchEdges();
+    }
+
+    @Override
+    public synchronized void setGdo0EdgeTrigger(int edge) {
+        mEdgeTriggers[GDO0] = edge;
+    }
+
+    @Override
+    public synchronized void setGdo0Listener(@Nullable EdgeListener listener) {
+        mEdgeListeners[GDO0] = listener;
+    }
+
+    @Override
+    public boolean hasGdo2() {
+        return true;
+    }
+
+    @Override
+    public synchronized void setGdo2EdgeTrigger(int edge) {
+        mEdgeTriggers[GDO2] = edge;
+    }
+
+    @Override
+    public synchronized void setGdo2Listener(@Nullable EdgeListener listener) {
+        mEdgeListeners[GDO2] = listener;
+    }
+
+    @Override
+    public synchronized void close() {
+        mOpen = false;
+        mEdgeListeners[GDO0] = null;
+        mEdgeListeners[GDO2] = null;
+    }
+
+    /**
+     * Simulates the reception of a packet over the air. The packet is ignored if the chip is not
+     * in RX state. The length byte (in variable packet length mode) and the status bytes (if
+     * PKTCTRL1.APPEND_STATUS is set) are added by the simulator.
+     *
+     * @param payload the packet payload
+     * @param rssi the raw RSSI value
+     * @param lqi the link quality indicator, between 0 and 127
+     * @param crcOk whether the CRC of the packet is valid
+     * @return true if the packet was written to the RX FIFO
+     */
+    public boolean injectPacket(byte[] payload, byte rssi, byte lqi, boolean crcOk) {
+        boolean received;
+        synchronized (this) {
+            received = receivePacket(payload, rssi, lqi, crcOk);
+        }
+        dispatchEdges();
+        return received;
+    }
+
+    /**
+     * Simulates the start of a packet reception : the length byte (in variable packet length mode)
+     * and the first count bytes of the payload are written to the RX FIFO, and GDO0 stays asserted
+     * until {@link #finishPacket(byte, byte, boolean)} writes the rest of the packet.
+     *
+     * @param payload the packet payload
+     * @param count the number of payload bytes received so far
+     * @return true if the bytes were written to the RX FIFO
+     */
+    public boolean startPacket(byte[] payload, int count) {
+        synchronized (this) {
+            if (mMarcState != CC1101Constants.MARCSTATE_RX || mPartialPayload != null) {
+                return false;
+            }
+            setGdo0(true);
+            boolean fits = true;
+            if ((mConfigRegs[CC1101Constants.CC1101_PKTCTRL0] & 0x03) == LENGTH_VARIABLE) {
+                fits = pushRxFifo((byte) payload.length);
+            }
+            for (int i = 0; i < count && fits; i++) {
+                fits = pushRxFifo(payload[i]);
+            }
+            if (!fits) {
+                setGdo0(false);
+                mRxOverflow = true;
+                mMarcState = CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW;
+                return false;
+            }
+            mPartialPayload = payload;
+            mPartialCount = count;
+        }
+        dispatchEdges();
+        return true;
+    }
+
+    /**
+     * Ends the reception of the packet started by {@link #startPacket(byte[], int)} : the rest of
+     * its payload and the status bytes (if PKTCTRL1.APPEND_STATUS is set) are written to the RX FIFO.
+     *
+     * @param rssi the raw RSSI value
+     * @param lqi the link quality indicator, between 0 and 127
+     * @param crcOk whether the CRC of the packet is valid
+     * @return true if the packet was written to the RX FIFO
+     */
+    public boolean finishPacket(byte rssi, byte lqi, boolean crcOk) {
+        boolean received;
+        synchronized (this) {
+            byte[] payload = mPartialPayload;
+            if (payload == null || mMarcState != CC1101Constants.MARCSTATE_RX) {
+                return false;
+            }
+            mPartialPayload = null;
+            boolean fits = true;
+            for (int i = mPartialCount; i < payload.length && fits; i++) {
+                fits = pushRxFifo(payload[i]);
+            }
+            if (fits) {
+                received = endReception(rssi, lqi, crcOk);
+            } else {
+                setGdo0(false);
+                mRxOverflow = true;
+                mMarcState = CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW;
+                received = false;
+            }
+        }
+        dispatchEdges();
+        return received;
+    }
+
+    /**
+     * Simulates the reception of a packet larger than the RX FIFO. Bytes are written to the RX FIFO
+     * one by one, and the packet ends as the chip would : after the length byte in variable packet
+     * length mode, when the byte counter reaches PKTLEN (modulo 256) in fixed packet length mode,
+     * or when bytes runs out in infinite packet length mode.
+     * When the RX FIFO is full, the simulator waits for the driver to drain it, and overflows if
+     * it does not.
+     *
+     * @param bytes the bytes sent over the air after the sync word, including any length field
+     * @param rssi the raw RSSI value
+     * @param lqi the link quality indicator, between 0 and 127
+     * @param crcOk whether the CRC of the packet is valid
+     * @return true if the whole packet was written to the RX FIFO
+     */
+    public boolean injectStream(byte[] bytes, byte rssi, byte lqi, boolean crcOk) {
+        synchronized (this) {
+            if (mMarcState != CC1101Constants.MARCSTATE_RX) {
+                return false;
+            }
+            setGdo0(true);
+        }
+        dispatchEdges();
+
+        boolean received = true;
+        for (int i = 0; i < bytes.length; i++) {
+            boolean end;
+            synchronized (this) {
+                waitForRxFifoRoom(1);
+                if (!pushRxFifo(bytes[i])) {
+                    mRxOverflow = true;
+                    mMarcState = CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW;
+                    setGdo0(false);
+                    received = false;
+                    end = true;
+                } else {
+                    int count = i + 1;
+                    int lengthConfig = mConfigRegs[CC1101Constants.CC1101_PKTCTRL0] & 0x03;
+                    int pktLen = mConfigRegs[CC1101Constants.CC1101_PKTLEN] & 0xFF;
+                    end = (lengthConfig == LENGTH_FIXED && count % 256 == pktLen)
+                            || (lengthConfig == LENGTH_VARIABLE && count == (bytes[0] & 0xFF) + 1);
+                }
+            }
+            dispatchEdges();
+            if (end) {
+                break;
+            }
+        }
+        if (received) {
+            synchronized (this) {
+                if ((mConfigRegs[CC1101Constants.CC1101_PKTCTRL1] & 0x04) != 0) {
+                    // The appended status bytes need room too
+                    waitForRxFifoRoom(2);
+                }
+                received = endReception(rssi, lqi, crcOk);
+            }
+            dispatchEdges();
+        }
+        return received;
+    }
+
+    /**
+     * Waits up to STREAM_DRAIN_TIMEOUT_MS for the driver to make room in the RX FIFO
+     */
+    private void waitForRxFifoRoom(int bytes) {
+        long deadline = System.currentTimeMillis() + STREAM_DRAIN_TIMEOUT_MS;
+        long now;
+        while (mRxCount > FIFO_SIZE - bytes && (now = System.currentTimeMillis()) < deadline) {
+            try {
+                wait(deadline - now);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the packets sent by the chip, including the length byte in variable packet length
+     * mode, and clears the list.
+     *
+     * @return the transmitted packets, in transmission order
+     */
+    public synchronized List<byte[]> getTransmittedPackets() {
+        List<byte[]> packets = new ArrayList<>(mTransmittedPackets);
+        mTransmittedPackets.clear();
+        return packets;
+    }
+
+    public synchronized byte getConfigRegister(byte address) {
+        return mConfigRegs[address];
+    }
+
+    /**
+     * Returns the number of frequency synthesizer calibrations, by SCAL or automatic
+     */
+    public synchronized int getCalibrationCount() {
+        return mCalibrationCount;
+    }
+
+    /**
+     * Returns whether the chip polls for packets in Wake-on-Radio mode
+     */
+    public synchronized boolean isWakeOnRadioActive() {
+        return mWakeOnRadio;
+    }
+
+    /**
+     * Returns the number of times the chip woke up from Wake-on-Radio mode to receive a packet
+     */
+    public synchronized int getWakeUpCount() {
+        return mWakeUpCount;
+    }
+
+    /**
+     * Applies the address check of PKTCTRL1 and ADDR, the maximum length of PKTLEN in variable
+     * packet length mode, and the CRC autoflush of PKTCTRL1 to the injected packets. Disabled by
+     * default, so that the payloads do not need to start with an address.
+     */
+    public synchronized void setPacketFilteringEnabled(boolean enabled) {
+        mPacketFiltering = enabled;
+    }
+
+    /**
+     * Returns the number of injected packets discarded by the packet filtering
+     */
+    public synchronized int getDiscardedPacketCount() {
+        return mDiscardedCount;
+    }
+
+    public synchronized byte getMarcState() {
+        return mMarcState;
+    }
+
+    public synchronized int getRxFifoCount() {
+        return mRxCount;
+    }
+
+    public synchronized int getTxFifoCount() {
+        return mTxCount;
+    }
+
+    public synchronized byte getPaTable(int index) {
+        return mPaTable[index];
+    }
+
+    /**
+     * Returns the number of SPI transactions (slave select cycles) the chip went through.
+     *
+     * @return the number of SPI transactions
+     */
+    public synchronized long getTransactionCount() {
+        return mTransactionCount;
+    }
+
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    private void startTransaction() {
+        mHeader = -1;
+        mPaTableIndex = 0;
+        mChipReady = mMarcState != CC1101Constants.MARCSTATE_SLEEP;
+        if (!mChipReady) {
+            // Selecting the chip wakes it up, and ends Wake-on-Radio
+            mMarcState = CC1101Constants.MARCSTATE_IDLE;
+            mWakeOnRadio = false;
+        }
+    }
+
+    private void endTransaction() {
+        mHeader = -1;
+        mPaTableIndex = 0;
+        mTransactionCount++;
+        if (mMarcState == CC1101Constants.MARCSTATE_TX) {
+            transmit();
+        }
+        mEdgesToDispatch.addAll(mPendingEdges);
+        mPendingEdges.clear();
+    }
+
+    /**
+     * Calls the edge listeners for the edges caused by the last operation, outside of the lock
+     */
+    private void dispatchEdges() {
+        EdgeListener[] listeners = new EdgeListener[2];
+        int[] edges;
+        synchronized (this) {
+            if (mEdgesToDispatch.isEmpty()) {
+                return;
+            }
+            int count = 0;
+            for (int i = 0; i < mEdgesToDispatch.size(); i++) {
+                int edge = mEdgesToDispatch.get(i);
+                if (mEdgeListeners[edge >> 2] != null && (edge & 0x03) == mEdgeTriggers[edge >> 2]) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                mEdgesToDispatch.clear();
+                return;
+            }
+            listeners[GDO0] = mEdgeListeners[GDO0];
+            listeners[GDO2] = mEdgeListeners[GDO2];
+            edges = new int[count];
+            count = 0;
+            for (int i = 0; i < mEdgesToDispatch.size(); i++) {
+                int edge = mEdgesToDispatch.get(i);
+                if (mEdgeListeners[edge >> 2] != null && (edge & 0x03) == mEdgeTriggers[edge >> 2]) {
+                    edges[count++] = edge;
+                }
+            }
+            mEdgesToDispatch.clear();
+        }
+        for (int edge : edges) {
+            listeners[edge >> 2].onEdge();
+        }
+    }
+
+    private void setGdo0(boolean level) {
+        if (level == mGdo0Level) {
+            return;
+        }
+        mGdo0Level = level;
+        addEdge(GDO0, level);
+    }
+
+    /**
+     * Updates the GDO2 line when it signals a FIFO threshold
+     */
+    private void updateGdo2() {
+        int mode = mConfigRegs[CC1101Constants.CC1101_IOCFG2] & 0x3F;
+        int threshold = mConfigRegs[CC1101Constants.CC1101_FIFOTHR] & 0x0F;
+        boolean level;
+        if (mode == GDO_RX_FIFO_THRESHOLD) {
+            level = mRxCount >= 4 * (threshold + 1);
+        } else if (mode == GDO_TX_FIFO_THRESHOLD) {
+            level = mTxCount >= 65 - 4 * (threshold + 1);
+        } else {
+            return;
+        }
+        if (level != mGdo2Level) {
+            mGdo2Level = level;
+            addEdge(GDO2, level);
+        }
+    }
+
+    private void addEdge(int line, boolean level) {
+        List<Integer> edges = mSelected ? mPendingEdges : mEdgesToDispatch;
+        edges.add((line << 2) | (level ? EDGE_RISING : EDGE_FALLING));
+    }
+
+    /**
+     * Shifts one byte in and out of the chip
+     */
+    private byte exchange(byte mosi) {
+        if (!mChipReady) {
+            return (byte) 0xFF;
+        }
+        if (mHeader < 0) {
+            byte status = getStatusByte((mosi & CC1101Constants.READ_SINGLE) != 0);
+            mHeader = mosi & 0xFF;
+            mAddress = mosi & 0x3F;
+            if (isStrobe()) {
+                strobe((byte) mAddress);
+                mHeader = -1;
+            }
+            return status;
+        }
+
+        boolean read = (mHeader & CC1101Constants.READ_SINGLE) != 0;
+        boolean burst = (mHeader & CC1101Constants.WRITE_BURST) != 0;
+        byte miso = read ? readRegister(mAddress, burst) : getStatusByte(false);
+        if (!read) {
+            writeRegister(mAddress, mosi);
+        }
+        if (burst) {
+            if (mAddress < CC1101Constants.CC1101_COMPLETE_REGISTERS - 1
+                    || (mAddress >= CC1101Constants.CC1101_PARTNUM && mAddress < CC1101Constants.CC1101_PATABLE)) {
+                mAddress++;
+            }
+        } else {
+            mHeader = -1;
+        }
+        return miso;
+    }
+
+    private boolean isStrobe() {
+        return mAddress >= CC1101Constants.CC1101_SRES && mAddress <= CC1101Constants.CC1101_SNOP
+                && (mHeader & CC1101Constants.WRITE_BURST) == 0;
+    }
+
+    private byte readRegister(int address, boolean burst) {
+        if (address < CC1101Constants.CC1101_COMPLETE_REGISTERS) {
+            return mConfigRegs[address];
+        } else if (address == CC1101Constants.CC1101_RXFIFO) {
+            return popRxFifo();
+        } else if (address == CC1101Constants.CC1101_PATABLE) {
+            byte value = mPaTable[mPaTableIndex];
+            mPaTableIndex = (mPaTableIndex + 1) % mPaTable.length;
+            return value;
+        } else if (burst) {
+            return readStatusRegister(address);
+        }
+        return 0;
+    }
+
+    private byte readStatusRegister(int address) {
+        switch (address) {
+            case CC1101Constants.CC1101_PARTNUM:
+                return PARTNUM;
+            case CC1101Constants.CC1101_VERSION:
+                return VERSION;
+            case CC1101Constants.CC1101_LQI:
+                return mLqi;
+            case CC1101Constants.CC1101_RSSI:
+                return mRssi;
+            case CC1101Constants.CC1101_MARCSTATE:
+                return mMarcState;
+            case CC1101Constants.CC1101_PKTSTATUS:
+                return (byte) (mGdo0Level ? 0x01 : 0x00);
+            case CC1101Constants.CC1101_TXBYTES:
+                return (byte) ((mTxUnderflow ? 0x80 : 0x00) | mTxCount);
+            case CC1101Constants.CC1101_RXBYTES:
+                return (byte) ((mRxOverflow ? 0x80 : 0x00) | mRxCount);
+            case CC1101Constants.CC1101_RCCTRL1_STATUS:
+                return mConfigRegs[CC1101Constants.CC1101_RCCTRL1];
+            case CC1101Constants.CC1101_RCCTRL0_STATUS:
+                return mConfigRegs[CC1101Constants.CC1101_RCCTRL0];
+            default:
+                return 0;
+        }
+    }
+
+    private void writeRegister(int address, byte value) {
+        if (address < CC1101Constants.CC1101_COMPLETE_REGISTERS) {
+            mConfigRegs[address] = value;
+        } else if (address == CC1101Constants.CC1101_TXFIFO) {
+            pushTxFifo(value);
+        } else if (address == CC1101Constants.CC1101_PATABLE) {
+            mPaTable[mPaTableIndex] = value;
+            mPaTableIndex = (mPaTableIndex + 1) % mPaTable.length;
+        }
+    }
+
+    private void strobe(byte command) {
+        switch (command) {
+            case CC1101Constants.CC1101_SRES:
+                resetChip();
+                break;
+            case CC1101Constants.CC1101_SFSTXON:
+                mMarcState = CC1101Constants.MARCSTATE_FSTXON;
+                break;
+            case CC1101Constants.CC1101_SXOFF:
+                mMarcState = CC1101Constants.MARCSTATE_XOFF;
+                break;
+            case CC1101Constants.CC1101_SCAL:
+                calibrate();
+                mMarcState = CC1101Constants.MARCSTATE_IDLE;
+                break;
+            case CC1101Constants.CC1101_SRX:
+                if (mMarcState != CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW
+                        && mMarcState != CC1101Constants.MARCSTATE_TXFIFO_UNDEFLOW) {
+                    autoCalibrate();
+                    mMarcState = CC1101Constants.MARCSTATE_RX;
+                }
+                break;
+            case CC1101Constants.CC1101_STX:
+                if (mMarcState != CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW
+                        && mMarcState != CC1101Constants.MARCSTATE_TXFIFO_UNDEFLOW) {
+                    autoCalibrate();
+                    mMarcState = CC1101Constants.MARCSTATE_TX;
+                    transmit();
+                }
+                break;
+            case CC1101Constants.CC1101_SIDLE:
+                mMarcState = CC1101Constants.MARCSTATE_IDLE;
+                mWakeOnRadio = false;
+                mPartialPayload = null;
+                setGdo0(false);
+                break;
+            case CC1101Constants.CC1101_SWOR:
+                if (mMarcState == CC1101Constants.MARCSTATE_IDLE) {
+                    mMarcState = CC1101Constants.MARCSTATE_SLEEP;
+                    mWakeOnRadio = true;
+                }
+                break;
+            case CC1101Constants.CC1101_SPWD:
+                mMarcState = CC1101Constants.MARCSTATE_SLEEP;
+                mWakeOnRadio = false;
+                break;
+            case CC1101Constants.CC1101_SFRX:
+                if (mMarcState == CC1101Constants.MARCSTATE_IDLE
+                        || mMarcState == CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW) {
+                    mRxHead = 0;
+                    mRxCount = 0;
+                    mRxOverflow = false;
+                    updateGdo2();
+                    mMarcState = CC1101Constants.MARCSTATE_IDLE;
+                }
+                break;
+            case CC1101Constants.CC1101_SFTX:
+                if (mMarcState == CC1101Constants.MARCSTATE_IDLE
+                        || mMarcState == CC1101Constants.MARCSTATE_TXFIFO_UNDEFLOW) {
+                    mTxHead = 0;
+                    mTxCount = 0;
+                    mTxUnderflow = false;
+                    mTxPacketLength = 0;
+                    updateGdo2();
+                    mMarcState = CC1101Constants.MARCSTATE_IDLE;
+                }
+                break;
+            default:
+                // SWORRST and SNOP have no visible effect
+                break;
+        }
+    }
+
+    private void resetChip() {
+        System.arraycopy(RESET_VALUES, 0, mConfigRegs, 0, RESET_VALUES.length);
+        Arrays.fill(mPaTable, (byte) 0);
+        mPaTableIndex = 0;
+        mRxHead = 0;
+        mRxCount = 0;
+        mRxOverflow = false;
+        mTxHead = 0;
+        mTxCount = 0;
+        mTxUnderflow = false;
+        mMarcState = CC1101Constants.MARCSTATE_IDLE;
+        mWakeOnRadio = false;
+        mGdo0Level = false;
+        mGdo2Level = false;
+        mTxPacketLength = 0;
+    }
+
+    /**
+     * Produces channel dependent calibration results in FSCAL3, FSCAL2 and FSCAL1
+     */
+    private void calibrate() {
+        mCalibrationCount++;
+        int channel = mConfigRegs[CC1101Constants.CC1101_CHANNR] & 0xFF;
+        mConfigRegs[CC1101Constants.CC1101_FSCAL3] = (byte) ((mConfigRegs[CC1101Constants.CC1101_FSCAL3] & 0xF0) | (channel & 0x0F));
+        mConfigRegs[CC1101Constants.CC1101_FSCAL2] = (byte) (0x20 | ((channel >> 4) & 0x0F));
+        mConfigRegs[CC1101Constants.CC1101_FSCAL1] = (byte) (channel & 0x3F);
+    }
+
+    /**
+     * Calibrates when going from IDLE to RX or TX, if the FS_AUTOCAL field of MCSM0 is 1
+     */
+    private void autoCalibrate() {
+        if (mMarcState == CC1101Constants.MARCSTATE_IDLE
+                && ((mConfigRegs[CC1101Constants.CC1101_MCSM0] >> 4) & 0x03) == 1) {
+            calibrate();
+        }
+    }
+
+    private byte getStatusByte(boolean read) {
+        int state;
+        switch (mMarcState) {
+            case CC1101Constants.MARCSTATE_IDLE:
+                state = 0;
+                break;
+            case CC1101Constants.MARCSTATE_RX:
+            case CC1101Constants.MARCSTATE_RX_END:
+            case CC1101Constants.MARCSTATE_RX_RST:
+                state = 1;
+                break;
+            case CC1101Constants.MARCSTATE_TX:
+            case CC1101Constants.MARCSTATE_TX_END:
+                state = 2;
+                break;
+            case CC1101Constants.MARCSTATE_FSTXON:
+                state = 3;
+                break;
+            case CC1101Constants.MARCSTATE_STARTCAL:
+            case CC1101Constants.MARCSTATE_ENDCAL:
+                state = 4;
+                break;
+            case CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW:
+                state = 6;
+                break;
+            case CC1101Constants.MARCSTATE_TXFIFO_UNDEFLOW:
+                state = 7;
+                break;
+            default:
+                state = 5;
+                break;
+        }
+        int fifoBytes = read ? mRxCount : FIFO_SIZE - 1 - mTxCount;
+        return (byte) ((state << 4) | Math.min(15, Math.max(0, fifoBytes)));
+    }
+
+    private boolean receivePacket(byte[] payload, byte rssi, byte lqi, boolean crcOk) {
+        if (mWakeOnRadio && mMarcState == CC1101Constants.MARCSTATE_SLEEP) {
+            // The preamble is assumed to last long enough for the next wake up to catch it
+            mWakeUpCount++;
+            mWakeOnRadio = false;
+            autoCalibrate();
+            mMarcState = CC1101Constants.MARCSTATE_RX;
+        }
+        if (mMarcState != CC1101Constants.MARCSTATE_RX) {
+            return false;
+        }
+        boolean variableLength = (mConfigRegs[CC1101Constants.CC1101_PKTCTRL0] & 0x03) == LENGTH_VARIABLE;
+
+        setGdo0(true);
+        if (mPacketFiltering && !acceptPacket(payload, variableLength)) {
+            // The packet is discarded after its length and address bytes, and the chip restarts RX
+            setGdo0(false);
+            mDiscardedCount++;
+            return false;
+        }
+        boolean fits = true;
+        if (variableLength) {
+            fits = pushRxFifo((byte) payload.length);
+        }
+        for (int i = 0; i < payload.length && fits; i++) {
+            fits = pushRxFifo(payload[i]);
+        }
+        if (!fits) {
+            setGdo0(false);
+            mRxOverflow = true;
+            mMarcState = CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW;
+            return false;
+        }
+        return endReception(rssi, lqi, crcOk);
+    }
+
+    /**
+     * Applies the address check and the maximum length of the packet filtering
+     */
+    private boolean acceptPacket(byte[] payload, boolean variableLength) {
+        if (variableLength && payload.length > (mConfigRegs[CC1101Constants.CC1101_PKTLEN] & 0xFF)) {
+            return false;
+        }
+        int addressCheck = mConfigRegs[CC1101Constants.CC1101_PKTCTRL1] & 0x03;
+        if (addressCheck == 0) {
+            return true;
+        }
+        int address = payload.length > 0 ? payload[0] & 0xFF : -1;
+        return address == (mConfigRegs[CC1101Constants.CC1101_ADDR] & 0xFF)
+                || (addressCheck >= 2 && address == 0x00)
+                || (addressCheck == 3 && address == 0xFF);
+    }
+
+    /**
+     * Appends the status bytes if needed, then ends the reception of a packet
+     */
+    private boolean endReception(byte rssi, byte lqi, boolean crcOk) {
+        mRssi = rssi;
+        mLqi = (byte) ((crcOk ? 0x80 : 0x00) | (lqi & 0x7F));
+        boolean appendStatus = (mConfigRegs[CC1101Constants.CC1101_PKTCTRL1] & 0x04) != 0;
+        boolean fits = !appendStatus || (pushRxFifo(mRssi) && pushRxFifo(mLqi));
+        setGdo0(false);
+
+        if (fits && !crcOk && mPacketFiltering && (mConfigRegs[CC1101Constants.CC1101_PKTCTRL1] & 0x08) != 0) {
+            // CRC_AUTOFLUSH flushes the whole RX FIFO
+            mRxHead = 0;
+            mRxCount = 0;
+            updateGdo2();
+            mDiscardedCount++;
+            mMarcState = getOffState((mConfigRegs[CC1101Constants.CC1101_MCSM1] >> 2) & 0x03);
+            return false;
+        }
+
+        if (!fits) {
+            mRxOverflow = true;
+            mMarcState = CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW;
+            return false;
+        }
+        mMarcState = getOffState((mConfigRegs[CC1101Constants.CC1101_MCSM1] >> 2) & 0x03);
+        return true;
+    }
+
+    /**
+     * Sends the content of the TX FIFO while the chip stays in TX state. A packet ends after the
+     * length byte in variable packet length mode, or when the byte counter reaches PKTLEN (modulo
+     * 256) in fixed packet length mode. In infinite packet length mode, the packet goes on until
+     * the driver switches to fixed packet length mode.
+     */
+    private void transmit() {
+        while (mMarcState == CC1101Constants.MARCSTATE_TX && mTxCount > 0) {
+            int lengthConfig = mConfigRegs[CC1101Constants.CC1101_PKTCTRL0] & 0x03;
+            if (mTxPacketLength == 0) {
+                mTxExpectedLength = (mTxFifo[mTxHead] & 0xFF) + 1;
+                setGdo0(true);
+            }
+            if (mTxPacketLength == mTxPacket.length) {
+                mTxPacket = Arrays.copyOf(mTxPacket, mTxPacket.length * 2);
+            }
+            mTxPacket[mTxPacketLength++] = mTxFifo[mTxHead];
+            mTxHead = (mTxHead + 1) % FIFO_SIZE;
+            mTxCount--;
+
+            int pktLen = mConfigRegs[CC1101Constants.CC1101_PKTLEN] & 0xFF;
+            if ((lengthConfig == LENGTH_FIXED && mTxPacketLength % 256 == pktLen)
+                    || (lengthConfig == LENGTH_VARIABLE && mTxPacketLength == mTxExpectedLength)) {
+                mTransmittedPackets.add(Arrays.copyOf(mTxPacket, mTxPacketLength));
+                mTxPacketLength = 0;
+                setGdo0(false);
+                mMarcState = getOffState(mConfigRegs[CC1101Constants.CC1101_MCSM1] & 0x03);
+            }
+        }
+        updateGdo2();
+    }
+
+    /**
+     * Returns the MARCSTATE matching a RXOFF_MODE or TXOFF_MODE value of MCSM1
+     */
+    private byte getOffState(int offMode) {
+        switch (offMode) {
+            case 1:
+                return CC1101Constants.MARCSTATE_FSTXON;
+            case 2:
+                return CC1101Constants.MARCSTATE_TX;
+            case 3:
+                return CC1101Constants.MARCSTATE_RX;
+            default:
+                return CC1101Constants.MARCSTATE_IDLE;
+        }
+    }
+
+    private boolean pushRxFifo(byte value) {
+        if (mRxCount == FIFO_SIZE) {
+            return false;
+        }
+        mRxFifo[(mRxHead + mRxCount) % FIFO_SIZE] = value;
+        mRxCount++;
+        updateGdo2();
+        return true;
+    }
+
+    private byte popRxFifo() {
+        if (mRxCount == 0) {
+            return mRxFifo[(mRxHead + FIFO_SIZE - 1) % FIFO_SIZE];
+        }
+        byte value = mRxFifo[mRxHead];
+        mRxHead = (mRxHead + 1) % FIFO_SIZE;
+        mRxCount--;
+        updateGdo2();
+        notifyAll();
+        return value;
+    }
+
+    private void pushTxFifo(byte value) {
+        if (mTxCount == FIFO_SIZE) {
+            mTxUnderflow = true;
+            mMarcState = CC1101Constants.MARCSTATE_TXFIFO_UNDEFLOW;
+            return;
+        }
+        mTxFifo[(mTxHead + mTxCount) % FIFO_SIZE] = value;
+        mTxCount++;
+        updateGdo2();
+    }
+}
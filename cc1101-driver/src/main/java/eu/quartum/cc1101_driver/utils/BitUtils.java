@@ -49,13 +49,24 @@ public class BitUtils {
      * @return a string
      */
     public static String getHexValue(byte[] array){
+        return getHexValue(array, 0, array.length);
+    }
+
+    /**
+     * Returns the string hex representation of a part of a byte array
+     * @param array the array
+     * @param offset the index of the first byte to represent
+     * @param length the number of bytes to represent
+     * @return a string
+     */
+    public static String getHexValue(byte[] array, int offset, int length){
         char[] symbols="0123456789ABCDEF".toCharArray();
-        char[] hexValue = new char[array.length * 2];
+        char[] hexValue = new char[length * 2];
 
-        for(int i=0;i<array.length;i++)
+        for(int i=0;i<length;i++)
         {
             //convert the byte to an int
-            int current = array[i] & 0xff;
+            int current = array[offset + i] & 0xff;
             //determine the Hex symbol for the last 4 bits
             hexValue[i*2+1] = symbols[current & 0x0f];
             //determine the Hex symbol for the first 4 bits
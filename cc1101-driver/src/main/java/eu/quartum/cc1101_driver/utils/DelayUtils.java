@@ -0,0 +1,20 @@
+package eu.quartum.cc1101_driver.utils;
+
+/**
+ * Short delays for the timing requirements of the CC1101. Thread.sleep() cannot wait for a few
+ * microseconds : it is rounded up to the scheduler granularity, often a millisecond or more.
+ */
+public class DelayUtils {
+    /**
+     * Busy waits for at least the given duration, without giving the CPU away. Only meant for
+     * waits of a few microseconds.
+     *
+     * @param nanos the duration to wait, in nanoseconds
+     */
+    public static void busyWaitNanos(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() - end < 0) {
+            // spin
+        }
+    }
+}
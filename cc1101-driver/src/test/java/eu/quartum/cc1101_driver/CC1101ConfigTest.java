@@ -0,0 +1,109 @@
+package eu.quartum.cc1101_driver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CC1101ConfigTest {
+    @Test
+    public void decodeRegisterImage() {
+        CC1101Config config = CC1101Config.GFSK_1_2_kb;
+        assertEquals(868299865, config.getFrequency());
+        assertEquals(1199, config.getDataRate());
+        assertEquals(5157, config.getDeviation());
+        assertEquals(CC1101Config.Modulation.GFSK, config.getModulation());
+        assertEquals(0x5743, config.getSyncWord());
+        assertEquals(CC1101Config.PacketLengthMode.VARIABLE, config.getPacketLengthMode());
+        assertEquals(0x3E, config.getPacketLength());
+        assertTrue(config.isCrcEnabled());
+        assertEquals(CC1101Config.AddressCheck.ADDRESS_BROADCAST_0, config.getAddressCheck());
+        assertEquals(0x06, config.getGdo0Mode());
+        assertEquals(0x29, config.getGdo2Mode());
+    }
+
+    @Test
+    public void buildRegisterImage() {
+        CC1101Config config = new CC1101Config.Builder()
+                .setFrequency(433920000)
+                .setDataRate(38400)
+                .setDeviation(20000)
+                .setModulation(CC1101Config.Modulation.FSK_2)
+                .setSyncWord(0xD391)
+                .setPacketLengthMode(CC1101Config.PacketLengthMode.FIXED)
+                .setPacketLength(20)
+                .setCrcEnabled(false)
+                .setAddressCheck(CC1101Config.AddressCheck.ADDRESS, 0x12)
+                .setGdo2Mode(0x07)
+                .build();
+
+        byte[] registers = config.getConfig();
+        assertEquals(0x10, registers[CC1101Constants.CC1101_FREQ2]);
+        assertEquals((byte) 0xB0, registers[CC1101Constants.CC1101_FREQ1]);
+        assertEquals(0x71, registers[CC1101Constants.CC1101_FREQ0]);
+        assertEquals((byte) 0xFA, registers[CC1101Constants.CC1101_MDMCFG4]);
+        assertEquals((byte) 0x83, registers[CC1101Constants.CC1101_MDMCFG3]);
+        assertEquals(0x35, registers[CC1101Constants.CC1101_DEVIATN]);
+        assertEquals(0x03, registers[CC1101Constants.CC1101_MDMCFG2]);
+        assertEquals(0x01, registers[CC1101Constants.CC1101_PKTCTRL1] & 0x03);
+        assertEquals(0x40, registers[CC1101Constants.CC1101_PKTCTRL0]);
+
+        assertEquals(433919830, config.getFrequency());
+        assertEquals(38383, config.getDataRate());
+        assertEquals(20629, config.getDeviation());
+        assertEquals(0xD391, config.getSyncWord());
+        assertEquals(20, config.getPacketLength());
+        assertFalse(config.isCrcEnabled());
+        assertEquals(0x12, config.getAddress());
+        assertEquals(0x07, config.getGdo2Mode());
+    }
+
+    @Test
+    public void builderStartsFromAConfiguration() {
+        CC1101Config config = CC1101Config.GFSK_1_2_kb.toBuilder().build();
+        assertArrayEquals(CC1101Config.GFSK_1_2_kb.getConfig(), config.getConfig());
+    }
+
+    @Test
+    public void buildPacketFiltering() {
+        CC1101Config config = new CC1101Config.Builder()
+                .setAddressCheck(CC1101Config.AddressCheck.ADDRESS_BROADCAST_0_255, 0x42)
+                .setCrcAutoflush(false)
+                .setPreambleQualityThreshold(3)
+                .setSyncMode(CC1101Config.SyncMode.CARRIER_SENSE_30_32)
+                .build();
+        assertEquals(0x67, config.getConfig()[CC1101Constants.CC1101_PKTCTRL1]);
+        assertEquals(0x17, config.getConfig()[CC1101Constants.CC1101_MDMCFG2]);
+        assertEquals(CC1101Config.AddressCheck.ADDRESS_BROADCAST_0_255, config.getAddressCheck());
+        assertFalse(config.isCrcAutoflushEnabled());
+        assertEquals(3, config.getPreambleQualityThreshold());
+        assertEquals(CC1101Config.SyncMode.CARRIER_SENSE_30_32, config.getSyncMode());
+        assertTrue(CC1101Config.GFSK_1_2_kb.isCrcAutoflushEnabled());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void crcAutoflushWithoutCrc() {
+        new CC1101Config.Builder().setCrcEnabled(false).setCrcAutoflush(true).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void frequencyOutOfBand() {
+        new CC1101Config.Builder().setFrequency(500000000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dataRateOutOfRange() {
+        new CC1101Config.Builder().setDataRate(5000000);
+    }
+
+    @Test
+    public void encodeWakeOnRadio() {
+        // 1s is 34666 EVENT0 periods of 750 / 26MHz, 12.5% / 2^4 is below 1%
+        assertEquals((0 << 20) | (4 << 16) | 34666, CC1101Config.encodeWakeOnRadio(1000000, 0.01));
+        // 0.1% needs WOR_RES = 1 : 1.95% / 2^5
+        assertEquals((1 << 20) | (5 << 16) | 1083, CC1101Config.encodeWakeOnRadio(1000000, 0.001));
+        assertEquals(-1, CC1101Config.encodeWakeOnRadio(10, 0.01));
+    }
+}
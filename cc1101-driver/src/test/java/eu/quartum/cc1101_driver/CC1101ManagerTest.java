@@ -0,0 +1,782 @@
+package eu.quartum.cc1101_driver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.quartum.cc1101_driver.trace.RingBufferTraceSink;
+import eu.quartum.cc1101_driver.trace.TraceLevel;
+import eu.quartum.cc1101_driver.transport.SimulatedCC1101Transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CC1101ManagerTest {
+    private final static long TIMEOUT_MS = 2000;
+
+    private SimulatedCC1101Transport mTransport;
+    private CC1101Manager mManager;
+    private final BlockingQueue<CC1101Packet> mPackets = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mTransport = new SimulatedCC1101Transport();
+        mManager = new CC1101Manager(mTransport, CC1101Config.GFSK_1_2_kb);
+        mManager.setPacketListener(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                mPackets.add(packet);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    private void start() {
+        mManager.setup();
+        mManager.setRxState();
+    }
+
+    /**
+     * Checks the chip registers, except FSCAL3 to FSCAL1 which the calibration on SRX updates
+     */
+    private void assertRegisters(byte[] config) {
+        for (byte i = CC1101Constants.CC1101_IOCFG2; i <= CC1101Constants.CC1101_TEST0; i++) {
+            if (i < CC1101Constants.CC1101_FSCAL3 || i > CC1101Constants.CC1101_FSCAL1) {
+                assertEquals("Register " + i, config[i], mTransport.getConfigRegister(i));
+            }
+        }
+    }
+
+    private CC1101Packet nextPacket() throws InterruptedException {
+        CC1101Packet packet = mPackets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull("No packet received", packet);
+        return packet;
+    }
+
+    @Test
+    public void setupUploadsConfiguration() throws Exception {
+        start();
+        byte[] config = CC1101Config.GFSK_1_2_kb.getConfig();
+        assertRegisters(config);
+        assertEquals((byte) 0xC0, mTransport.getPaTable(0));
+        assertEquals(3, mManager.getLastSetupTransactionCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+
+    @Test
+    public void receivePacket() throws Exception {
+        start();
+        byte[] payload = new byte[] { 0x01, 0x02, 0x03, 0x04 };
+        assertTrue(mTransport.injectPacket(payload, (byte) 0x50, (byte) 0x2A, true));
+
+        CC1101Packet packet = nextPacket();
+        assertEquals(payload.length, packet.getLength());
+        assertArrayEquals(payload, packet.data);
+        assertEquals((byte) 0x50, packet.rssi);
+        assertEquals((byte) 0x2A, packet.lqi);
+        assertTrue(packet.crcOk);
+    }
+
+    @Test
+    public void hardwareChipSelect() throws Exception {
+        mManager.close();
+        mTransport = new SimulatedCC1101Transport(true);
+        mManager = new CC1101Manager(mTransport, CC1101Config.GFSK_1_2_kb);
+        mManager.setPacketListener(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                mPackets.add(packet);
+            }
+        });
+        start();
+        assertEquals(CC1101Config.GFSK_1_2_kb.getConfig()[CC1101Constants.CC1101_PKTCTRL0],
+                mTransport.getConfigRegister(CC1101Constants.CC1101_PKTCTRL0));
+
+        // One IPC per register access
+        long ipcs = mManager.getIpcCount();
+        long transactions = mManager.getSpiTransactionCount();
+        byte[] payload = new byte[] { 0x01, 0x02, 0x03 };
+        mTransport.injectPacket(payload, (byte) 0x50, (byte) 0x2A, true);
+        assertArrayEquals(payload, nextPacket().data);
+        assertEquals(mManager.getSpiTransactionCount() - transactions, mManager.getIpcCount() - ipcs);
+    }
+
+    @Test
+    public void gpioChipSelectIpcCount() throws Exception {
+        start();
+        long ipcs = mManager.getIpcCount();
+        mManager.setIdleState();
+        // Select, strobe, deselect
+        assertEquals(3, mManager.getIpcCount() - ipcs);
+
+        // Reads send the header and receive the value in the same transfer
+        mTransport.setGdo0Listener(null);
+        ipcs = mManager.getIpcCount();
+        assertEquals(0, mManager.receiveData().length);
+        assertEquals(3, mManager.getIpcCount() - ipcs);
+        assertEquals(CC1101Status.STATE_IDLE, CC1101Status.getState(mManager.getChipStatus()));
+    }
+
+    @Test
+    public void setChannelWritesOnlyChannr() throws Exception {
+        start();
+        long transactions = mTransport.getTransactionCount();
+        mManager.setChannel(5);
+        // SIDLE, SFRX, CHANNR and SRX
+        assertEquals(4, mTransport.getTransactionCount() - transactions);
+        assertEquals(5, mTransport.getConfigRegister(CC1101Constants.CC1101_CHANNR));
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+
+        transactions = mTransport.getTransactionCount();
+        mManager.setChannel(5);
+        assertEquals(0, mTransport.getTransactionCount() - transactions);
+    }
+
+    @Test
+    public void setConfigCoalescesChangedRegisters() throws Exception {
+        start();
+        byte[] config = CC1101Config.GFSK_1_2_kb.getConfig();
+        config[CC1101Constants.CC1101_SYNC1] = 0x12;
+        config[CC1101Constants.CC1101_ADDR] = 0x34;
+        config[CC1101Constants.CC1101_DEVIATN] = 0x47;
+        long transactions = mTransport.getTransactionCount();
+        mManager.setConfig(new CC1101Config(config));
+        // SYNC1 to ADDR in one burst, DEVIATN alone, between SIDLE, SFRX and SRX
+        assertEquals(5, mTransport.getTransactionCount() - transactions);
+        assertRegisters(config);
+        assertTrue(mManager.verifyRegisters());
+    }
+
+    @Test
+    public void hopUsesCachedCalibrations() throws Exception {
+        start();
+        mManager.calibrateChannels();
+        int calibrations = mTransport.getCalibrationCount();
+        assertEquals(0, mTransport.getConfigRegister(CC1101Constants.CC1101_MCSM0) & 0x30);
+
+        long transactions = mTransport.getTransactionCount();
+        mManager.hop(7);
+        // SIDLE, CHANNR, FSCAL3 to FSCAL1 and SRX
+        assertEquals(4, mTransport.getTransactionCount() - transactions);
+        assertEquals(calibrations, mTransport.getCalibrationCount());
+        assertEquals(7, mTransport.getConfigRegister(CC1101Constants.CC1101_CHANNR));
+        assertEquals(7, mTransport.getConfigRegister(CC1101Constants.CC1101_FSCAL1));
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+        assertTrue(mManager.getLastHopLatencyNanos() > 0);
+
+        // Channels outside of the calibrated set are calibrated by their first hop
+        mManager.setChannel(42);
+        assertEquals(calibrations + 1, mTransport.getCalibrationCount());
+        assertEquals(42, mTransport.getConfigRegister(CC1101Constants.CC1101_FSCAL1));
+    }
+
+    @Test
+    public void reconfigureKeepsCachedCalibration() throws Exception {
+        start();
+        int autocal = CC1101Config.GFSK_1_2_kb.getConfig()[CC1101Constants.CC1101_MCSM0] & 0x30;
+        mManager.hop(7);
+        int calibrations = mTransport.getCalibrationCount();
+
+        mManager.setDataRate(38400);
+        assertEquals(7, mTransport.getConfigRegister(CC1101Constants.CC1101_CHANNR));
+        assertEquals(7, mTransport.getConfigRegister(CC1101Constants.CC1101_FSCAL1));
+        assertEquals(0, mTransport.getConfigRegister(CC1101Constants.CC1101_MCSM0) & 0x30);
+        assertEquals(calibrations, mTransport.getCalibrationCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+
+        // The calibrations do not hold at another frequency : the chip calibrates itself again
+        mManager.setFrequency(869500000);
+        assertEquals(autocal, mTransport.getConfigRegister(CC1101Constants.CC1101_MCSM0) & 0x30);
+        assertEquals(calibrations + 1, mTransport.getCalibrationCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+
+    @Test
+    public void setDataRate() throws Exception {
+        start();
+        mManager.setDataRate(38400);
+        assertEquals((byte) 0xFA, mTransport.getConfigRegister(CC1101Constants.CC1101_MDMCFG4));
+        assertEquals((byte) 0x83, mTransport.getConfigRegister(CC1101Constants.CC1101_MDMCFG3));
+    }
+
+    @Test
+    public void cachedChipStatus() throws Exception {
+        start();
+        mManager.setIdleState();
+        // The status received with a strobe is the state before the strobe : it is not cached
+        long transactions = mTransport.getTransactionCount();
+        byte status = mManager.getChipStatus(1000);
+        assertEquals(1, mTransport.getTransactionCount() - transactions);
+        assertEquals(CC1101Status.STATE_IDLE, CC1101Status.getState(status));
+
+        transactions = mTransport.getTransactionCount();
+        mManager.getChipStatus(1000);
+        assertEquals(0, mTransport.getTransactionCount() - transactions);
+
+        // A stale status is refreshed with a SNOP strobe
+        mManager.getChipStatus(0);
+        assertEquals(1, mTransport.getTransactionCount() - transactions);
+    }
+
+    @Test
+    public void supervisorRecoversFromStuckState() throws Exception {
+        start();
+        mManager.setIdleState();
+        waitForRecovery(CC1101Manager.Recovery.STUCK_STATE);
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+
+    @Test
+    public void supervisorRecoversFromRxFifoOverflow() throws Exception {
+        start();
+        mTransport.setGdo0Listener(null);
+        mTransport.injectPacket(new byte[40], (byte) 0, (byte) 0, true);
+        mTransport.injectPacket(new byte[40], (byte) 0, (byte) 0, true);
+        waitForRecovery(CC1101Manager.Recovery.RX_FIFO_OVERFLOW);
+        assertEquals(0, mTransport.getRxFifoCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+        assertEquals(0, mManager.getRecoveryCount(CC1101Manager.Recovery.STUCK_STATE));
+    }
+
+    private void waitForRecovery(CC1101Manager.Recovery recovery) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mManager.getRecoveryCount(recovery) == 0) {
+            assertTrue("No recovery from " + recovery, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void receivePacketsWithAppendedStatusInThreeTransactions() throws Exception {
+        start();
+        for (int i = 0; i < 3; i++) {
+            long transactions = mTransport.getTransactionCount();
+            mTransport.injectPacket(new byte[] { (byte) i, 0x10 }, (byte) (0x40 + i), (byte) 0x20, true);
+
+            CC1101Packet packet = nextPacket();
+            // RXBYTES, the FIFO but its last byte, then the last byte once it is known to end the packet
+            assertEquals(3, mTransport.getTransactionCount() - transactions);
+            assertArrayEquals(new byte[] { (byte) i, 0x10 }, packet.data);
+            assertEquals((byte) (0x40 + i), packet.rssi);
+            assertEquals(0x20, packet.lqi);
+        }
+        assertEquals(0, mTransport.getRxFifoCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+
+    @Test
+    public void keepLastByteOfPacketBeingReceived() throws Exception {
+        start();
+        mTransport.setGdo0Listener(null);
+        mTransport.injectPacket(new byte[] { 1, 2 }, (byte) 0x40, (byte) 0x20, true);
+        mTransport.startPacket(new byte[] { 3, 4, 5 }, 2);
+
+        CC1101Packet packet = mManager.receiveData();
+        assertArrayEquals(new byte[] { 1, 2 }, packet.data);
+        // The RX FIFO is not emptied while the second packet is received
+        assertEquals(1, mTransport.getRxFifoCount());
+
+        long transactions = mTransport.getTransactionCount();
+        mTransport.finishPacket((byte) 0x41, (byte) 0x21, true);
+        packet = mManager.receiveData();
+        assertArrayEquals(new byte[] { 3, 4, 5 }, packet.data);
+        assertEquals((byte) 0x41, packet.rssi);
+        assertEquals(0x21, packet.lqi);
+        // The length byte already drained shows that the FIFO ends on the packet : it is read in one burst
+        assertEquals(2, mTransport.getTransactionCount() - transactions);
+        assertEquals(0, mTransport.getRxFifoCount());
+    }
+
+    @Test
+    public void recoverFromRxFifoOverflow() throws Exception {
+        start();
+        mTransport.setGdo0Listener(null);
+        mTransport.injectPacket(new byte[40], (byte) 0, (byte) 0, true);
+        mTransport.injectPacket(new byte[40], (byte) 0, (byte) 0, true);
+        assertEquals(CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW, mTransport.getMarcState());
+
+        CC1101Packet packet = mManager.receiveData();
+        assertEquals(-1, packet.length);
+        assertEquals(0, mTransport.getRxFifoCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+        assertEquals(1, mManager.getMetrics().getFifoOverflows());
+    }
+
+    @Test
+    public void flushOversizedPacketWithoutAppendedStatus() throws Exception {
+        start();
+        mManager.setConfig(CC1101Config.GFSK_1_2_kb.toBuilder()
+                .setRegister(CC1101Constants.CC1101_PKTCTRL1, (byte) 0x00)
+                .build());
+        mTransport.setGdo0Listener(null);
+        mTransport.injectPacket(new byte[62], (byte) 0, (byte) 0, true);
+
+        assertEquals(-2, mManager.receiveData().length);
+        assertEquals(0, mTransport.getRxFifoCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+        assertEquals(1, mManager.getRecoveryCount(CC1101Manager.Recovery.INVALID_PACKET));
+
+        mTransport.injectPacket(new byte[] { 7, 8 }, (byte) 0, (byte) 0, true);
+        CC1101Packet packet = mManager.receiveData();
+        assertEquals(2, packet.getLength());
+        assertArrayEquals(new byte[] { 7, 8 }, packet.data);
+    }
+
+    @Test
+    public void countEmptyReadsPerDrain() throws Exception {
+        start();
+        mManager.setConfig(CC1101Config.GFSK_1_2_kb.toBuilder()
+                .setRegister(CC1101Constants.CC1101_PKTCTRL1, (byte) 0x00)
+                .build());
+        for (int i = 0; i < 3; i++) {
+            mTransport.injectPacket(new byte[] { (byte) i }, (byte) 0, (byte) 0, true);
+            assertArrayEquals(new byte[] { (byte) i }, nextPacket().data);
+        }
+        // Each drain ends on an empty FIFO, which is not an empty read
+        assertEquals(0, mManager.getMetrics().getEmptyReads());
+
+        mTransport.setGdo0Listener(null);
+        assertEquals(0, mManager.receiveData().length);
+        assertEquals(1, mManager.getMetrics().getEmptyReads());
+    }
+
+    @Test
+    public void wakeOnRadio() throws Exception {
+        start();
+        mManager.setWakeOnRadioState(1000, 0.01);
+        assertTrue(mTransport.isWakeOnRadioActive());
+        // EVENT0 = 34666, RX_TIME_QUAL and RX_TIME = 4, RC oscillator on
+        assertEquals((byte) 0x87, mTransport.getConfigRegister(CC1101Constants.CC1101_WOREVT1));
+        assertEquals((byte) 0x6A, mTransport.getConfigRegister(CC1101Constants.CC1101_WOREVT0));
+        assertEquals((byte) 0x0C, mTransport.getConfigRegister(CC1101Constants.CC1101_MCSM2));
+        assertEquals((byte) 0x08, mTransport.getConfigRegister(CC1101Constants.CC1101_WORCTRL));
+
+        mTransport.injectPacket(new byte[] { 1, 2 }, (byte) 0, (byte) 0, true);
+        assertArrayEquals(new byte[] { 1, 2 }, nextPacket().data);
+        assertEquals(1, mTransport.getWakeUpCount());
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!mTransport.isWakeOnRadioActive()) {
+            assertTrue("Wake-on-Radio not restarted", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        mManager.setRxState();
+        assertFalse(mTransport.isWakeOnRadioActive());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+        assertRegisters(CC1101Config.GFSK_1_2_kb.getConfig());
+    }
+
+    @Test
+    public void traceStrobesAndPackets() throws Exception {
+        RingBufferTraceSink sink = new RingBufferTraceSink(64);
+        mManager.setTraceSink(sink, TraceLevel.DEBUG);
+        start();
+        mTransport.injectPacket(new byte[] { 1, 2 }, (byte) 0x50, (byte) 0x2A, true);
+        nextPacket();
+
+        String trace = sink.dump();
+        assertTrue(trace, trace.contains("STROBE SRX"));
+        assertTrue(trace, trace.contains("PACKET_RECEIVED length 2, crc ok, rssi 50, lqi 2A"));
+        assertFalse(trace, trace.contains("REGISTER_WRITE"));
+    }
+
+    @Test
+    public void filterPacketsInChipAndHost() throws Exception {
+        start();
+        mTransport.setPacketFilteringEnabled(true);
+        mManager.setConfig(CC1101Config.GFSK_1_2_kb.toBuilder()
+                .setAddressCheck(CC1101Config.AddressCheck.ADDRESS_BROADCAST_0, 0x10)
+                .build());
+        CC1101Manager.PacketFilter noBroadcast = PacketFilters.addresses(0x10);
+        mManager.addPacketFilter(PacketFilters.CRC_OK);
+        mManager.addPacketFilter(noBroadcast);
+
+        mTransport.injectPacket(new byte[] { 0x22, 1 }, (byte) 0, (byte) 0, true);
+        awaitHardwareRejections(1);
+        mTransport.injectPacket(new byte[] { 0x10, 2 }, (byte) 0, (byte) 0, false);
+        awaitHardwareRejections(2);
+        mTransport.injectPacket(new byte[] { 0x00, 3 }, (byte) 0, (byte) 0, true);
+        mTransport.injectPacket(new byte[] { 0x10, 4 }, (byte) 0, (byte) 0, true);
+
+        assertArrayEquals(new byte[] { 0x10, 4 }, nextPacket().data);
+        assertEquals(2, mTransport.getDiscardedPacketCount());
+        CC1101Metrics metrics = mManager.getMetrics();
+        assertEquals(2, metrics.getPacketsReceived());
+        assertEquals(2, metrics.getHardwareRejections());
+        assertEquals(1, metrics.getFilterRejections());
+        assertEquals(1, mManager.getRejectedPacketCount(noBroadcast));
+        assertEquals(0, mManager.getRejectedPacketCount(PacketFilters.CRC_OK));
+        assertTrue(mPackets.isEmpty());
+    }
+
+    private void awaitHardwareRejections(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mManager.getMetrics().getHardwareRejections() < count) {
+            assertTrue("Rejected packet not seen", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void metricsCountReceivedPackets() throws Exception {
+        start();
+        CC1101Metrics before = mManager.getMetrics();
+        mTransport.injectPacket(new byte[] { 1, 2 }, (byte) 0, (byte) 0, true);
+        nextPacket();
+        mTransport.injectPacket(new byte[] { 3 }, (byte) 0, (byte) 0, false);
+        nextPacket();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mManager.getMetrics().getListenerTime().getCount() < 2) {
+            assertTrue("Listener calls not timed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        CC1101Metrics metrics = mManager.getMetrics().since(before);
+        assertEquals(2, metrics.getPacketsReceived());
+        assertEquals(1, metrics.getCrcFailures());
+        assertEquals(0, metrics.getFifoOverflows());
+        assertEquals(0, metrics.getDroppedPackets());
+        assertEquals(2, metrics.getInterruptLatency().getCount());
+        assertTrue(metrics.getSpiTransactions() > 0);
+        assertTrue(metrics.getSpiBytes() > metrics.getSpiTransactions());
+        assertEquals(0, metrics.getSpiErrors());
+    }
+
+    @Test
+    public void receivePooledPackets() throws Exception {
+        CC1101PacketPool pool = new CC1101PacketPool(2);
+        mManager.setPacketPool(pool);
+        start();
+
+        byte[] payload = new byte[] { 0x05, 0x06 };
+        mTransport.injectPacket(payload, (byte) 0x50, (byte) 0x2A, false);
+        CC1101Packet packet = nextPacket();
+        assertEquals(1, pool.getAvailableCount());
+        assertEquals(payload.length, packet.getLength());
+        assertEquals(CC1101PacketPool.PACKET_CAPACITY, packet.data.length);
+        assertEquals(0x05, packet.data[0]);
+        assertEquals(0x06, packet.data[1]);
+        assertFalse(packet.crcOk);
+
+        packet.recycle();
+        assertEquals(2, pool.getAvailableCount());
+        assertEquals(0, pool.getMissCount());
+        try {
+            packet.recycle();
+            fail("A packet can't be recycled twice");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(2, pool.getAvailableCount());
+        assertTrue(pool.acquire() != pool.acquire());
+    }
+
+    @Test
+    public void drainPastEmptyPacket() throws Exception {
+        start();
+        mTransport.setGdo0Listener(null);
+        mTransport.injectPacket(new byte[0], (byte) 0, (byte) 0x20, true);
+        for (int i = 1; i <= 2; i++) {
+            mTransport.injectPacket(new byte[] { (byte) i }, (byte) 0, (byte) 0x20, true);
+        }
+        mManager.setListening();
+        // The edge of the last packet drains the whole FIFO
+        mTransport.injectPacket(new byte[] { 3 }, (byte) 0, (byte) 0x20, true);
+
+        assertEquals(0, nextPacket().getLength());
+        for (int i = 1; i <= 3; i++) {
+            assertArrayEquals(new byte[] { (byte) i }, nextPacket().data);
+        }
+        assertEquals(0, mTransport.getRxFifoCount());
+        assertEquals(0, mManager.getMetrics().getEmptyReads());
+    }
+
+    @Test
+    public void drainAllPacketsOnOneInterrupt() throws Exception {
+        final BlockingQueue<List<CC1101Packet>> batches = new LinkedBlockingQueue<>();
+        mManager.setBatchPacketListener(new CC1101Manager.BatchPacketListener() {
+            @Override
+            public void onNewPackets(List<CC1101Packet> packets) {
+                batches.add(new ArrayList<>(packets));
+            }
+        });
+        start();
+
+        // Packets received while the interrupt is not serviced pile up in the RX FIFO
+        mTransport.setGdo0Listener(null);
+        for (int i = 0; i < 3; i++) {
+            mTransport.injectPacket(new byte[] { (byte) i }, (byte) 0, (byte) 0, true);
+        }
+        mManager.setListening();
+        long transactions = mTransport.getTransactionCount();
+        mTransport.injectPacket(new byte[] { 3 }, (byte) 0, (byte) 0, true);
+
+        List<CC1101Packet> batch = batches.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(batch);
+        assertEquals(4, batch.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, batch.get(i).data[0]);
+        }
+        // RXBYTES, the FIFO but its last byte, then the last byte once it is known to end a packet
+        assertEquals(3, mTransport.getTransactionCount() - transactions);
+        assertTrue(mPackets.isEmpty());
+    }
+
+    @Test
+    public void failingListenerDoesNotStopDelivery() throws Exception {
+        mManager.setBackpressurePolicy(CC1101Manager.BackpressurePolicy.BLOCK, 1);
+        mManager.setPacketListener(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                if (packet.data[0] == 1) {
+                    throw new IllegalStateException("Listener failure");
+                }
+                mPackets.add(packet);
+            }
+        });
+        start();
+
+        mTransport.injectPacket(new byte[] { 1 }, (byte) 0, (byte) 0, true);
+        mTransport.injectPacket(new byte[] { 2 }, (byte) 0, (byte) 0, true);
+        mTransport.injectPacket(new byte[] { 3 }, (byte) 0, (byte) 0, true);
+        assertEquals(2, nextPacket().data[0]);
+        assertEquals(3, nextPacket().data[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectEmptyQueue() {
+        mManager.setBackpressurePolicy(CC1101Manager.BackpressurePolicy.BLOCK, 0);
+    }
+
+    @Test
+    public void slowListenerDoesNotBlockReception() throws Exception {
+        final CountDownLatch listenerEntered = new CountDownLatch(1);
+        final CountDownLatch releaseListener = new CountDownLatch(1);
+        mManager.setBackpressurePolicy(CC1101Manager.BackpressurePolicy.DROP_NEWEST, 1);
+        mManager.setPacketListener(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                listenerEntered.countDown();
+                try {
+                    releaseListener.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                mPackets.add(packet);
+            }
+        });
+        start();
+
+        mTransport.injectPacket(new byte[] { 1 }, (byte) 0, (byte) 0, true);
+        assertTrue(listenerEntered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        mTransport.injectPacket(new byte[] { 2 }, (byte) 0, (byte) 0, true);
+        mTransport.injectPacket(new byte[] { 3 }, (byte) 0, (byte) 0, true);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mManager.getDroppedPacketCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // The radio thread kept draining the FIFO while the listener was busy
+        assertEquals(0, mTransport.getRxFifoCount());
+        assertEquals(1, mManager.getDroppedPacketCount());
+
+        releaseListener.countDown();
+        assertEquals(1, nextPacket().data[0]);
+        assertEquals(2, nextPacket().data[0]);
+    }
+
+    @Test
+    public void sendPacketAsync() throws Exception {
+        start();
+        for (int i = 0; i < 3; i++) {
+            CC1101Packet packet = new CC1101Packet();
+            packet.data = new byte[] { (byte) i, 0x0A, 0x0B };
+            packet.length = (byte) packet.data.length;
+            long transactions = mTransport.getTransactionCount();
+
+            CompletableFuture<CC1101Packet> future = mManager.sendData(packet);
+            assertEquals(packet, future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            // Burst write and STX, then SRX on the end of packet edge
+            assertEquals(3, mTransport.getTransactionCount() - transactions);
+            assertArrayEquals(new byte[] { 3, (byte) i, 0x0A, 0x0B }, mTransport.getTransmittedPackets().get(0));
+        }
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+
+    @Test
+    public void sendQueuedPacketsBackToBack() throws Exception {
+        start();
+        List<CompletableFuture<CC1101Packet>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            CC1101Packet packet = new CC1101Packet();
+            packet.data = new byte[20];
+            packet.data[0] = (byte) i;
+            packet.length = (byte) packet.data.length;
+            futures.add(mManager.sendData(packet));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).get(TIMEOUT_MS, TimeUnit.MILLISECONDS).data[0]);
+        }
+
+        List<byte[]> sent = mTransport.getTransmittedPackets();
+        assertEquals(20, sent.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(21, sent.get(i).length);
+            assertEquals(i, sent.get(i)[1]);
+        }
+        assertEquals(CC1101Config.GFSK_1_2_kb.getConfig()[CC1101Constants.CC1101_MCSM1],
+                mTransport.getConfigRegister(CC1101Constants.CC1101_MCSM1));
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+
+    private static byte[] streamPacket(int length) {
+        byte[] packet = new byte[length + 2];
+        packet[0] = (byte) (length >> 8);
+        packet[1] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            packet[i + 2] = (byte) i;
+        }
+        return packet;
+    }
+
+    @Test
+    public void receiveStream() throws Exception {
+        final ReentrantLock busLock = new ReentrantLock(true);
+        mManager.close();
+        mManager = new CC1101Manager(mTransport, CC1101Config.GFSK_1_2_kb, busLock);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final int[] announcedLength = new int[1];
+        final boolean[] busHeld = new boolean[1];
+        final CountDownLatch end = new CountDownLatch(1);
+        mManager.setStreamListener(new CC1101Manager.StreamListener() {
+            @Override
+            public void onStreamStart(int length) {
+                announcedLength[0] = length;
+                busHeld[0] |= busLock.isHeldByCurrentThread();
+            }
+
+            @Override
+            public void onStreamData(byte[] buffer, int offset, int length) {
+                received.write(buffer, offset, length);
+                busHeld[0] |= busLock.isHeldByCurrentThread();
+            }
+
+            @Override
+            public void onStreamEnd(byte rssi, byte lqi, boolean crcOk) {
+                busHeld[0] |= busLock.isHeldByCurrentThread();
+                end.countDown();
+            }
+
+            @Override
+            public void onStreamAborted() {
+            }
+        });
+        start();
+
+        byte[] packet = streamPacket(600);
+        assertTrue(mTransport.injectStream(packet, (byte) 0x50, (byte) 0x2A, true));
+        assertTrue(end.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(600, announcedLength[0]);
+        assertArrayEquals(Arrays.copyOfRange(packet, 2, packet.length), received.toByteArray());
+        // The other radios of the bus can use it while the listener runs
+        assertFalse(busHeld[0]);
+        // Back to infinite packet length mode for the next packet
+        assertEquals(0x46, mTransport.getConfigRegister(CC1101Constants.CC1101_PKTCTRL0));
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+        assertTrue(mPackets.isEmpty());
+    }
+
+    @Test
+    public void notifyStreamAbortOnRadioThread() throws Exception {
+        final CountDownLatch dataEntered = new CountDownLatch(1);
+        final CountDownLatch releaseData = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final boolean[] inData = new boolean[1];
+        final boolean[] overlap = new boolean[1];
+        final Thread[] abortThread = new Thread[1];
+        mManager.setStreamListener(new CC1101Manager.StreamListener() {
+            @Override
+            public void onStreamStart(int length) {
+            }
+
+            @Override
+            public void onStreamData(byte[] buffer, int offset, int length) {
+                inData[0] = true;
+                dataEntered.countDown();
+                try {
+                    releaseData.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                inData[0] = false;
+            }
+
+            @Override
+            public void onStreamEnd(byte rssi, byte lqi, boolean crcOk) {
+            }
+
+            @Override
+            public void onStreamAborted() {
+                overlap[0] |= inData[0];
+                abortThread[0] = Thread.currentThread();
+                aborted.countDown();
+            }
+        });
+        start();
+
+        // The start of a long packet : the radio thread stays in onStreamData while the test
+        // thread drops the packet
+        assertTrue(mTransport.startPacket(streamPacket(600), 50));
+        assertTrue(dataEntered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        try {
+            mManager.hop(3);
+            assertEquals(1, aborted.getCount());
+        } finally {
+            releaseData.countDown();
+        }
+        assertTrue(aborted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(overlap[0]);
+        assertTrue(abortThread[0].getName().endsWith("-radio"));
+    }
+
+    @Test
+    public void sendStream() throws Exception {
+        start();
+        byte[] packet = streamPacket(600);
+        byte[] payload = Arrays.copyOfRange(packet, 2, packet.length);
+        assertTrue(mManager.sendStream(new ByteArrayInputStream(payload), payload.length));
+
+        List<byte[]> sent = mTransport.getTransmittedPackets();
+        assertEquals(1, sent.size());
+        assertArrayEquals(packet, sent.get(0));
+        assertEquals(0x45, mTransport.getConfigRegister(CC1101Constants.CC1101_PKTCTRL0));
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+
+    @Test
+    public void sendStreamFailsWhenDataEndsEarly() throws Exception {
+        start();
+        assertFalse(mManager.sendStream(new ByteArrayInputStream(new byte[100]), 300));
+        assertEquals(0, mTransport.getTxFifoCount());
+        assertEquals(CC1101Constants.MARCSTATE_RX, mTransport.getMarcState());
+    }
+}
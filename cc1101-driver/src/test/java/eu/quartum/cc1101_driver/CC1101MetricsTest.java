@@ -0,0 +1,44 @@
+package eu.quartum.cc1101_driver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CC1101MetricsTest {
+
+    @Test
+    public void histogramPercentiles() {
+        MetricsRecorder.Histogram histogram = new MetricsRecorder.Histogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(100000);
+
+        CC1101Metrics.Histogram snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(1990, snapshot.getMeanNanos());
+        assertEquals(100000, snapshot.getMaxNanos());
+        // 1000ns falls in the [512, 1023] bucket
+        assertEquals(1023, snapshot.getPercentileNanos(50));
+        assertEquals(1023, snapshot.getPercentileNanos(99));
+        assertEquals(100000, snapshot.getPercentileNanos(100));
+    }
+
+    @Test
+    public void countPacketsByLength() {
+        MetricsRecorder recorder = new MetricsRecorder();
+        CC1101Packet packet = new CC1101Packet();
+        for (byte length : new byte[] { -1, -2, 0, 5 }) {
+            packet.length = length;
+            recorder.countPacket(packet);
+        }
+
+        CC1101Metrics metrics = new CC1101Metrics(recorder, 0, 0, 0, new long[CC1101Manager.Recovery.values().length]);
+        assertEquals(1, metrics.getFifoOverflows());
+        assertEquals(1, metrics.getOversizedPackets());
+        // An empty packet is a packet, not an empty read
+        assertEquals(0, metrics.getEmptyReads());
+        assertEquals(2, metrics.getPacketsReceived());
+        assertEquals(2, metrics.getCrcFailures());
+    }
+}
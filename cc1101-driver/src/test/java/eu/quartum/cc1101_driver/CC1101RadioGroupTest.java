@@ -0,0 +1,94 @@
+package eu.quartum.cc1101_driver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.transport.SimulatedCC1101Transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class CC1101RadioGroupTest {
+    private final static long TIMEOUT_MS = 2000;
+    private final static int PACKETS_PER_RADIO = 50;
+
+    private final SimulatedCC1101Transport[] mTransports = new SimulatedCC1101Transport[3];
+    private CC1101RadioGroup mGroup;
+    private final BlockingQueue<int[]> mPackets = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mGroup = new CC1101RadioGroup();
+        for (int i = 0; i < mTransports.length; i++) {
+            mTransports[i] = new SimulatedCC1101Transport();
+            // Radios 0 and 1 share a bus
+            assertEquals(i, mGroup.addRadio(i < 2 ? "SPI0.0" : "SPI1.0", mTransports[i], CC1101Config.GFSK_1_2_kb));
+            // The shared dispatch thread may lag behind on a loaded machine : wait instead of dropping
+            mGroup.getRadio(i).setBackpressurePolicy(CC1101Manager.BackpressurePolicy.BLOCK, 32);
+        }
+        mGroup.setPacketPool(new CC1101PacketPool(16));
+        mGroup.setPacketListener(new CC1101RadioGroup.PacketListener() {
+            @Override
+            public void onNewPacket(int radioId, CC1101Packet packet) {
+                mPackets.add(new int[] { radioId, packet.length > 0 ? packet.data[0] : packet.length });
+                packet.recycle();
+            }
+        });
+        mGroup.setup();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mGroup.close();
+    }
+
+    @Test
+    public void mergePacketsTaggedWithRadioId() throws Exception {
+        for (int i = 0; i < mTransports.length; i++) {
+            mTransports[i].injectPacket(new byte[] { (byte) (10 + i) }, (byte) 0, (byte) 0, true);
+            int[] packet = mPackets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("No packet from radio " + i, packet);
+            assertArrayEquals(new int[] { i, 10 + i }, packet);
+        }
+    }
+
+    @Test
+    public void radiosReceiveConcurrently() throws Exception {
+        Thread[] senders = new Thread[mTransports.length];
+        for (int i = 0; i < senders.length; i++) {
+            final SimulatedCC1101Transport transport = mTransports[i];
+            senders[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < PACKETS_PER_RADIO; j++) {
+                        // Leave room in the RX FIFO, the radios must not overflow
+                        while (transport.getRxFifoCount() > 32
+                                || !transport.injectPacket(new byte[] { (byte) j }, (byte) 0, (byte) 0, true)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            senders[i].start();
+        }
+        int[] counts = new int[mTransports.length];
+        for (int i = 0; i < PACKETS_PER_RADIO * mTransports.length; i++) {
+            int[] packet = mPackets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("Only " + i + " packets received", packet);
+            assertEquals("radio " + packet[0] + " packet " + i, counts[packet[0]], packet[1]);
+            counts[packet[0]]++;
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        for (int i = 0; i < mTransports.length; i++) {
+            assertEquals(0, mGroup.getRadio(i).getMetrics().getSpiErrors());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package eu.quartum.cc1101_driver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CC1101StatusTest {
+    @Test
+    public void decodeStatusByte() throws Exception {
+        byte status = (byte) 0x1F;
+        assertTrue(CC1101Status.isChipReady(status));
+        assertEquals(CC1101Status.STATE_RX, CC1101Status.getState(status));
+        assertEquals(15, CC1101Status.getFifoBytes(status));
+
+        status = (byte) 0xF3;
+        assertFalse(CC1101Status.isChipReady(status));
+        assertEquals(CC1101Status.STATE_TXFIFO_UNDERFLOW, CC1101Status.getState(status));
+        assertEquals(3, CC1101Status.getFifoBytes(status));
+        assertEquals("Status not ready, TXFIFO_UNDERFLOW, 3 FIFO bytes", CC1101Status.toString(status));
+    }
+}
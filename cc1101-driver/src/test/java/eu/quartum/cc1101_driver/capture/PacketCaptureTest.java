@@ -0,0 +1,133 @@
+package eu.quartum.cc1101_driver.capture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import eu.quartum.cc1101_driver.CC1101Config;
+import eu.quartum.cc1101_driver.CC1101Manager;
+import eu.quartum.cc1101_driver.CC1101Packet;
+import eu.quartum.cc1101_driver.transport.SimulatedCC1101Transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PacketCaptureTest {
+    private final static long TIMEOUT_MS = 2000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static CC1101Packet packet(int length, int first) {
+        CC1101Packet packet = new CC1101Packet();
+        packet.length = (byte) length;
+        packet.data = new byte[length];
+        packet.data[0] = (byte) first;
+        packet.crcOk = true;
+        packet.receivedNanos = 1000000L * first;
+        return packet;
+    }
+
+    @Test
+    public void ringKeepsNewestPackets() throws Exception {
+        File file = mFolder.newFile();
+        PacketCapture capture = new PacketCapture(file, 256);
+        for (int i = 1; i <= 30; i++) {
+            capture.record(packet(10, i));
+        }
+        CC1101Packet overflow = new CC1101Packet();
+        overflow.length = -1;
+        capture.record(overflow);
+        capture.close();
+
+        // 22 bytes per packet : 11 fit in the ring, and the overflow record evicts one of them
+        assertEquals(11, capture.getPacketCount());
+        assertEquals(31, capture.getRecordedCount());
+        PacketReplayer replayer = new PacketReplayer(file);
+        assertEquals(11, replayer.getPacketCount());
+        for (int i = 0; i < 10; i++) {
+            CC1101Packet packet = replayer.getPacket(i);
+            assertEquals(10, packet.getLength());
+            assertEquals(21 + i, packet.data[0]);
+            assertEquals(1000000L * (21 + i), packet.receivedNanos);
+        }
+        assertEquals(-1, replayer.getPacket(10).length);
+    }
+
+    @Test
+    public void recordAndReplayReceivedPackets() throws Exception {
+        File file = mFolder.newFile();
+        PacketCapture capture = new PacketCapture(file, 4096);
+        SimulatedCC1101Transport transport = new SimulatedCC1101Transport();
+        CC1101Manager manager = new CC1101Manager(transport, CC1101Config.GFSK_1_2_kb);
+        final BlockingQueue<CC1101Packet> packets = new LinkedBlockingQueue<>();
+        manager.setPacketListener(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                packets.add(packet);
+            }
+        });
+        manager.setPacketCapture(capture);
+        manager.setup();
+        manager.setRxState();
+        try {
+            transport.injectPacket(new byte[] { 1, 2, 3 }, (byte) 0x50, (byte) 0x2A, true);
+            assertNotNull(packets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            transport.injectPacket(new byte[] { 4 }, (byte) 0x60, (byte) 0x10, false);
+            assertNotNull(packets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            manager.setPacketCapture(null);
+            manager.close();
+            capture.close();
+        }
+
+        PacketReplayer replayer = new PacketReplayer(file);
+        final List<CC1101Packet> replayed = new ArrayList<>();
+        assertEquals(2, replayer.replay(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                replayed.add(packet);
+            }
+        }, PacketReplayer.MAX_SPEED));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, replayed.get(0).data);
+        assertEquals(0x50, replayed.get(0).rssi);
+        assertEquals(0x2A, replayed.get(0).lqi);
+        assertTrue(replayed.get(0).crcOk);
+        assertArrayEquals(new byte[] { 4 }, replayed.get(1).data);
+        assertFalse(replayed.get(1).crcOk);
+        assertTrue(replayer.getTimestampMillis(1) >= replayer.getTimestampMillis(0));
+
+        // Replay through the receive path of a second manager
+        transport = new SimulatedCC1101Transport();
+        manager = new CC1101Manager(transport, CC1101Config.GFSK_1_2_kb);
+        manager.setPacketListener(new CC1101Manager.PacketListener() {
+            @Override
+            public void onNewPacket(CC1101Packet packet) {
+                packets.add(packet);
+            }
+        });
+        manager.setup();
+        manager.setRxState();
+        try {
+            assertEquals(2, replayer.replay(transport, 10));
+            CC1101Packet packet = packets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(packet);
+            assertArrayEquals(new byte[] { 1, 2, 3 }, packet.data);
+            packet = packets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(packet);
+            assertArrayEquals(new byte[] { 4 }, packet.data);
+        } finally {
+            manager.close();
+        }
+    }
+}
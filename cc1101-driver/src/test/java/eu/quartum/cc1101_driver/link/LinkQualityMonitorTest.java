@@ -0,0 +1,111 @@
+package eu.quartum.cc1101_driver.link;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import eu.quartum.cc1101_driver.CC1101Packet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LinkQualityMonitorTest {
+    private final static float DELTA = 0.001f;
+
+    private static CC1101Packet packet(int sender, int rssi, int lqi, boolean crcOk, long nanos) {
+        CC1101Packet packet = new CC1101Packet();
+        packet.length = 2;
+        packet.data = new byte[] { (byte) sender, 0x00 };
+        packet.rssi = (byte) rssi;
+        packet.lqi = (byte) lqi;
+        packet.crcOk = crcOk;
+        packet.receivedNanos = nanos;
+        return packet;
+    }
+
+    @Test
+    public void convertRssiToDbm() {
+        assertEquals(-74f, CC1101Packet.rssiToDbm((byte) 0x00, 74), DELTA);
+        assertEquals(-10.5f, CC1101Packet.rssiToDbm((byte) 0x7F, 74), DELTA);
+        // 0x80 = 128 : (128 - 256) / 2 - 74
+        assertEquals(-138f, CC1101Packet.rssiToDbm((byte) 0x80, 74), DELTA);
+        assertEquals(-100f, packet(1, -52, 0, true, 1).getRssiDbm(), DELTA);
+    }
+
+    @Test
+    public void statisticsPerSender() {
+        LinkQualityMonitor monitor = new LinkQualityMonitor(16, 0.5, LinkQualityMonitor.payloadByte(0));
+        monitor.record(packet(7, -40, 10, true, 1));
+        monitor.record(packet(7, -60, 20, false, 2));
+        monitor.record(packet(7, -60, 20, true, 3));
+        monitor.record(packet(9, 0, 5, true, 4));
+
+        LinkStats stats = monitor.getStats(7);
+        assertEquals(3, stats.getPacketCount());
+        assertEquals(1, stats.getCrcFailureCount());
+        assertEquals(1 / 3f, stats.getCrcFailureRate(), DELTA);
+        // 0 -> 0.5 -> 0.25
+        assertEquals(0.25f, stats.getRecentCrcFailureRate(), DELTA);
+        // -40 -> -50 -> -55 raw, in half dB
+        assertEquals(-55 / 2f - 74, stats.getRssiDbm(), DELTA);
+        assertEquals(17.5f, stats.getLqi(), DELTA);
+        assertEquals(-104f, stats.getMinRssiDbm(), DELTA);
+        assertEquals(-94f, stats.getMaxRssiDbm(), DELTA);
+        // -60 raw falls in the [-64, -57] bucket, reported by its upper bound
+        assertEquals(-102.5f, stats.getRssiPercentileDbm(50), DELTA);
+        assertEquals(-94f, stats.getRssiPercentileDbm(100), DELTA);
+        assertEquals(3, stats.getLastSeenNanos());
+
+        assertEquals(1, monitor.getStats(9).getPacketCount());
+        assertNull(monitor.getStats(8));
+        int[] senders = monitor.getSenders();
+        Arrays.sort(senders);
+        assertArrayEquals(new int[] { 7, 9 }, senders);
+    }
+
+    @Test
+    public void evictLeastRecentlyHeardSenders() {
+        LinkQualityMonitor monitor = new LinkQualityMonitor(4, 0.1, LinkQualityMonitor.payloadByte(0));
+        for (int i = 0; i < 200; i++) {
+            monitor.record(packet(i, -50, 0, true, i + 1));
+        }
+        assertEquals(4, monitor.getSenderCount());
+        assertEquals(196, monitor.getEvictionCount());
+        // The table is sampled whole : the senders left are the last ones
+        int[] senders = monitor.getSenders();
+        Arrays.sort(senders);
+        assertArrayEquals(new int[] { 196, 197, 198, 199 }, senders);
+        for (int sender : senders) {
+            assertEquals(1, monitor.getStats(sender).getPacketCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTooManySenders() {
+        new LinkQualityMonitor((1 << 16) + 1, 0.1, LinkQualityMonitor.payloadByte(0));
+    }
+
+    @Test
+    public void findSendersAfterEvictions() {
+        LinkQualityMonitor monitor = new LinkQualityMonitor(64, 0.1, new LinkQualityMonitor.SenderId() {
+            @Override
+            public int getSender(CC1101Packet packet) {
+                return packet.data[0] * 31 + packet.data[1];
+            }
+        });
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            CC1101Packet packet = packet(0, -50, 0, true, i + 1);
+            random.nextBytes(packet.data);
+            monitor.record(packet);
+        }
+        assertEquals(64, monitor.getSenderCount());
+        int[] senders = monitor.getSenders();
+        assertEquals(64, senders.length);
+        for (int sender : senders) {
+            assertEquals(sender, monitor.getStats(sender).getSender());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package eu.quartum.cc1101_driver.trace;
+
+import org.junit.Test;
+
+import eu.quartum.cc1101_driver.CC1101Constants;
+import eu.quartum.cc1101_driver.CC1101Status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTraceSinkTest {
+
+    @Test
+    public void keepsTheLastEvents() {
+        RingBufferTraceSink sink = new RingBufferTraceSink(3);
+        for (int i = 0; i < 6; i++) {
+            sink.trace(TraceEvent.REGISTER_WRITE, CC1101Constants.CC1101_CHANNR, i);
+        }
+        String[] lines = sink.dump().split("\n");
+        assertEquals(6, sink.getEventCount());
+        // The capacity is rounded up to 4
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("REGISTER_WRITE 0A = 02"));
+        assertTrue(lines[3], lines[3].endsWith("REGISTER_WRITE 0A = 05"));
+    }
+
+    @Test
+    public void formatsEvents() {
+        assertEquals("STROBE SRX, was " + CC1101Status.toString((byte) 0x0F),
+                TraceEvent.STROBE.format(CC1101Constants.CC1101_SRX, 0x0F));
+        assertEquals("PACKET_RECEIVED length 4, crc ok, rssi 50, lqi 2A",
+                TraceEvent.PACKET_RECEIVED.format(4, 0x1502A));
+        assertEquals("PACKET_RECEIVED length -1", TraceEvent.PACKET_RECEIVED.format(-1, 0));
+    }
+}
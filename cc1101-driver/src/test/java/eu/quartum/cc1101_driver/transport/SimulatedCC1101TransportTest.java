@@ -0,0 +1,146 @@
+package eu.quartum.cc1101_driver.transport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import eu.quartum.cc1101_driver.CC1101Constants;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SimulatedCC1101TransportTest {
+    private SimulatedCC1101Transport mTransport;
+
+    @Before
+    public void setUp() throws Exception {
+        mTransport = new SimulatedCC1101Transport();
+        mTransport.open();
+    }
+
+    private void strobe(byte command) throws Exception {
+        mTransport.write(new byte[] { command }, 1);
+    }
+
+    private void writeReg(byte address, byte value) throws Exception {
+        mTransport.write(new byte[] { address, value }, 2);
+    }
+
+    private byte readStatus(byte address) throws Exception {
+        byte[] tx = new byte[] { (byte) (address | CC1101Constants.READ_BURST), 0 };
+        byte[] rx = new byte[2];
+        mTransport.transfer(tx, rx, 2);
+        return rx[1];
+    }
+
+    @Test
+    public void burstWriteAndRead() throws Exception {
+        mTransport.write(new byte[] { (byte) (CC1101Constants.CC1101_SYNC1 | CC1101Constants.WRITE_BURST), 0x12, 0x34 }, 3);
+        assertEquals(0x12, mTransport.getConfigRegister(CC1101Constants.CC1101_SYNC1));
+        assertEquals(0x34, mTransport.getConfigRegister(CC1101Constants.CC1101_SYNC0));
+
+        byte[] buffer = new byte[2];
+        mTransport.select();
+        mTransport.write(new byte[] { (byte) (CC1101Constants.CC1101_SYNC1 | CC1101Constants.READ_BURST) }, 1);
+        mTransport.read(buffer, 2);
+        mTransport.deselect();
+        assertArrayEquals(new byte[] { 0x12, 0x34 }, buffer);
+    }
+
+    @Test
+    public void strobesChangeMarcState() throws Exception {
+        assertEquals(CC1101Constants.MARCSTATE_IDLE, readStatus(CC1101Constants.CC1101_MARCSTATE));
+        strobe(CC1101Constants.CC1101_SRX);
+        assertEquals(CC1101Constants.MARCSTATE_RX, readStatus(CC1101Constants.CC1101_MARCSTATE));
+        strobe(CC1101Constants.CC1101_SIDLE);
+        assertEquals(CC1101Constants.MARCSTATE_IDLE, readStatus(CC1101Constants.CC1101_MARCSTATE));
+    }
+
+    @Test
+    public void statusByteReportsStateAndRxBytes() throws Exception {
+        writeReg(CC1101Constants.CC1101_MCSM1, (byte) 0x3C);
+        strobe(CC1101Constants.CC1101_SRX);
+        mTransport.injectPacket(new byte[] { 1, 2, 3 }, (byte) 0, (byte) 0, true);
+
+        byte[] rx = new byte[1];
+        mTransport.transfer(new byte[] { (byte) (CC1101Constants.CC1101_SNOP | CC1101Constants.READ_SINGLE) }, rx, 1);
+        assertEquals(1, (rx[0] >> 4) & 0x07);
+        // length byte, 3 bytes of payload and 2 appended status bytes
+        assertEquals(6, rx[0] & 0x0F);
+    }
+
+    @Test
+    public void chipIsNotReadyAfterSleep() throws Exception {
+        strobe(CC1101Constants.CC1101_SPWD);
+        assertEquals(CC1101Constants.MARCSTATE_SLEEP, mTransport.getMarcState());
+
+        // The first transaction wakes the chip up, CHIP_RDYn is set until the crystal runs
+        byte[] status = new byte[1];
+        mTransport.transfer(new byte[] { CC1101Constants.CC1101_SNOP }, status, 1);
+        assertEquals((byte) 0xFF, status[0]);
+        mTransport.transfer(new byte[] { CC1101Constants.CC1101_SNOP }, status, 1);
+        assertEquals(0, status[0] & 0x80);
+        assertEquals(CC1101Constants.MARCSTATE_IDLE, mTransport.getMarcState());
+    }
+
+    @Test
+    public void rxFifoOverflow() throws Exception {
+        writeReg(CC1101Constants.CC1101_MCSM1, (byte) 0x3C);
+        strobe(CC1101Constants.CC1101_SRX);
+        mTransport.injectPacket(new byte[40], (byte) 0, (byte) 0, true);
+        assertFalse(mTransport.injectPacket(new byte[40], (byte) 0, (byte) 0, true));
+        assertEquals(CC1101Constants.MARCSTATE_RXFIFO_OVERFLOW, readStatus(CC1101Constants.CC1101_MARCSTATE));
+        assertEquals((byte) 0x80, (byte) (readStatus(CC1101Constants.CC1101_RXBYTES) & 0x80));
+
+        strobe(CC1101Constants.CC1101_SFRX);
+        assertEquals(0, readStatus(CC1101Constants.CC1101_RXBYTES));
+    }
+
+    @Test
+    public void transmitPacket() throws Exception {
+        final int[] edges = new int[1];
+        mTransport.setGdo0EdgeTrigger(CC1101Transport.EDGE_FALLING);
+        mTransport.setGdo0Listener(new CC1101Transport.EdgeListener() {
+            @Override
+            public void onEdge() {
+                edges[0]++;
+            }
+        });
+        mTransport.write(new byte[] { (byte) (CC1101Constants.CC1101_TXFIFO | CC1101Constants.WRITE_BURST), 2, 0x0A, 0x0B }, 4);
+        strobe(CC1101Constants.CC1101_STX);
+
+        List<byte[]> packets = mTransport.getTransmittedPackets();
+        assertEquals(1, packets.size());
+        assertArrayEquals(new byte[] { 2, 0x0A, 0x0B }, packets.get(0));
+        assertEquals(1, edges[0]);
+        assertEquals(0, mTransport.getTxFifoCount());
+    }
+
+    @Test
+    public void gdo2SignalsRxFifoThreshold() throws Exception {
+        final int[] edges = new int[1];
+        // RX FIFO threshold of 8 bytes, infinite packet length mode
+        writeReg(CC1101Constants.CC1101_IOCFG2, (byte) 0x00);
+        writeReg(CC1101Constants.CC1101_FIFOTHR, (byte) 0x01);
+        writeReg(CC1101Constants.CC1101_PKTCTRL0, (byte) 0x02);
+        mTransport.setGdo2EdgeTrigger(CC1101Transport.EDGE_RISING);
+        mTransport.setGdo2Listener(new CC1101Transport.EdgeListener() {
+            @Override
+            public void onEdge() {
+                edges[0]++;
+            }
+        });
+        strobe(CC1101Constants.CC1101_SRX);
+
+        // 5 bytes and the 2 appended status bytes stay below the threshold
+        mTransport.injectStream(new byte[5], (byte) 0, (byte) 0, true);
+        assertEquals(0, edges[0]);
+        strobe(CC1101Constants.CC1101_SIDLE);
+        strobe(CC1101Constants.CC1101_SFRX);
+        strobe(CC1101Constants.CC1101_SRX);
+        mTransport.injectStream(new byte[8], (byte) 0, (byte) 0, true);
+        assertEquals(1, edges[0]);
+    }
+}
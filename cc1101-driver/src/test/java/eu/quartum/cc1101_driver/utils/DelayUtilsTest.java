@@ -0,0 +1,16 @@
+package eu.quartum.cc1101_driver.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class DelayUtilsTest {
+    @Test
+    public void busyWaitLastsAtLeastTheRequestedTime() throws Exception {
+        for (long nanos = 1000; nanos <= 100000; nanos *= 10) {
+            long start = System.nanoTime();
+            DelayUtils.busyWaitNanos(nanos);
+            assertTrue(System.nanoTime() - start >= nanos);
+        }
+    }
+}